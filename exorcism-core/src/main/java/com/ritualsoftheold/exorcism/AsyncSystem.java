@@ -0,0 +1,53 @@
+package com.ritualsoftheold.exorcism;
+
+/**
+ * A system that does slow work, such as pathfinding or persistence, outside
+ * of ticks. Its {@link #compute(Object)} runs on an async executor and may
+ * take any number of ticks; once it is done, {@link #commit(World, Object)}
+ * is called on tick thread at a sync point. If it fails,
+ * {@link #failed(World, Throwable)} is called instead, and world keeps
+ * ticking.
+ *
+ * <p>Compute must not change entities or components, because ticks run
+ * concurrently with it. It should copy what it needs in
+ * {@link #prepare(World)}, which is called on tick thread.
+ *
+ */
+public interface AsyncSystem<T, R> {
+    
+    /**
+     * Collects input for computation. Called on tick thread, at a sync
+     * point.
+     * @param world World.
+     * @return Input, or null to skip this round.
+     */
+    T prepare(World world);
+    
+    /**
+     * Does the work. Called on async executor.
+     * @param input Input from {@link #prepare(World)}.
+     * @return Result.
+     * @throws Exception If computation fails.
+     */
+    R compute(T input) throws Exception;
+    
+    /**
+     * Applies result. Called on tick thread, at a sync point.
+     * @param world World.
+     * @param result Result from {@link #compute(Object)}.
+     */
+    void commit(World world, R result);
+    
+    /**
+     * Handles a round that failed. Called on tick thread, at a sync point.
+     * The round is dropped, and a new one is prepared as usual. By default,
+     * the error is printed to standard error.
+     * @param world World.
+     * @param error Exception that {@link #compute(Object)} threw, or
+     * {@link java.util.concurrent.CancellationException} if the round was
+     * cancelled.
+     */
+    default void failed(World world, Throwable error) {
+        error.printStackTrace();
+    }
+}
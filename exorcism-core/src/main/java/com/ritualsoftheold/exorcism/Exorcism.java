@@ -1,4 +1,74 @@
 package com.ritualsoftheold.exorcism;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Entry point to Exorcism runtime. Creates {@link World}s and executors
+ * they need.
+ *
+ */
 public class Exorcism {
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), or null if this JDK
+     * doesn't have virtual threads.
+     */
+    private static final MethodHandle newVirtualThreadExecutor;
+
+    static {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            handle = null;
+        }
+        newVirtualThreadExecutor = handle;
+    }
+
+    private Exorcism() {}
+
+    /**
+     * Checks if async work runs on virtual threads.
+     * @return Whether virtual threads are available.
+     */
+    public static boolean hasVirtualThreads() {
+        return newVirtualThreadExecutor != null;
+    }
+
+    /**
+     * Creates an executor for async systems. On JDKs that have virtual
+     * threads, each task gets one; on others, a cached pool of daemon
+     * threads is used.
+     * @return A new executor.
+     */
+    public static ExecutorService newAsyncExecutor() {
+        if (newVirtualThreadExecutor != null) {
+            try {
+                return (ExecutorService) newVirtualThreadExecutor.invokeExact();
+            } catch (Throwable e) {
+                // Virtual threads may be a disabled preview feature; fall back
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "exorcism-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a world with its own async executor.
+     * @param ticksPerSecond Tick rate.
+     * @return A new world.
+     */
+    public static World createWorld(int ticksPerSecond) {
+        return new World(ticksPerSecond, newAsyncExecutor(), true);
+    }
 }
@@ -0,0 +1,26 @@
+package com.ritualsoftheold.exorcism;
+
+/**
+ * Phases of a tick of {@link World}. Each phase has its own systems, and
+ * there is a sync point after each phase: structural changes recorded in
+ * it are applied and its event channels are swapped.
+ *
+ */
+public enum Phase {
+    
+    /**
+     * Input, network messages and such.
+     */
+    PRE_UPDATE,
+    
+    /**
+     * Game logic.
+     */
+    UPDATE,
+    
+    /**
+     * Spatial indexing, replication and other work that needs final state
+     * of the tick.
+     */
+    POST_UPDATE
+}
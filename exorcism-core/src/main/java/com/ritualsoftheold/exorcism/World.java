@@ -0,0 +1,357 @@
+package com.ritualsoftheold.exorcism;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+import com.ritualsoftheold.exorcism.entity.EntityStorage;
+import com.ritualsoftheold.exorcism.entity.system.InterestPoints;
+import com.ritualsoftheold.exorcism.entity.system.System;
+import com.ritualsoftheold.exorcism.entity.system.SystemScheduler;
+import com.ritualsoftheold.exorcism.util.EventChannel;
+
+/**
+ * Entities, their containers and systems that process them, ticked at a
+ * fixed rate.
+ *
+ * <p>A tick runs {@link Phase phases} in order. Systems of a phase are run
+ * by a {@link SystemScheduler}; after each phase, structural changes are
+ * applied and event channels swapped. At the end of a tick, results of
+ * {@link AsyncSystem}s that have completed are committed and new async
+ * rounds are started.
+ *
+ * <p>{@link #run()} ticks the world with a fixed timestep. If ticks fall
+ * behind, up to {@link #setMaxCatchUp(int) max catch-up} ticks are run
+ * back to back; if even that is not enough, remaining time is dropped.
+ *
+ * <p>Systems with an {@link com.ritualsoftheold.exorcism.entity.system.UpdateCadence
+ * update cadence} process entities of containers of this world, less often
+ * when containers are far from all {@link #getInterestPoints() interest
+ * points}.
+ *
+ */
+public class World {
+
+    /**
+     * Async system and its current round.
+     */
+    private static class AsyncEntry<T, R> {
+
+        final AsyncSystem<T, R> system;
+
+        /**
+         * Round that is running, or null.
+         */
+        CompletableFuture<R> running;
+
+        AsyncEntry(AsyncSystem<T, R> system) {
+            this.system = system;
+        }
+    }
+
+    private final EntityStorage storage;
+
+    private final List<EntityContainer> containers;
+
+    private final InterestPoints interest;
+
+    private final Map<Phase, SystemScheduler> phases;
+
+    private final List<AsyncEntry<?, ?>> asyncSystems;
+
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * If async executor should be shut down with this world.
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * Length of a tick.
+     */
+    private final long stepNanos;
+    private final float tpf;
+
+    private int maxCatchUp;
+
+    private volatile boolean running;
+
+    private long ticks;
+
+    /**
+     * Ticks that took longer than one step.
+     */
+    private long overruns;
+
+    /**
+     * Ticks that were skipped because catch-up limit was reached.
+     */
+    private long droppedTicks;
+
+    /**
+     * Async rounds that failed or were cancelled.
+     */
+    private long asyncFailures;
+
+    private long lastTickNanos;
+
+    public World(int ticksPerSecond, EntityStorage storage, ExecutorService asyncExecutor, boolean ownsExecutor) {
+        if (ticksPerSecond <= 0) {
+            throw new IllegalArgumentException("ticksPerSecond must be positive");
+        }
+        this.storage = storage;
+        this.containers = new ArrayList<>();
+        this.interest = new InterestPoints();
+        this.phases = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            SystemScheduler scheduler = new SystemScheduler();
+            scheduler.setContainers(containers, interest);
+            phases.put(phase, scheduler);
+        }
+        this.asyncSystems = new ArrayList<>();
+        this.asyncExecutor = asyncExecutor;
+        this.ownsExecutor = ownsExecutor;
+        this.stepNanos = TimeUnit.SECONDS.toNanos(1) / ticksPerSecond;
+        this.tpf = 1f / ticksPerSecond;
+        this.maxCatchUp = 5;
+    }
+
+    public World(int ticksPerSecond, ExecutorService asyncExecutor, boolean ownsExecutor) {
+        this(ticksPerSecond, new EntityStorage(), asyncExecutor, ownsExecutor);
+    }
+
+    public EntityStorage getStorage() {
+        return storage;
+    }
+
+    public void addContainer(EntityContainer container) {
+        containers.add(container);
+    }
+
+    public void removeContainer(EntityContainer container) {
+        containers.remove(container);
+    }
+
+    public Collection<EntityContainer> getContainers() {
+        return Collections.unmodifiableList(containers);
+    }
+
+    /**
+     * Gets points that entities near them are updated more often, such as
+     * positions of players. They should be changed only between ticks.
+     * @return Interest points.
+     */
+    public InterestPoints getInterestPoints() {
+        return interest;
+    }
+
+    /**
+     * Adds a system to a phase.
+     * @param phase Phase.
+     * @param system System.
+     */
+    public void addSystem(Phase phase, System system) {
+        phases.get(phase).add(system);
+    }
+
+    /**
+     * Adds a system to {@link Phase#UPDATE}.
+     * @param system System.
+     */
+    public void addSystem(System system) {
+        addSystem(Phase.UPDATE, system);
+    }
+
+    /**
+     * Adds an event channel that is swapped after given phase.
+     * @param phase Phase.
+     * @param channel Event channel.
+     */
+    public void addChannel(Phase phase, EventChannel<?> channel) {
+        phases.get(phase).addChannel(channel);
+    }
+
+    /**
+     * Gets scheduler of a phase, e.g. to add ordering constraints.
+     * @param phase Phase.
+     * @return Scheduler.
+     */
+    public SystemScheduler getScheduler(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public void addAsyncSystem(AsyncSystem<?, ?> system) {
+        asyncSystems.add(new AsyncEntry<>(system));
+    }
+
+    /**
+     * Sets how many ticks can be run back to back when ticking has fallen
+     * behind.
+     * @param maxCatchUp Maximum count of consecutive ticks.
+     */
+    public void setMaxCatchUp(int maxCatchUp) {
+        this.maxCatchUp = Math.max(1, maxCatchUp);
+    }
+
+    /**
+     * Gets fixed time per tick.
+     * @return Tick length in seconds.
+     */
+    public float getTpf() {
+        return tpf;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Gets how many ticks took longer than their time step.
+     * @return Overrun count.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Gets how many ticks were dropped, because world fell too far behind.
+     * @return Dropped tick count.
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * Gets how many async rounds failed or were cancelled.
+     * @return Failed round count.
+     */
+    public long getAsyncFailures() {
+        return asyncFailures;
+    }
+
+    /**
+     * Gets how long previous tick took.
+     * @return Duration in nanoseconds.
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * Runs one tick.
+     */
+    public void tick() {
+        long start = java.lang.System.nanoTime();
+        for (SystemScheduler scheduler : phases.values()) {
+            scheduler.run(tpf, storage); // Applies commands after phase
+        }
+        syncAsyncSystems();
+        ticks++;
+
+        lastTickNanos = java.lang.System.nanoTime() - start;
+        if (lastTickNanos > stepNanos) {
+            overruns++;
+        }
+    }
+
+    /**
+     * Commits results of completed async systems and starts new rounds
+     * of ones that are not running. Failed rounds are reported to their
+     * systems and dropped.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void syncAsyncSystems() {
+        for (AsyncEntry entry : asyncSystems) {
+            if (entry.running != null) {
+                if (!entry.running.isDone()) {
+                    continue; // Still running, maybe for many ticks
+                }
+                Object result = null;
+                Throwable error = null;
+                try {
+                    result = entry.running.join();
+                } catch (CompletionException e) {
+                    error = e.getCause() != null ? e.getCause() : e;
+                } catch (CancellationException e) {
+                    error = e;
+                } finally {
+                    entry.running = null;
+                }
+                if (error != null) {
+                    asyncFailures++;
+                    entry.system.failed(this, error);
+                } else {
+                    entry.system.commit(this, result);
+                }
+                storage.applyCommands();
+            }
+
+            Object input = entry.system.prepare(this);
+            if (input != null) {
+                AsyncSystem system = entry.system;
+                entry.running = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return system.compute(input);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, asyncExecutor);
+            }
+        }
+    }
+
+    /**
+     * Ticks this world at fixed rate on calling thread, until
+     * {@link #stop()} is called.
+     */
+    public void run() {
+        running = true;
+        long previous = java.lang.System.nanoTime();
+        long lag = 0;
+        while (running) {
+            long now = java.lang.System.nanoTime();
+            lag += now - previous;
+            previous = now;
+
+            if (lag > maxCatchUp * stepNanos) { // Too far behind, can't catch up
+                long dropped = lag / stepNanos - maxCatchUp;
+                droppedTicks += dropped;
+                lag -= dropped * stepNanos;
+            }
+            while (lag >= stepNanos && running) {
+                tick();
+                lag -= stepNanos;
+            }
+
+            LockSupport.parkNanos(stepNanos - lag);
+        }
+    }
+
+    /**
+     * Stops {@link #run()} after current tick.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Stops this world and shuts down its async executor, if it owns it.
+     * Async rounds that are running are not committed.
+     */
+    public void close() {
+        stop();
+        if (ownsExecutor) {
+            asyncExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+import com.ritualsoftheold.exorcism.entity.component.ComponentType;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+
+/**
+ * An archetype is a unique set of component types. All entities that have
+ * exactly those components are stored together in {@link Chunk}s owned by
+ * the archetype.
+ *
+ * <p>Archetype never leaves gaps in its chunks: when an entity is removed,
+ * the last entity of the last chunk is moved to its place. This means that
+ * all chunks but the last one are always full.
+ *
+ */
+public final class Archetype {
+
+    /**
+     * Component types of this archetype, sorted by name.
+     */
+    private final Class<? extends Component>[] types;
+
+    /**
+     * Column indices by {@link ComponentType} id, -1 for types this
+     * archetype doesn't have.
+     */
+    private final int[] columnsById;
+
+    /**
+     * Signature of all entities in this archetype.
+     */
+    private final ComponentSignature signature;
+
+    /**
+     * Layouts of types that are stored off-heap, null for other types.
+     */
+    private final StructLayout[] layouts;
+
+    /**
+     * How many entities fit in one chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * Chunks of this archetype. Only first {@link #chunkCount} are used.
+     */
+    private Chunk[] chunks;
+
+    private int chunkCount;
+
+    /**
+     * Last chunk that was emptied. It is kept around so that an entity
+     * count that oscillates around chunk boundary does not cause allocations.
+     */
+    private Chunk spare;
+
+    /**
+     * Total entity count.
+     */
+    private int size;
+
+    /**
+     * Cached transitions to archetypes that have one component more.
+     */
+    final Map<Class<? extends Component>, Archetype> addEdges;
+
+    /**
+     * Cached transitions to archetypes that have one component less.
+     */
+    final Map<Class<? extends Component>, Archetype> removeEdges;
+
+    Archetype(Class<? extends Component>[] types, StructLayout[] layouts, int chunkSize) {
+        this.types = types;
+        this.layouts = layouts;
+        this.signature = ComponentSignature.of(types);
+        int maxId = -1;
+        for (Class<? extends Component> type : types) {
+            maxId = Math.max(maxId, ComponentType.idOf(type));
+        }
+        this.columnsById = new int[maxId + 1];
+        Arrays.fill(columnsById, -1);
+        for (int i = 0; i < types.length; i++) {
+            columnsById[ComponentType.idOf(types[i])] = i;
+        }
+        this.chunkSize = chunkSize;
+        this.chunks = new Chunk[4];
+        this.addEdges = new HashMap<>();
+        this.removeEdges = new HashMap<>();
+    }
+
+    /**
+     * Finds column index of given component type.
+     * @param type Component type.
+     * @return Column index, or -1 if entities of this archetype don't
+     * have that component.
+     */
+    public int indexOf(Class<?> type) {
+        return indexOf(ComponentType.find(type));
+    }
+
+    /**
+     * Gets column index of a component type.
+     * @param typeId {@link ComponentType} id of component type.
+     * @return Column index, or -1 if entities of this archetype don't
+     * have that component.
+     */
+    public int indexOf(int typeId) {
+        int[] columns = columnsById;
+        return typeId >= 0 && typeId < columns.length ? columns[typeId] : -1;
+    }
+
+    /**
+     * Gets how many component types this archetype has.
+     * @return Component type count.
+     */
+    public int getComponentCount() {
+        return types.length;
+    }
+
+    public ComponentSignature getSignature() {
+        return signature;
+    }
+
+    /**
+     * Checks if a column is stored off-heap.
+     * @param column Column index.
+     * @return Whether the column is off-heap.
+     */
+    public boolean isOffHeap(int column) {
+        return layouts[column] != null;
+    }
+
+    public Class<? extends Component> getType(int column) {
+        return types[column];
+    }
+
+    Class<? extends Component>[] getTypes() {
+        return types;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Chunk getChunk(int index) {
+        return chunks[index];
+    }
+
+    /**
+     * Gets how many entities this archetype has.
+     * @return Entity count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds an entity to this archetype. Its components will be empty.
+     * @param entity Entity to add.
+     */
+    void add(Entity entity) {
+        Chunk chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if (chunk == null || chunk.size == chunkSize) { // Need a new chunk
+            if (spare != null) {
+                chunk = spare;
+                spare = null;
+            } else {
+                chunk = new Chunk(this, types, layouts, chunkSize);
+            }
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = chunk;
+        }
+        chunk.add(entity);
+        size++;
+    }
+
+    /**
+     * Removes an entity from given chunk and row. Last entity of this
+     * archetype is moved to its place.
+     * @param chunk Chunk of entity.
+     * @param row Row of entity.
+     */
+    void remove(Chunk chunk, int row) {
+        Chunk last = chunks[chunkCount - 1];
+        int lastRow = last.size - 1;
+        if (last != chunk || lastRow != row) { // Fill the hole
+            Entity moved = last.entities[lastRow];
+            chunk.entities[row] = moved;
+            for (int i = 0; i < types.length; i++) {
+                if (layouts[i] != null) {
+                    chunk.structs[i].copyRow(row, last.structs[i], lastRow);
+                } else {
+                    chunk.columns[i][row] = last.columns[i][lastRow];
+                }
+                chunk.copyChangeTick(i, row, last, i, lastRow);
+            }
+            moved.chunk = chunk;
+            moved.row = row;
+        }
+
+        last.clear(lastRow);
+        last.size--;
+        if (last.size == 0) { // Drop empty chunk, but keep it for reuse
+            chunks[--chunkCount] = null;
+            spare = last;
+        }
+        size--;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Archetype[");
+        for (int i = 0; i < types.length; i++) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(types[i].getSimpleName());
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clock for change detection. When component data of an entity is changed,
+ * current tick is recorded for that component. Each run of a system
+ * advances the clock, so the system can later ask which components were
+ * changed after its previous run.
+ *
+ * <p>Ticks wrap around; they are compared with
+ * {@link #isNewer(int, int)}, which works as long as compared ticks are
+ * less than 2^31 ticks apart. To keep them so, stored ticks are
+ * {@link #clamp(int, int) clamped} to at most {@link #MAX_AGE} ticks old.
+ * Changes older than that may be missed by systems that have not run for
+ * as long.
+ *
+ */
+public final class ChangeTicks {
+
+    /**
+     * Tick that is older than any change. Systems that have not run yet
+     * see everything as changed since this.
+     */
+    public static final int NEVER = 0;
+
+    /**
+     * How old ticks may get before they are clamped.
+     */
+    public static final int MAX_AGE = 1 << 30;
+
+    /**
+     * How often stored ticks must be clamped, so that they never get 2^31
+     * ticks old.
+     */
+    public static final int CLAMP_INTERVAL = 1 << 28;
+
+    private static final AtomicInteger clock = new AtomicInteger(NEVER + 1);
+
+    private ChangeTicks() {}
+
+    /**
+     * Gets current tick. Changes made now are recorded with it.
+     * @return Current tick.
+     */
+    public static int current() {
+        return clock.get();
+    }
+
+    /**
+     * Advances the clock. Changes made after this call will be newer than
+     * returned tick.
+     * @return Tick before advancing.
+     */
+    public static int advance() {
+        return clock.getAndIncrement();
+    }
+
+    /**
+     * Clamps a tick to be at most {@link #MAX_AGE} ticks older than current
+     * tick.
+     * @param tick Tick, which must not be newer than current tick.
+     * @param now Current tick.
+     * @return Tick, or oldest tick that is not clamped.
+     */
+    public static int clamp(int tick, int now) {
+        int age = now - tick;
+        return age < 0 || age > MAX_AGE ? now - MAX_AGE : tick; // Negative if wrapped
+    }
+
+    /**
+     * Checks if a change tick is newer than another tick.
+     * @param tick Change tick.
+     * @param since Tick to compare to.
+     * @return Whether tick is newer.
+     */
+    public static boolean isNewer(int tick, int since) {
+        return tick - since > 0;
+    }
+}
@@ -0,0 +1,259 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+
+/**
+ * A fixed-size block of entities that share an {@link Archetype}. Components
+ * are stored in one array per component type (a column), so systems that
+ * only care about one type can stream through it without touching the rest.
+ *
+ * <p>Rows of a chunk are always densely packed; the first {@link #size()}
+ * rows are in use.
+ *
+ */
+public final class Chunk {
+
+    private static final VarHandle tickVar = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /**
+     * Archetype that owns this chunk.
+     */
+    final Archetype archetype;
+
+    /**
+     * Entities stored in this chunk, by row.
+     */
+    final Entity[] entities;
+
+    /**
+     * Component columns, in same order as types of the archetype. Each column
+     * is created with the actual component type, so it can be cast to e.g.
+     * PositionComponent[].
+     */
+    final Component[][] columns;
+
+    /**
+     * Off-heap columns of data-only components. For each column index,
+     * either this or {@link #columns} is null.
+     */
+    final StructColumn[] structs;
+
+    /**
+     * Change ticks of components, by column and row. See
+     * {@link ChangeTicks}.
+     */
+    final int[][] changeTicks;
+
+    /**
+     * Newest change tick of each column.
+     */
+    final int[] columnTicks;
+
+    /**
+     * How many rows are in use.
+     */
+    int size;
+
+    Chunk(Archetype archetype, Class<? extends Component>[] types, StructLayout[] layouts, int capacity) {
+        this.archetype = archetype;
+        this.entities = new Entity[capacity];
+        this.columns = new Component[types.length][];
+        this.structs = new StructColumn[types.length];
+        this.changeTicks = new int[types.length][capacity];
+        this.columnTicks = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (layouts[i] != null) {
+                structs[i] = new StructColumn(layouts[i], capacity);
+            } else {
+                columns[i] = (Component[]) Array.newInstance(types[i], capacity);
+            }
+        }
+    }
+
+    /**
+     * Adds an entity to first free row of this chunk. Components are left
+     * empty, caller needs to fill them.
+     * @param entity Entity.
+     * @return Row where the entity was placed.
+     */
+    int add(Entity entity) {
+        int row = size++;
+        entities[row] = entity;
+        entity.chunk = this;
+        entity.row = row;
+        return row;
+    }
+
+    /**
+     * Clears given row. Only used on last row, so chunk stays dense.
+     * @param row Row index.
+     */
+    void clear(int row) {
+        entities[row] = null;
+        for (Component[] column : columns) {
+            if (column != null) {
+                column[row] = null;
+            }
+        }
+    }
+
+    /**
+     * Records that a component was changed.
+     * @param column Column index.
+     * @param row Row index.
+     * @param tick Change tick.
+     */
+    void markChanged(int column, int row, int tick) {
+        changeTicks[column][row] = tick;
+        // Systems in other threads may mark same column concurrently
+        int newest;
+        do {
+            newest = (int) tickVar.getVolatile(columnTicks, column);
+            if (!ChangeTicks.isNewer(tick, newest)) {
+                break;
+            }
+        } while (!tickVar.compareAndSet(columnTicks, column, newest, tick));
+    }
+
+    /**
+     * Records that components in a range of rows were changed. Bulk
+     * systems should call this after writing to a column.
+     * @param column Column index.
+     * @param from First row.
+     * @param to Row after last one.
+     */
+    public void markRangeChanged(int column, int from, int to) {
+        if (from < to) {
+            int tick = ChangeTicks.current();
+            Arrays.fill(changeTicks[column], from + 1, to, tick);
+            markChanged(column, from, tick); // Updates column tick too
+        }
+    }
+
+    /**
+     * Clamps change ticks of all rows, see {@link ChangeTicks#clamp(int, int)}.
+     * Must not be called while systems run.
+     * @param now Current tick.
+     */
+    void clampChangeTicks(int now) {
+        for (int column = 0; column < changeTicks.length; column++) {
+            int[] ticks = changeTicks[column];
+            for (int row = 0; row < ticks.length; row++) {
+                ticks[row] = ChangeTicks.clamp(ticks[row], now);
+            }
+            columnTicks[column] = ChangeTicks.clamp(columnTicks[column], now);
+        }
+    }
+
+    /**
+     * Copies change ticks of a row from another chunk.
+     * @param column Column index in this chunk.
+     * @param row Row in this chunk.
+     * @param source Source chunk.
+     * @param sourceColumn Column index in source chunk.
+     * @param sourceRow Row in source chunk.
+     */
+    void copyChangeTick(int column, int row, Chunk source, int sourceColumn, int sourceRow) {
+        markChanged(column, row, source.changeTicks[sourceColumn][sourceRow]);
+    }
+
+    public Archetype getArchetype() {
+        return archetype;
+    }
+
+    /**
+     * Gets how many entities are in this chunk.
+     * @return Entity count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets maximum count of entities in this chunk.
+     * @return Capacity.
+     */
+    public int capacity() {
+        return entities.length;
+    }
+
+    public Entity getEntity(int row) {
+        return entities[row];
+    }
+
+    /**
+     * Gets a component column by its index in archetype.
+     * @param column Column index, see {@link Archetype#indexOf(Class)}.
+     * @return Component array, or null if the column is stored off-heap.
+     * Only first {@link #size()} entries are valid.
+     */
+    public Component[] getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Gets a component column by type.
+     * @param type Component type.
+     * @return Component array, or null if this chunk does not store given type
+     * on heap. Only first {@link #size()} entries are valid.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Component> T[] getColumn(Class<T> type) {
+        int column = archetype.indexOf(type);
+        if (column == -1) {
+            return null;
+        }
+        return (T[]) columns[column];
+    }
+
+    /**
+     * Gets an off-heap column by its index in archetype.
+     * @param column Column index.
+     * @return Struct column, or null if the column is stored on heap.
+     */
+    public StructColumn getStructColumn(int column) {
+        return structs[column];
+    }
+
+    /**
+     * Gets an off-heap column by type.
+     * @param type Component type.
+     * @return Struct column, or null if this chunk does not store given type
+     * off-heap.
+     */
+    public StructColumn getStructColumn(Class<? extends Component> type) {
+        int column = archetype.indexOf(type);
+        if (column == -1) {
+            return null;
+        }
+        return structs[column];
+    }
+
+    /**
+     * Gets tick when a component was last changed.
+     * @param column Column index.
+     * @param row Row index.
+     * @return Change tick.
+     */
+    public int getChangeTick(int column, int row) {
+        return changeTicks[column][row];
+    }
+
+    /**
+     * Checks if any component in a column has changed after given tick.
+     * If not, whole chunk can be skipped.
+     * @param column Column index.
+     * @param since Tick to compare to.
+     * @return Whether something in the column has changed.
+     */
+    public boolean isColumnChangedSince(int column, int since) {
+        return ChangeTicks.isNewer((int) tickVar.getVolatile(columnTicks, column), since);
+    }
+}
@@ -0,0 +1,233 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+
+/**
+ * Records structural changes (spawning and despawning entities, adding and
+ * removing components) so that they can be applied later. Systems can't
+ * make such changes while entities are being iterated, so they record them
+ * here instead.
+ *
+ * <p>Each thread has its own buffer, see
+ * {@link EntityStorage#getCommandBuffer()}. A buffer must only be used by
+ * its own thread. Recorded commands are applied by
+ * {@link EntityStorage#applyCommands()} at a sync point, in order they were
+ * recorded.
+ *
+ */
+public final class CommandBuffer {
+
+    private static final byte SPAWN = 0;
+    private static final byte DESPAWN = 1;
+    private static final byte ADD = 2;
+    private static final byte REMOVE = 3;
+
+    private final EntityStorage storage;
+
+    /**
+     * Types of commands.
+     */
+    private byte[] ops;
+
+    /**
+     * Target entities of commands, null for spawns.
+     */
+    private Entity[] targets;
+
+    /**
+     * Arguments of commands: component to add, type to remove, or components
+     * of spawned entity.
+     */
+    private Object[] args;
+
+    /**
+     * Callbacks of spawns, null for other commands.
+     */
+    private Consumer<Entity>[] callbacks;
+
+    private int size;
+
+    /**
+     * If this buffer is in pending buffers of storage. Only touched by
+     * owner thread and at sync points.
+     */
+    boolean queued;
+
+    @SuppressWarnings("unchecked")
+    CommandBuffer(EntityStorage storage, int capacity) {
+        this.storage = storage;
+        this.ops = new byte[capacity];
+        this.targets = new Entity[capacity];
+        this.args = new Object[capacity];
+        this.callbacks = (Consumer<Entity>[]) new Consumer<?>[capacity];
+    }
+
+    private void record(byte op, Entity target, Object arg, Consumer<Entity> callback) {
+        if (size == ops.length) {
+            int capacity = ops.length * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            args = Arrays.copyOf(args, capacity);
+            callbacks = Arrays.copyOf(callbacks, capacity);
+        }
+        ops[size] = op;
+        targets[size] = target;
+        args[size] = arg;
+        callbacks[size] = callback;
+        size++;
+        if (!queued) {
+            queued = true;
+            storage.queue(this);
+        }
+    }
+
+    /**
+     * Records spawning of a new entity.
+     * @param callback Called with the entity after it has been created,
+     * e.g. to add it to a container. May be null.
+     * @param components Components of the entity.
+     */
+    public void spawn(Consumer<Entity> callback, Component... components) {
+        record(SPAWN, null, components, callback);
+    }
+
+    public void spawn(Component... components) {
+        spawn(null, components);
+    }
+
+    /**
+     * Records despawning of an entity. It is marked for removal, removed
+     * from its container and its storage is freed. Despawning an entity
+     * that has already been destroyed does nothing.
+     * @param entity Entity to despawn.
+     */
+    public void despawn(Entity entity) {
+        record(DESPAWN, entity, null, null);
+    }
+
+    /**
+     * Records adding a component to an entity.
+     * @param entity Target entity.
+     * @param component Component to add.
+     */
+    public void addComponent(Entity entity, Component component) {
+        record(ADD, entity, component, null);
+    }
+
+    /**
+     * Records removing a component from an entity.
+     * @param entity Target entity.
+     * @param type Type of component to remove.
+     */
+    public void removeComponent(Entity entity, Class<? extends Component> type) {
+        record(REMOVE, entity, type, null);
+    }
+
+    /**
+     * Gets count of recorded commands that have not been applied yet.
+     * @return Command count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Applies all recorded commands and clears this buffer.
+     */
+    void apply() {
+        int i = 0;
+        while (i < size) {
+            byte op = ops[i];
+            if (op == SPAWN) {
+                spawn((Component[]) args[i], callbacks[i]);
+                i++;
+            } else if (op == DESPAWN) {
+                targets[i].despawn();
+                i++;
+            } else {
+                // Consecutive changes to one entity need only one move
+                int end = i + 1;
+                while (end < size && targets[end] == targets[i] && (ops[end] == ADD || ops[end] == REMOVE)) {
+                    end++;
+                }
+                applyChanges(targets[i], i, end);
+                i = end;
+            }
+        }
+
+        Arrays.fill(targets, 0, size, null);
+        Arrays.fill(args, 0, size, null);
+        Arrays.fill(callbacks, 0, size, null);
+        size = 0;
+    }
+
+    private void spawn(Component[] components, Consumer<Entity> callback) {
+        Archetype target = storage.getEmptyArchetype();
+        for (Component component : components) {
+            if (target.indexOf(component.getClass()) == -1) {
+                target = storage.withComponent(target, component.getClass());
+            }
+        }
+
+        Entity entity = storage.createEntity(target);
+        for (Component component : components) {
+            entity.addComponent(component, 0);
+        }
+        if (callback != null) {
+            callback.accept(entity);
+        }
+    }
+
+    /**
+     * Applies a run of component additions and removals to one entity,
+     * moving it between archetypes at most once.
+     * @param entity Target entity.
+     * @param start First command.
+     * @param end End of commands, exclusive.
+     */
+    @SuppressWarnings("unchecked")
+    private void applyChanges(Entity entity, int start, int end) {
+        if (entity.chunk == null) {
+            return; // Destroyed before changes were applied
+        }
+
+        Archetype target = entity.chunk.archetype;
+        for (int i = start; i < end; i++) {
+            if (ops[i] == ADD) {
+                Class<? extends Component> type = ((Component) args[i]).getClass();
+                if (target.indexOf(type) == -1) {
+                    target = storage.withComponent(target, type);
+                }
+            } else {
+                Class<? extends Component> type = (Class<? extends Component>) args[i];
+                if (target.indexOf(type) != -1) {
+                    target = storage.withoutComponent(target, type);
+                }
+            }
+        }
+        if (target != entity.chunk.archetype) {
+            entity.moveTo(target);
+        }
+
+        // Store each added component unless a later command replaces or removes it
+        for (int i = start; i < end; i++) {
+            if (ops[i] == ADD && isLastChange(i, end)) {
+                entity.addComponent((Component) args[i], 0);
+            }
+        }
+    }
+
+    private boolean isLastChange(int index, int end) {
+        Class<?> type = args[index].getClass();
+        for (int i = index + 1; i < end; i++) {
+            Class<?> other = ops[i] == ADD ? args[i].getClass() : (Class<?>) args[i];
+            if (other == type) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+import com.ritualsoftheold.exorcism.util.VarInts;
+
+/**
+ * Applies frames from a {@link DeltaEncoder} to an entity storage. Entities
+ * are created and destroyed as they were on the encoding side; they get
+ * local ids, which can be looked up with {@link #get(long)}.
+ *
+ * <p>Decoder must be called at a sync point of its storage.
+ *
+ */
+public class DeltaDecoder {
+    
+    private final EntityStorage storage;
+    
+    private final DeltaSchema schema;
+    
+    /**
+     * Local entities by remote registry index.
+     */
+    private Entity[] entities;
+    
+    /**
+     * Remote ids of entities.
+     */
+    private long[] ids;
+    
+    /**
+     * Quantized field values by remote index and type index.
+     */
+    private long[][][] values;
+    
+    private long tick;
+    
+    public DeltaDecoder(EntityStorage storage, DeltaSchema schema) {
+        this.storage = storage;
+        this.schema = schema;
+        this.entities = new Entity[64];
+        this.ids = new long[64];
+        this.values = new long[64][][];
+    }
+    
+    /**
+     * Gets tick of last decoded frame.
+     * @return Tick, or 0 if nothing has been decoded.
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    /**
+     * Gets local entity that mirrors a remote entity.
+     * @param remoteId Id of entity on encoding side.
+     * @return Local entity, or null if there is none.
+     */
+    public Entity get(long remoteId) {
+        int index = EntityRegistry.index(remoteId);
+        if (index < 0 || index >= entities.length || ids[index] != remoteId) {
+            return null;
+        }
+        return entities[index];
+    }
+    
+    /**
+     * Decodes a frame and applies it.
+     * @param frame Frame data, from position to limit.
+     */
+    public void decode(ByteBuffer frame) {
+        tick = VarInts.getVarLong(frame);
+        
+        int destroyedCount = VarInts.getVarInt(frame);
+        for (int i = 0; i < destroyedCount; i++) {
+            long id = getId(frame);
+            Entity entity = get(id);
+            if (entity != null) {
+                destroy(EntityRegistry.index(id));
+            }
+        }
+        
+        int updatedCount = VarInts.getVarInt(frame);
+        for (int i = 0; i < updatedCount; i++) {
+            long id = getId(frame);
+            boolean created = frame.get() != 0;
+            int index = EntityRegistry.index(id);
+            if (created) {
+                if (index >= entities.length) {
+                    int length = Math.max(index + 1, entities.length * 2);
+                    entities = Arrays.copyOf(entities, length);
+                    ids = Arrays.copyOf(ids, length);
+                    values = Arrays.copyOf(values, length);
+                }
+                if (entities[index] != null) {
+                    destroy(index);
+                }
+                entities[index] = storage.createEntity();
+                ids[index] = id;
+                values[index] = new long[schema.size()][];
+            }
+            
+            Entity entity = get(id);
+            if (entity == null) {
+                throw new IllegalStateException("update to unknown entity " + id);
+            }
+            decodeEntity(frame, entity, values[index]);
+        }
+    }
+    
+    private void decodeEntity(ByteBuffer frame, Entity entity, long[][] values) {
+        int record;
+        while ((record = VarInts.getVarInt(frame)) != 0) {
+            int t = (record >>> 1) - 1;
+            Class<? extends Component> type = schema.getType(t);
+            if ((record & 1) != 0) { // Removed
+                entity.removeComponent(type, 0);
+                values[t] = null;
+                continue;
+            }
+            
+            StructLayout layout = schema.getLayout(t);
+            long[] fields = values[t];
+            if (fields == null) {
+                fields = new long[layout.getFieldCount()];
+                values[t] = fields;
+            }
+            long mask = VarInts.getVarLong(frame);
+            for (int f = 0; f < fields.length; f++) {
+                if ((mask & 1L << f) != 0) {
+                    fields[f] += VarInts.unzigzag(VarInts.getVarLong(frame));
+                }
+            }
+            
+            int column = entity.chunk.archetype.indexOf(type);
+            if (column == -1) { // New component
+                Component component = layout.newInstance();
+                for (int f = 0; f < fields.length; f++) {
+                    layout.writeBits(component, f, schema.dequantize(t, f, fields[f]));
+                }
+                entity.addComponent(component, 0);
+                continue;
+            }
+            
+            // Write changed fields in place
+            Chunk chunk = entity.chunk;
+            int row = entity.row;
+            StructColumn struct = chunk.structs[column];
+            for (int f = 0; f < fields.length; f++) {
+                if ((mask & 1L << f) != 0) {
+                    long bits = schema.dequantize(t, f, fields[f]);
+                    if (struct != null) {
+                        struct.setBits(f, row, bits);
+                    } else {
+                        layout.writeBits(chunk.columns[column][row], f, bits);
+                    }
+                }
+            }
+            chunk.markChanged(column, row, ChangeTicks.current());
+        }
+    }
+    
+    private void destroy(int index) {
+        entities[index].despawn();
+        entities[index] = null;
+        values[index] = null;
+    }
+    
+    private static long getId(ByteBuffer in) {
+        int index = VarInts.getVarInt(in);
+        int generation = VarInts.getVarInt(in);
+        return (long) generation << 32 | (index & 0xffffffffL);
+    }
+}
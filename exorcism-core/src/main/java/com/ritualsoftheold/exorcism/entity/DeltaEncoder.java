@@ -0,0 +1,272 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+import com.ritualsoftheold.exorcism.util.VarInts;
+
+/**
+ * Encodes changes of entities between ticks. Each call to
+ * {@link #encode()} compares current state of storage to state that was
+ * sent previously, and emits one frame to a {@link DeltaSink}.
+ *
+ * <p>Frame format; all integers are variable-length (see {@link VarInts}),
+ * and ids are sent as index and generation:
+ * <pre>
+ * tick
+ * destroyedCount, ids of destroyed entities
+ * updatedCount, for each updated entity:
+ *   id, created (0 or 1)
+ *   component records, each:
+ *     (typeIndex + 1) &lt;&lt; 1 | removed
+ *     if not removed: field mask, zigzag delta of each field in mask
+ *   0
+ * </pre>
+ * Field values are first quantized as described by {@link DeltaSchema};
+ * deltas are relative to previously sent values, so quantization errors
+ * don't accumulate.
+ *
+ * <p>Encoder must be called at a sync point.
+ *
+ */
+public class DeltaEncoder {
+
+    /**
+     * State of an entity as it was last sent.
+     */
+    private static class State {
+
+        final long id;
+
+        /**
+         * Quantized field values by type index, null for types entity
+         * didn't have.
+         */
+        final long[][] values;
+
+        /**
+         * Tick when entity was last seen.
+         */
+        long seen;
+
+        State(long id, int types) {
+            this.id = id;
+            this.values = new long[types][];
+        }
+    }
+
+    private final EntityStorage storage;
+
+    private final DeltaSchema schema;
+
+    private final DeltaSink sink;
+
+    /**
+     * States of entities by registry index.
+     */
+    private State[] states;
+
+    private long tick;
+
+    /**
+     * Buffers for parts of frame. Reused between frames.
+     */
+    private ByteBuffer destroyed, updates, frame;
+
+    /**
+     * Upper bound of size of one entity update.
+     */
+    private final int maxUpdateSize;
+
+    /**
+     * Scratch arrays for column indices of types and field values.
+     */
+    private final int[] columns;
+    private final long[] current;
+
+    public DeltaEncoder(EntityStorage storage, DeltaSchema schema, DeltaSink sink) {
+        this.storage = storage;
+        this.schema = schema;
+        this.sink = sink;
+        this.states = new State[64];
+        this.destroyed = ByteBuffer.allocate(1024);
+        this.updates = ByteBuffer.allocate(4096);
+        this.frame = ByteBuffer.allocate(4096);
+
+        int size = 2 * VarInts.MAX_LONG_SIZE + 2;
+        int maxFields = 0;
+        for (int i = 0; i < schema.size(); i++) {
+            int fields = schema.getLayout(i).getFieldCount();
+            size += VarInts.MAX_LONG_SIZE * (2 + fields);
+            maxFields = Math.max(maxFields, fields);
+        }
+        this.maxUpdateSize = size;
+        this.columns = new int[schema.size()];
+        this.current = new long[maxFields];
+    }
+
+    /**
+     * Gets tick of last encoded frame.
+     * @return Tick, or 0 if nothing has been encoded.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Encodes changes since previous call and passes them to sink.
+     */
+    public void encode() {
+        tick++;
+        destroyed.clear();
+        updates.clear();
+        int destroyedCount = 0;
+        int updatedCount = 0;
+
+        for (Archetype archetype : storage.getArchetypes()) {
+            if (archetype.size() == 0) {
+                continue;
+            }
+            for (int t = 0; t < columns.length; t++) {
+                columns[t] = archetype.indexOf(schema.getType(t));
+            }
+
+            for (int c = 0; c < archetype.getChunkCount(); c++) {
+                Chunk chunk = archetype.getChunk(c);
+                for (int row = 0; row < chunk.size; row++) {
+                    long id = chunk.entities[row].getId();
+                    int index = EntityRegistry.index(id);
+                    if (index >= states.length) {
+                        states = Arrays.copyOf(states, Math.max(index + 1, states.length * 2));
+                    }
+
+                    State state = states[index];
+                    if (state != null && state.id != id) { // Slot was reused
+                        destroyed = ensure(destroyed, 2 * VarInts.MAX_LONG_SIZE);
+                        putId(destroyed, state.id);
+                        destroyedCount++;
+                        state = null;
+                    }
+                    boolean created = state == null;
+                    if (created) {
+                        state = new State(id, columns.length);
+                        states[index] = state;
+                    }
+                    state.seen = tick;
+
+                    updates = ensure(updates, maxUpdateSize);
+                    if (encodeEntity(state, created, chunk, row, columns)) {
+                        updatedCount++;
+                    }
+                }
+            }
+        }
+
+        // Entities that were not seen have been destroyed
+        for (int i = 0; i < states.length; i++) {
+            State state = states[i];
+            if (state != null && state.seen != tick) {
+                destroyed = ensure(destroyed, 2 * VarInts.MAX_LONG_SIZE);
+                putId(destroyed, state.id);
+                destroyedCount++;
+                states[i] = null;
+            }
+        }
+
+        destroyed.flip();
+        updates.flip();
+        frame.clear();
+        frame = ensure(frame, 3 * VarInts.MAX_LONG_SIZE + destroyed.remaining() + updates.remaining());
+        VarInts.putVarLong(frame, tick);
+        VarInts.putVarInt(frame, destroyedCount);
+        frame.put(destroyed);
+        VarInts.putVarInt(frame, updatedCount);
+        frame.put(updates);
+        frame.flip();
+        sink.accept(frame);
+    }
+
+    /**
+     * Writes update of one entity, if it has changed.
+     * @return Whether something was written.
+     */
+    private boolean encodeEntity(State state, boolean created, Chunk chunk, int row, int[] columns) {
+        int start = updates.position();
+        putId(updates, state.id);
+        updates.put((byte) (created ? 1 : 0));
+        boolean changed = created;
+
+        for (int t = 0; t < columns.length; t++) {
+            int column = columns[t];
+            long[] previous = state.values[t];
+            if (column == -1) {
+                if (previous != null) { // Component was removed
+                    VarInts.putVarInt(updates, (t + 1) << 1 | 1);
+                    state.values[t] = null;
+                    changed = true;
+                }
+                continue;
+            }
+
+            StructLayout layout = schema.getLayout(t);
+            int fields = layout.getFieldCount();
+            StructColumn struct = chunk.structs[column];
+            long mask = 0;
+            for (int f = 0; f < fields; f++) {
+                long bits = struct != null ? struct.getBits(f, row)
+                        : layout.readBits(chunk.columns[column][row], f);
+                current[f] = schema.quantize(t, f, bits);
+                if (previous == null ? current[f] != 0 : current[f] != previous[f]) {
+                    mask |= 1L << f;
+                }
+            }
+            if (previous != null && mask == 0) {
+                continue; // No changes
+            }
+
+            if (previous == null) { // Component was added, deltas are from zero
+                previous = new long[fields];
+                state.values[t] = previous;
+            }
+            VarInts.putVarInt(updates, (t + 1) << 1);
+            VarInts.putVarLong(updates, mask);
+            for (int f = 0; f < fields; f++) {
+                if ((mask & 1L << f) != 0) {
+                    VarInts.putVarLong(updates, VarInts.zigzag(current[f] - previous[f]));
+                    previous[f] = current[f];
+                }
+            }
+            changed = true;
+        }
+
+        if (!changed) {
+            updates.position(start);
+            return false;
+        }
+        updates.put((byte) 0);
+        return true;
+    }
+
+    private static void putId(ByteBuffer out, long id) {
+        VarInts.putVarInt(out, EntityRegistry.index(id));
+        VarInts.putVarInt(out, EntityRegistry.generation(id));
+    }
+
+    /**
+     * Makes sure a buffer has space left.
+     * @param buf Buffer in write mode.
+     * @param space Needed space.
+     * @return Given buffer, or a larger copy of it.
+     */
+    private static ByteBuffer ensure(ByteBuffer buf, int space) {
+        if (buf.remaining() >= space) {
+            return buf;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + space));
+        buf.flip();
+        larger.put(buf);
+        return larger;
+    }
+}
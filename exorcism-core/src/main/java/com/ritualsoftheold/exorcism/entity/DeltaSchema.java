@@ -0,0 +1,122 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+
+/**
+ * Component types that are replicated by {@link DeltaEncoder}, and how
+ * their fields are packed. Only data-only component types (see
+ * {@link StructLayout}) with at most 64 fields can be replicated.
+ *
+ * <p>Encoder and decoder must use schemas that have same types in same
+ * order.
+ *
+ */
+public class DeltaSchema {
+    
+    private final List<Class<? extends Component>> types;
+    
+    private final List<StructLayout> layouts;
+    
+    /**
+     * Quantization step of floating point fields of each type, or 0 if
+     * they are sent exactly.
+     */
+    private double[] precisions;
+    
+    public DeltaSchema() {
+        this.types = new ArrayList<>();
+        this.layouts = new ArrayList<>();
+        this.precisions = new double[0];
+    }
+    
+    /**
+     * Adds a component type. Floating point fields are quantized to
+     * multiples of given precision, which makes their deltas small
+     * integers. For example, precision 0.01 sends positions in centimeters.
+     * @param type Data-only component type.
+     * @param precision Quantization step, or 0 to send exact values.
+     * @return This schema.
+     */
+    public DeltaSchema track(Class<? extends Component> type, double precision) {
+        StructLayout layout = StructLayout.of(type);
+        if (layout.getFieldCount() > 64) {
+            throw new IllegalArgumentException(type + " has more than 64 fields");
+        }
+        if (precision < 0) {
+            throw new IllegalArgumentException("negative precision");
+        }
+        precisions = Arrays.copyOf(precisions, types.size() + 1);
+        precisions[types.size()] = precision;
+        types.add(type);
+        layouts.add(layout);
+        return this;
+    }
+    
+    /**
+     * Adds a component type whose fields are sent exactly.
+     * @param type Data-only component type.
+     * @return This schema.
+     */
+    public DeltaSchema track(Class<? extends Component> type) {
+        return track(type, 0);
+    }
+    
+    public int size() {
+        return types.size();
+    }
+    
+    public Class<? extends Component> getType(int index) {
+        return types.get(index);
+    }
+    
+    public StructLayout getLayout(int index) {
+        return layouts.get(index);
+    }
+    
+    /**
+     * Converts raw bits of a field to value that is sent.
+     * @param index Type index.
+     * @param field Field index.
+     * @param bits Raw bits of field.
+     * @return Quantized value.
+     */
+    long quantize(int index, int field, long bits) {
+        double precision = precisions[index];
+        if (precision == 0) {
+            return bits;
+        }
+        Class<?> fieldType = layouts.get(index).getFieldType(field);
+        if (fieldType == float.class) {
+            return Math.round(Float.intBitsToFloat((int) bits) / precision);
+        } else if (fieldType == double.class) {
+            return Math.round(Double.longBitsToDouble(bits) / precision);
+        }
+        return bits;
+    }
+    
+    /**
+     * Converts a sent value back to raw bits of a field.
+     * @param index Type index.
+     * @param field Field index.
+     * @param value Quantized value.
+     * @return Raw bits.
+     */
+    long dequantize(int index, int field, long value) {
+        double precision = precisions[index];
+        if (precision == 0) {
+            return value;
+        }
+        Class<?> fieldType = layouts.get(index).getFieldType(field);
+        if (fieldType == float.class) {
+            return Float.floatToRawIntBits((float) (value * precision));
+        } else if (fieldType == double.class) {
+            return Double.doubleToRawLongBits(value * precision);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,19 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives frames from a {@link DeltaEncoder}, e.g. to send them to
+ * clients or write them to a replay.
+ *
+ */
+@FunctionalInterface
+public interface DeltaSink {
+    
+    /**
+     * Accepts a frame. The buffer is reused by encoder, so its contents
+     * must be copied if they are needed after this returns.
+     * @param frame Frame data, from position to limit.
+     */
+    void accept(ByteBuffer frame);
+}
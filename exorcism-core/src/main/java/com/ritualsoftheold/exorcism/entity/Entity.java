@@ -1,6 +1,9 @@
 package com.ritualsoftheold.exorcism.entity;
 
 import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+import com.ritualsoftheold.exorcism.entity.component.ComponentType;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
@@ -9,6 +12,10 @@ import java.lang.invoke.VarHandle;
 /**
  * An entity is something that can hold multiple {@link Component}s.
  *
+ * <p>Components are not stored in the entity itself, but in the
+ * {@link Chunk} of entity's {@link Archetype}. Entity just knows where
+ * its components currently are.
+ *
  */
 public final class Entity {
     
@@ -28,121 +35,259 @@ public final class Entity {
     }
     
     /**
-     * A specialized open hash table holding components of this entity.
+     * Storage that holds this entity.
+     */
+    private final EntityStorage storage;
+    
+    /**
+     * Generational id of this entity, see {@link EntityRegistry}.
+     */
+    long id;
+    
+    /**
+     * Chunk where components of this entity are stored. Null after entity
+     * has been destroyed.
      */
-    private Component[] components;
+    Chunk chunk;
     
     /**
-     * How many free slots {@link #components} has. When a component is added
-     * but no more slots are available, the array will be enlarged.
+     * Row of this entity in {@link #chunk}.
      */
-    private int freeSlots;
+    int row;
     
     /**
-     * X, Y, and Z coordinates of this entity. TODO unused at the moment
+     * X, Y, and Z coordinates of this entity. These are used by
+     * {@link SpatialIndex}; after changing them, update the index.
      */
     private float x, y, z;
     
     /**
-     * Bit shifting is a fast way to divide, as long as the divisor is
-     * power of two. The divisor for component slot lookup is
-     * 2^shiftDiv.
+     * Spatial index cell this entity is in, or null if it is not indexed.
      */
-    private int shiftDiv;
-
+    SpatialIndex.Cell cell;
+    
+    /**
+     * Index of this entity in {@link #cell}.
+     */
+    int cellIndex;
+    
+    /**
+     * Container this entity is in, or null.
+     */
+    EntityContainer container;
+    
+    /**
+     * Index of this entity in entities of {@link #container}.
+     */
+    int containerIndex;
+    
     /**
      * Entity marked with this will be removed when it is reached by entity
      * iterator. It will not be processed by systems after this has been set.
      */
     private boolean removalMark;
     
-    protected Entity(int ourPow, int maxPow) {
-        if (maxPow < ourPow) { // Less components
-            ourPow = maxPow;
-        }
-        this.components = new Component[1 << ourPow]; // Math.pow(2, ourPow)
-        this.shiftDiv = maxPow - ourPow;
+    protected Entity(EntityStorage storage) {
+        this.storage = storage;
     }
     
+    /**
+     * Adds a component to this entity. If entity already has a component of
+     * same type, it is replaced.
+     * @param component Component to add.
+     * @param slot Type id hint of component, see {@link #getComponent(Class, int)}.
+     *
+     * <p>If the type is stored off-heap, fields of the component are copied
+     * and the component object itself is not kept.
+     *
+     * <p>This must not be called while entities are being iterated; record
+     * the change to a {@link CommandBuffer} instead.
+     */
     protected void addComponent(Component component, int slot) {
-        if (freeSlots == 0) { // Need to enlarge components array
-            doubleArray();
+        Class<? extends Component> type = component.getClass();
+        int column = chunk.archetype.indexOf(type);
+        if (column == -1) { // Move to archetype that has this component
+            moveTo(storage.withComponent(chunk.archetype, type));
+            column = chunk.archetype.indexOf(type);
         }
         
-        int realSlot = slot >>> shiftDiv;
-        Component old = components[realSlot];
-        if (old == null) { // Just place component at given slot
-            components[realSlot] = component;
-            curSlotVar.set(component, realSlot);
-        } else { // Find first free slot, place there
-            for (int i = 0; i < components.length; i++) {
-                if (components[i] == null) {
-                    components[i] = component;
-                    curSlotVar.set(component, i);
-                }
-            }
+        StructColumn struct = chunk.structs[column];
+        if (struct != null) {
+            struct.store(row, component);
+        } else {
+            chunk.columns[column][row] = component;
+            curSlotVar.set(component, column);
         }
-        freeSlots--;
+        chunk.markChanged(column, row, ChangeTicks.current());
     }
     
     protected void removeComponent(Component component) {
         // This is fast, because we can just get the current slot
-        int slot = (int) curSlotVar.get(component);
-        components[slot] = null;
-        freeSlots++; // One less component now
+        int column = (int) curSlotVar.get(component);
+        Component[][] columns = chunk.columns;
+        if (column >= 0 && column < columns.length && columns[column] != null
+                && columns[column][row] == component) {
+            moveTo(storage.withoutComponent(chunk.archetype, component.getClass()));
+            return;
+        }
+        
+        // Off-heap components are only copies, so remove them by type
+        column = chunk.archetype.indexOf(component.getClass());
+        if (column != -1 && chunk.structs[column] != null) {
+            moveTo(storage.withoutComponent(chunk.archetype, component.getClass()));
+        }
     }
     
     protected void removeComponent(Class<? extends Component> type, int slot) {
-        // Slower than if we already had the exact component instance
-        int realSlot = slot >>> shiftDiv;
-        Component component = components[realSlot];
-        if (component != null && component.getClass() == type) { // Found where it should be
-            components[realSlot] = null; // Just remove it
-        } else { // Not found, iterate over all components
-            for (int i = 0; i < components.length; i++) {
-                Component c = components[i];
-                if (c.getClass() == type) {
-                    components[i] = null;
-                    // As opposed to getComponent, no need to swap slots
-                }
-            }
+        if (columnOf(type, slot) != -1) {
+            moveTo(storage.withoutComponent(chunk.archetype, type));
         }
-        freeSlots++; // One less component now
     }
     
-    private void doubleArray() {
-        Component[] newArray = new Component[components.length * 2]; // Double capacity
-        System.arraycopy(components, 0, newArray, 0, components.length);
-        // Spreading out components to optimal slots can be done at when getting
-        components = newArray;
-        if (shiftDiv > 0) { // Divide slots less in future
-            shiftDiv -= 1; // divisor / 2
+    /**
+     * Gets a component of this entity.
+     * @param type Component type.
+     * @param slot Type id hint of component: its {@link ComponentType} id,
+     * if caller knows it. A wrong hint just makes the lookup slightly slower.
+     * @return Component, or null if entity doesn't have it. For types that
+     * are stored off-heap, this is a detached copy; changing it does not
+     * change the stored data.
+     */
+    protected Component getComponent(Class<?> type, int slot) {
+        int column = columnOf(type, slot);
+        if (column == -1) {
+            return null;
+        }
+        StructColumn struct = chunk.structs[column];
+        if (struct != null) {
+            Component copy = struct.getLayout().newInstance();
+            struct.load(row, copy);
+            return copy;
         }
+        return chunk.columns[column][row];
     }
     
-    protected Component getComponent(Class<?> type, int slot) {
-        int realSlot = slot >>> shiftDiv;
-        Component component = components[realSlot];
-        if (component != null && component.getClass() == type) { // Found where it should be
-            return component;
-        } else { // Not found, iterate over all components
-            for (int i = 0; i < components.length; i++) {
-                Component c = components[i];
-                if (c.getClass() == type) {
-                    // Swap this to where it should be
-                    components[realSlot] = c;
-                    curSlotVar.set(c, realSlot);
-                    components[i] = component; // Overwrite, possibly with null
-                    if (component != null) {
-                        curSlotVar.set(component, i);
-                    }
+    /**
+     * Finds column of a component type.
+     * @param type Component type.
+     * @param typeId Type id hint.
+     * @return Column index, or -1.
+     */
+    private int columnOf(Class<?> type, int typeId) {
+        Archetype archetype = chunk.archetype;
+        int column = archetype.indexOf(typeId);
+        if (column != -1 && archetype.getType(column) == type) {
+            return column; // Hint was correct
+        }
+        return archetype.indexOf(type);
+    }
                     
-                    return c;
+    /**
+     * Records that component data of given type was changed, so that
+     * systems which filter by changes will process this entity. Systems
+     * should call this after writing to a component.
+     * @param type Component type.
+     */
+    public void markChanged(Class<? extends Component> type) {
+        int column = chunk.archetype.indexOf(type);
+        if (column != -1) {
+            chunk.markChanged(column, row, ChangeTicks.current());
+        }
+    }
+    
+    /**
+     * Checks if component of given type was changed after given tick.
+     * @param type Component type.
+     * @param since Tick to compare to, see {@link ChangeTicks}.
+     * @return Whether the component was changed. False if this entity
+     * doesn't have the component.
+     */
+    public boolean isChangedSince(Class<? extends Component> type, int since) {
+        int column = chunk.archetype.indexOf(type);
+        return column != -1 && ChangeTicks.isNewer(chunk.changeTicks[column][row], since);
+    }
+    
+    /**
+     * Moves this entity and components it has to another archetype.
+     * Components that the target archetype doesn't have are dropped.
+     * @param target Target archetype.
+     */
+    void moveTo(Archetype target) {
+        Chunk oldChunk = chunk;
+        int oldRow = row;
+        Archetype source = oldChunk.archetype;
+        
+        target.add(this); // Updates chunk and row
+        for (int i = 0; i < source.getComponentCount(); i++) {
+            int column = target.indexOf(source.getType(i));
+            if (column == -1) {
+                continue;
+            }
+            chunk.copyChangeTick(column, row, oldChunk, i, oldRow);
+            StructColumn struct = oldChunk.structs[i];
+            if (struct != null) {
+                chunk.structs[column].copyRow(row, struct, oldRow);
+            } else {
+                Component component = oldChunk.columns[i][oldRow];
+                chunk.columns[column][row] = component;
+                if (component != null) {
+                    curSlotVar.set(component, column);
                 }
             }
         }
         
-        return null;
+        source.remove(oldChunk, oldRow);
+    }
+    
+    /**
+     * Gets storage of this entity. Systems can record structural changes
+     * to its {@link EntityStorage#getCommandBuffer() command buffer}.
+     * @return Entity storage.
+     */
+    public EntityStorage getStorage() {
+        return storage;
+    }
+    
+    /**
+     * Gets id of this entity. It stays valid until this entity has been
+     * destroyed; after that, it won't resolve to any entity.
+     * @return Entity id.
+     */
+    public long getId() {
+        return id;
+    }
+    
+    /**
+     * Gets chunk where components of this entity are. It changes when
+     * components are added or removed.
+     * @return Chunk, or null if this entity has been destroyed.
+     */
+    public Chunk getChunk() {
+        return chunk;
+    }
+    
+    /**
+     * Gets row of this entity in its {@link #getChunk() chunk}.
+     * @return Row index.
+     */
+    public int getRow() {
+        return row;
+    }
+    
+    /**
+     * Gets archetype of this entity.
+     * @return Archetype, or null if this entity has been destroyed.
+     */
+    public Archetype getArchetype() {
+        return chunk == null ? null : chunk.archetype;
+    }
+
+    /**
+     * Gets component signature of this entity.
+     * @return Signature, or null if this entity has been destroyed.
+     */
+    public ComponentSignature getSignature() {
+        return chunk == null ? null : chunk.archetype.getSignature();
     }
 
     public float getX() {
@@ -169,6 +314,14 @@ public final class Entity {
         this.z = z;
     }
 
+    /**
+     * Gets container that this entity has been added to.
+     * @return Container, or null if entity is not in one.
+     */
+    public EntityContainer getContainer() {
+        return container;
+    }
+
     /**
      * Checks if this entity is marked for removal.
      * @return Whether this entity is marked for removal.
@@ -183,4 +336,32 @@ public final class Entity {
     public void remove() {
         this.removalMark = true;
     }
+    
+    /**
+     * Marks this entity for removal, removes it from its container and
+     * destroys it.
+     */
+    void despawn() {
+        remove();
+        if (container != null) {
+            container.removeEntity(this);
+        }
+        destroy();
+    }
+    
+    /**
+     * Frees storage of this entity and removes it from its spatial index.
+     * Entity iterators call this once they have dropped an entity that was
+     * marked for removal.
+     */
+    public void destroy() {
+        if (cell != null) { // Don't leave it to be found by spatial queries
+            cell.index.remove(this);
+        }
+        if (chunk != null) {
+            chunk.archetype.remove(chunk, row);
+            chunk = null;
+            storage.getRegistry().release(id);
+        }
+    }
 }
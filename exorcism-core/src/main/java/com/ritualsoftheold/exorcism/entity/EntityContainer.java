@@ -4,6 +4,7 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 public class EntityContainer {
@@ -21,22 +22,62 @@ public class EntityContainer {
     @SuppressWarnings("unused") // VarHandle
     private int users;
     
-    private List<Entity> entities;
+    /**
+     * How many cells there are per side of container in its spatial index
+     * by default.
+     */
+    private static final int defaultCellsPerSide = 16;
+    
+    /**
+     * Entities, each at its {@link Entity#containerIndex}.
+     */
+    private final List<Entity> entities;
+    
+    private final Collection<Entity> entitiesView;
+    
+    /**
+     * Spatial index of entities in this container.
+     */
+    private final SpatialIndex index;
     
     public final float x, y, z;
     
     public final float scale;
     
-    public EntityContainer(float scale, float x, float y, float z) {
+    /**
+     * Manager that may page this container out, or null.
+     */
+    volatile ResidencyManager residency;
+    
+    /**
+     * Residency clock value when this container was last used.
+     */
+    volatile long lastUsed;
+    
+    public EntityContainer(float scale, float x, float y, float z, float cellSize) {
         this.entities = new ArrayList<>();
+        this.entitiesView = Collections.unmodifiableList(entities);
+        this.index = new SpatialIndex(cellSize);
         this.scale = scale;
         this.x = x;
         this.y = y;
         this.z = z;
     }
     
+    public EntityContainer(float scale, float x, float y, float z) {
+        this(scale, x, y, z, scale / defaultCellsPerSide);
+    }
+    
+    /**
+     * Marks this container as used. If it has been paged out by a
+     * {@link ResidencyManager}, it is loaded back asynchronously.
+     */
     public void used() {
         usersVar.getAndAdd(this, 1);
+        ResidencyManager manager = residency;
+        if (manager != null) {
+            manager.used(this);
+        }
     }
 
     public void unused() {
@@ -47,7 +88,65 @@ public class EntityContainer {
         return ((int) usersVar.get(this)) > 0;
     }
     
+    /**
+     * Gets entities in this container. Use {@link #addEntity(Entity)} and
+     * {@link #removeEntity(Entity)} to modify them, so that the spatial index
+     * stays up to date. Removing an entity moves last one to its place.
+     * @return Unmodifiable view of entities.
+     */
     public Collection<Entity> getEntities() {
-        return entities;
+        return entitiesView;
+    }
+    
+    /**
+     * Adds an entity to this container.
+     * @param entity Entity, which must not be in any container.
+     */
+    public void addEntity(Entity entity) {
+        entity.containerIndex = entities.size();
+        entities.add(entity);
+        index.add(entity);
+        entity.container = this;
+    }
+    
+    /**
+     * Removes an entity from this container, if it is there.
+     * @param entity Entity.
+     */
+    public void removeEntity(Entity entity) {
+        if (entity.container != this) {
+            return;
+        }
+        // Swap last entity to its place, like spatial index cells do
+        Entity last = entities.remove(entities.size() - 1);
+        if (last != entity) {
+            entities.set(entity.containerIndex, last);
+            last.containerIndex = entity.containerIndex;
+        }
+        index.remove(entity);
+        entity.container = null;
+    }
+    
+    /**
+     * Removes all entities from this container.
+     */
+    void removeAll() {
+        for (Entity entity : entities) {
+            index.remove(entity);
+            entity.container = null;
+        }
+        entities.clear();
+    }
+    
+    /**
+     * Updates spatial index after coordinates of an entity have changed.
+     * @param entity Entity that moved.
+     */
+    public void moved(Entity entity) {
+        index.update(entity);
+    }
+    
+    public SpatialIndex getSpatialIndex() {
+        return index;
     }
 }
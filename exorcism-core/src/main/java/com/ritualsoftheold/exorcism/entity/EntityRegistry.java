@@ -0,0 +1,135 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.Arrays;
+
+/**
+ * Gives entities 64-bit generational ids. Lower 32 bits of an id are index
+ * of a slot, upper 32 bits generation of that slot. When an entity is
+ * destroyed, generation of its slot is bumped and the slot is reused for
+ * later entities; old ids then no longer resolve to anything.
+ *
+ * <p>Components should refer to other entities by ids instead of
+ * references. Ids are cheap to store, are not traced by garbage collector
+ * and can't keep destroyed entities alive.
+ *
+ * <p>Registry is not thread safe, but ids can be resolved concurrently
+ * when no entities are created or destroyed.
+ *
+ */
+public class EntityRegistry {
+
+    /**
+     * Id that never refers to an entity.
+     */
+    public static final long NONE = -1;
+
+    /**
+     * Entities by slot index.
+     */
+    private Entity[] entities;
+
+    /**
+     * Current generation of each slot.
+     */
+    private int[] generations;
+
+    /**
+     * Stack of free slot indices.
+     */
+    private int[] free;
+
+    private int freeCount;
+
+    /**
+     * Index of first slot that has never been used.
+     */
+    private int nextIndex;
+
+    public EntityRegistry(int initialCapacity) {
+        this.entities = new Entity[initialCapacity];
+        this.generations = new int[initialCapacity];
+        this.free = new int[16];
+    }
+
+    public EntityRegistry() {
+        this(1024);
+    }
+
+    public static int index(long id) {
+        return (int) id;
+    }
+
+    public static int generation(long id) {
+        return (int) (id >>> 32);
+    }
+
+    private static long id(int index, int generation) {
+        return (long) generation << 32 | (index & 0xffffffffL);
+    }
+
+    /**
+     * Gives an id to an entity.
+     * @param entity Entity.
+     * @return A new id.
+     */
+    public long register(Entity entity) {
+        int index;
+        if (freeCount > 0) {
+            index = free[--freeCount];
+        } else {
+            index = nextIndex++;
+            if (index == entities.length) {
+                entities = Arrays.copyOf(entities, index * 2);
+                generations = Arrays.copyOf(generations, index * 2);
+            }
+        }
+        entities[index] = entity;
+        return id(index, generations[index]);
+    }
+
+    /**
+     * Releases an id. Its slot will be reused for another entity.
+     * @param id Id of entity.
+     * @return Whether the id was valid.
+     */
+    public boolean release(long id) {
+        if (!isAlive(id)) {
+            return false;
+        }
+        int index = index(id);
+        entities[index] = null;
+        generations[index]++; // Invalidate existing ids
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = index;
+        return true;
+    }
+
+    /**
+     * Checks if an id refers to an entity that has not been destroyed.
+     * @param id Id of entity.
+     * @return Whether the entity exists.
+     */
+    public boolean isAlive(long id) {
+        int index = index(id);
+        return index >= 0 && index < nextIndex && generations[index] == generation(id);
+    }
+
+    /**
+     * Resolves an id to entity.
+     * @param id Id of entity.
+     * @return Entity, or null if it has been destroyed.
+     */
+    public Entity get(long id) {
+        return isAlive(id) ? entities[index(id)] : null;
+    }
+
+    /**
+     * Gets how many entities have ids.
+     * @return Entity count.
+     */
+    public int size() {
+        return nextIndex - freeCount;
+    }
+}
@@ -0,0 +1,287 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+
+/**
+ * Archetype-based storage for entities. Entities with same set of components
+ * are stored together in fixed-size chunks, one array per component type.
+ *
+ * <p>Storage is not thread safe; structural changes (creating entities,
+ * adding or removing components) must not happen concurrently with each
+ * other or with iteration over the chunks. Systems should record such
+ * changes to a {@link CommandBuffer} instead.
+ *
+ */
+public class EntityStorage {
+
+    /**
+     * Default count of entities in one chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private static final Comparator<Class<?>> typeOrder = Comparator.comparing(Class::getName);
+
+    private final int chunkSize;
+
+    /**
+     * All archetypes, by their sorted component types.
+     */
+    private final Map<List<Class<? extends Component>>, Archetype> archetypes;
+
+    /**
+     * Archetype that has no components. New entities start here.
+     */
+    private final Archetype emptyArchetype;
+
+    /**
+     * Ids of entities in this storage.
+     */
+    private final EntityRegistry registry;
+
+    /**
+     * Data-only component types that are stored off-heap.
+     */
+    private final Set<Class<? extends Component>> offHeapTypes;
+
+    /**
+     * Command buffer of each thread.
+     */
+    private final ThreadLocal<CommandBuffer> commandBuffers;
+
+    /**
+     * Buffers that have commands recorded since last sync point.
+     */
+    private final Queue<CommandBuffer> pendingBuffers;
+
+    /**
+     * Change tick when stored ticks were last clamped.
+     */
+    private int lastClamp;
+
+    public EntityStorage(int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.archetypes = new HashMap<>();
+        this.registry = new EntityRegistry();
+        this.offHeapTypes = new HashSet<>();
+        this.commandBuffers = ThreadLocal.withInitial(() -> new CommandBuffer(this, 16));
+        this.pendingBuffers = new ConcurrentLinkedQueue<>();
+        this.emptyArchetype = getArchetype(newTypeArray(0));
+        this.lastClamp = ChangeTicks.current();
+    }
+
+    public EntityStorage() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Component>[] newTypeArray(int length) {
+        return (Class<? extends Component>[]) new Class<?>[length];
+    }
+
+    /**
+     * Creates a new entity that has no components.
+     * @return A new entity.
+     */
+    public Entity createEntity() {
+        return createEntity(emptyArchetype);
+    }
+
+    /**
+     * Creates a new entity directly in given archetype. Caller must fill
+     * its components.
+     * @param archetype Archetype.
+     * @return A new entity.
+     */
+    Entity createEntity(Archetype archetype) {
+        Entity entity = new Entity(this);
+        entity.id = registry.register(entity);
+        archetype.add(entity);
+        return entity;
+    }
+
+    Archetype getEmptyArchetype() {
+        return emptyArchetype;
+    }
+
+    /**
+     * Gets command buffer of calling thread. Structural changes that
+     * systems make during iteration should be recorded there.
+     * @return Command buffer.
+     */
+    public CommandBuffer getCommandBuffer() {
+        return commandBuffers.get();
+    }
+
+    /**
+     * Called by a command buffer when first command is recorded to it
+     * after a sync point.
+     * @param buffer Command buffer.
+     */
+    void queue(CommandBuffer buffer) {
+        pendingBuffers.add(buffer);
+    }
+
+    /**
+     * Applies commands recorded to command buffers of all threads. This is
+     * a sync point: no thread may be iterating entities or recording
+     * commands while this is called.
+     */
+    public void applyCommands() {
+        CommandBuffer buffer;
+        while ((buffer = pendingBuffers.poll()) != null) {
+            // Buffers of threads that have died can be collected after this
+            buffer.queued = false;
+            buffer.apply();
+        }
+    }
+
+    /**
+     * Resolves an entity id.
+     * @param id Id of entity.
+     * @return Entity, or null if it has been destroyed.
+     */
+    public Entity get(long id) {
+        return registry.get(id);
+    }
+
+    public EntityRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Gets all archetypes that currently exist in this storage.
+     * @return Unmodifiable view of archetypes.
+     */
+    public Collection<Archetype> getArchetypes() {
+        return Collections.unmodifiableCollection(archetypes.values());
+    }
+
+    /**
+     * Stores components of given data-only type off-heap, in
+     * struct-of-arrays layout. Entities will not keep the component objects
+     * given to them; their fields are copied instead. Systems should access
+     * such components through flyweights.
+     * @param type Data-only component type, see {@link StructLayout}.
+     * @throws IllegalArgumentException If type is not data-only.
+     * @throws IllegalStateException If some entities already have the type.
+     */
+    public void storeOffHeap(Class<? extends Component> type) {
+        StructLayout.of(type); // Fails if type is not data-only
+        for (List<Class<? extends Component>> key : archetypes.keySet()) {
+            if (key.contains(type)) {
+                throw new IllegalStateException("archetypes with " + type + " already exist");
+            }
+        }
+        offHeapTypes.add(type);
+    }
+
+    private Archetype getArchetype(Class<? extends Component>[] types) {
+        return archetypes.computeIfAbsent(Arrays.asList(types), key -> {
+            StructLayout[] layouts = new StructLayout[types.length];
+            for (int i = 0; i < types.length; i++) {
+                if (offHeapTypes.contains(types[i])) {
+                    layouts[i] = StructLayout.of(types[i]);
+                }
+            }
+            return new Archetype(types, layouts, chunkSize);
+        });
+    }
+
+    /**
+     * Gets archetype that has all components of given archetype and
+     * one more.
+     * @param from Original archetype.
+     * @param type Type to add.
+     * @return Archetype with the new type.
+     */
+    Archetype withComponent(Archetype from, Class<? extends Component> type) {
+        Archetype cached = from.addEdges.get(type);
+        if (cached != null) {
+            return cached;
+        }
+
+        Class<? extends Component>[] oldTypes = from.getTypes();
+        Class<? extends Component>[] types = Arrays.copyOf(oldTypes, oldTypes.length + 1);
+        types[oldTypes.length] = type;
+        Arrays.sort(types, typeOrder);
+
+        Archetype archetype = getArchetype(types);
+        from.addEdges.put(type, archetype);
+        archetype.removeEdges.put(type, from);
+        return archetype;
+    }
+
+    /**
+     * Gets archetype that has all components of given archetype
+     * except one.
+     * @param from Original archetype.
+     * @param type Type to remove.
+     * @return Archetype without the type.
+     */
+    Archetype withoutComponent(Archetype from, Class<? extends Component> type) {
+        Archetype cached = from.removeEdges.get(type);
+        if (cached != null) {
+            return cached;
+        }
+
+        Class<? extends Component>[] oldTypes = from.getTypes();
+        Class<? extends Component>[] types = newTypeArray(oldTypes.length - 1);
+        int i = 0;
+        for (Class<? extends Component> t : oldTypes) {
+            if (t != type) {
+                types[i++] = t;
+            }
+        }
+
+        Archetype archetype = getArchetype(types);
+        from.removeEdges.put(type, archetype);
+        archetype.addEdges.put(type, from);
+        return archetype;
+    }
+
+    /**
+     * Clamps old change ticks of components, so that they can still be
+     * compared after the clock wraps around. Does nothing unless
+     * {@link ChangeTicks#CLAMP_INTERVAL} ticks have passed since previous
+     * clamp, so it can be called on every tick. Must be called at a sync
+     * point; {@link com.ritualsoftheold.exorcism.entity.system.SystemScheduler}
+     * does it on every run.
+     */
+    public void clampChangeTicks() {
+        int now = ChangeTicks.current();
+        if (now - lastClamp < ChangeTicks.CLAMP_INTERVAL) {
+            return;
+        }
+        for (Archetype archetype : archetypes.values()) {
+            for (int i = 0; i < archetype.getChunkCount(); i++) {
+                archetype.getChunk(i).clampChangeTicks(now);
+            }
+        }
+        lastClamp = now;
+    }
+
+    /**
+     * Gets total count of entities in this storage.
+     * @return Entity count.
+     */
+    public int size() {
+        int size = 0;
+        for (Archetype archetype : archetypes.values()) {
+            size += archetype.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,48 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sink that decodes frames right away, as if they went through a
+ * network. Useful for testing replication and measuring delta sizes.
+ *
+ */
+public class LoopbackSink implements DeltaSink {
+    
+    private final DeltaDecoder decoder;
+    
+    private long frames;
+    
+    private long bytes;
+    
+    public LoopbackSink(DeltaDecoder decoder) {
+        this.decoder = decoder;
+    }
+    
+    @Override
+    public void accept(ByteBuffer frame) {
+        frames++;
+        bytes += frame.remaining();
+        decoder.decode(frame.duplicate());
+    }
+    
+    public DeltaDecoder getDecoder() {
+        return decoder;
+    }
+    
+    /**
+     * Gets how many frames have passed through this sink.
+     * @return Frame count.
+     */
+    public long getFrames() {
+        return frames;
+    }
+    
+    /**
+     * Gets total size of frames that have passed through this sink.
+     * @return Size in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
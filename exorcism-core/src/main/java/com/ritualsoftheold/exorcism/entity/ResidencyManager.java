@@ -0,0 +1,470 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.ritualsoftheold.exorcism.entity.component.CodecRegistry;
+import com.ritualsoftheold.exorcism.util.PageFile;
+
+/**
+ * Keeps entities of containers in memory within a budget. When estimated
+ * memory use of managed containers exceeds it, containers that are not
+ * {@link EntityContainer#isUsed() used} are paged out to disk, least
+ * recently used first. When a paged out container is
+ * {@link EntityContainer#used() used} again, it and its neighbors are
+ * loaded back asynchronously.
+ *
+ * <p>Paging out captures entities of a container to a {@link Snapshot}
+ * and destroys them; the snapshot is written to a {@link PageFile} on IO
+ * executor. Loaded entities are new entities with new ids, so references
+ * to entities of a container must not be kept after it is unused.
+ * Entities should be in at most one managed container.
+ *
+ * <p>All IO happens on executor, but entities are only touched by
+ * {@link #update()}, which must be called at a sync point.
+ *
+ */
+public class ResidencyManager implements Closeable {
+
+    private enum State {
+        RESIDENT,
+
+        /**
+         * Entities have been captured and destroyed, snapshot is being
+         * written.
+         */
+        EVICTING,
+
+        EVICTED,
+
+        LOADING
+    }
+
+    /**
+     * Residency of one container.
+     */
+    private static class Entry {
+
+        final EntityContainer container;
+
+        final Cell cell;
+
+        volatile State state;
+
+        /**
+         * Snapshot of entities while it is being written.
+         */
+        Snapshot snapshot;
+
+        CompletableFuture<PageFile.Page> writing;
+
+        /**
+         * Page of entities when evicted or loading.
+         */
+        PageFile.Page page;
+
+        CompletableFuture<ByteBuffer> loading;
+
+        /**
+         * If container was used while it was being evicted.
+         */
+        boolean reload;
+
+        Entry(EntityContainer container, Cell cell) {
+            this.container = container;
+            this.cell = cell;
+            this.state = State.RESIDENT;
+        }
+    }
+
+    /**
+     * Position of a container in grid of containers of same scale.
+     */
+    private static final class Cell {
+
+        final float scale;
+
+        final int x, y, z;
+
+        Cell(float scale, int x, int y, int z) {
+            this.scale = scale;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        static Cell of(EntityContainer container) {
+            return new Cell(container.scale, Math.round(container.x / container.scale),
+                    Math.round(container.y / container.scale), Math.round(container.z / container.scale));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Cell)) {
+                return false;
+            }
+            Cell other = (Cell) obj;
+            return x == other.x && y == other.y && z == other.z && scale == other.scale;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((Float.hashCode(scale) * 31 + x) * 31 + y) * 31 + z;
+        }
+    }
+
+    private final EntityStorage storage;
+
+    private final CodecRegistry codecs;
+
+    private final PageFile pageFile;
+
+    private final Executor ioExecutor;
+
+    private final long memoryBudget;
+
+    /**
+     * Estimated memory use of one entity.
+     */
+    private final int entityBytes;
+
+    private final Map<EntityContainer, Entry> entries;
+
+    private final Map<Cell, Entry> grid;
+
+    /**
+     * Containers that were used while they were not resident.
+     */
+    private final Queue<EntityContainer> requests;
+
+    /**
+     * How many containers around a loaded one are prefetched in each
+     * direction.
+     */
+    private int prefetchRadius;
+
+    /**
+     * Incremented by each update. Used to find least recently used
+     * containers.
+     */
+    private volatile long clock;
+
+    private int evictions, loads;
+
+    /**
+     * Creates a residency manager.
+     * @param storage Entity storage.
+     * @param codecs Codecs for components that are stored on heap.
+     * @param file Page file to create. It is deleted when manager is closed.
+     * @param memoryBudget Memory that entities of resident containers may
+     * use, in bytes.
+     * @param entityBytes Estimated memory use of one entity, in bytes.
+     * @param ioExecutor Executor for writes and reads of page file.
+     * @throws IOException If page file can't be created.
+     */
+    public ResidencyManager(EntityStorage storage, CodecRegistry codecs, Path file, long memoryBudget,
+            int entityBytes, Executor ioExecutor) throws IOException {
+        if (entityBytes <= 0) {
+            throw new IllegalArgumentException("entityBytes must be positive");
+        }
+        this.storage = storage;
+        this.codecs = codecs;
+        this.pageFile = new PageFile(file);
+        this.ioExecutor = ioExecutor;
+        this.memoryBudget = memoryBudget;
+        this.entityBytes = entityBytes;
+        this.entries = new ConcurrentHashMap<>();
+        this.grid = new HashMap<>();
+        this.requests = new ConcurrentLinkedQueue<>();
+        this.prefetchRadius = 1;
+    }
+
+    /**
+     * Starts managing a container. Must be called at a sync point.
+     * @param container Resident container.
+     */
+    public void manage(EntityContainer container) {
+        if (container.residency != null) {
+            throw new IllegalStateException("container is already managed");
+        }
+        Entry entry = new Entry(container, Cell.of(container));
+        entries.put(container, entry);
+        grid.put(entry.cell, entry);
+        container.lastUsed = clock;
+        container.residency = this;
+    }
+
+    /**
+     * Sets how many neighbor containers are loaded in each direction when
+     * a container is loaded.
+     * @param prefetchRadius Radius in containers; 0 disables prefetching.
+     */
+    public void setPrefetchRadius(int prefetchRadius) {
+        this.prefetchRadius = Math.max(0, prefetchRadius);
+    }
+
+    /**
+     * Checks if entities of a container are in memory.
+     * @param container Managed container.
+     * @return Whether it is resident.
+     */
+    public boolean isResident(EntityContainer container) {
+        Entry entry = entries.get(container);
+        return entry == null || entry.state == State.RESIDENT;
+    }
+
+    /**
+     * Estimates memory use of entities in resident containers.
+     * @return Estimate in bytes.
+     */
+    public long getResidentBytes() {
+        long count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.RESIDENT) {
+                count += entry.container.getEntities().size();
+            }
+        }
+        return count * entityBytes;
+    }
+
+    /**
+     * Gets how many containers have been paged out.
+     * @return Eviction count.
+     */
+    public int getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets how many containers have been loaded back.
+     * @return Load count.
+     */
+    public int getLoads() {
+        return loads;
+    }
+
+    /**
+     * Gets size of page file.
+     * @return Size in bytes.
+     */
+    public long getPageFileSize() {
+        return pageFile.size();
+    }
+
+    /**
+     * Called when a container is used; may be called by any thread.
+     * @param container Container.
+     */
+    void used(EntityContainer container) {
+        container.lastUsed = clock;
+        Entry entry = entries.get(container);
+        if (entry != null && entry.state != State.RESIDENT) {
+            requests.add(container);
+        }
+    }
+
+    /**
+     * Loads containers that have been used, applies completed IO and pages
+     * out containers if memory budget is exceeded. Must be called at a
+     * sync point.
+     * @throws IllegalStateException If loading or paging out a container
+     * failed. Other containers are still processed; further failures are
+     * added as suppressed exceptions.
+     */
+    public void update() {
+        clock++;
+
+        EntityContainer requested;
+        while ((requested = requests.poll()) != null) {
+            Entry entry = entries.get(requested);
+            if (entry.state == State.EVICTED) {
+                startLoad(entry);
+                prefetch(entry.cell);
+            } else if (entry.state == State.EVICTING) {
+                entry.reload = true;
+            }
+        }
+
+        RuntimeException failure = null;
+        for (Entry entry : entries.values()) {
+            try {
+                if (entry.state == State.EVICTING && (entry.reload || entry.writing.isDone())) {
+                    finishEviction(entry);
+                } else if (entry.state == State.LOADING && entry.loading.isDone()) {
+                    finishLoad(entry);
+                }
+            } catch (RuntimeException e) { // Don't leave other containers hanging
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        long residentBytes = getResidentBytes();
+        if (residentBytes > memoryBudget) {
+            evict(residentBytes - memoryBudget);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Starts loads of evicted neighbors of a cell.
+     * @param cell Cell of a container that is being loaded.
+     */
+    private void prefetch(Cell cell) {
+        int r = prefetchRadius;
+        for (int x = -r; x <= r; x++) {
+            for (int y = -r; y <= r; y++) {
+                for (int z = -r; z <= r; z++) {
+                    Entry neighbor = grid.get(new Cell(cell.scale, cell.x + x, cell.y + y, cell.z + z));
+                    if (neighbor != null && neighbor.state == State.EVICTED) {
+                        startLoad(neighbor);
+                    }
+                }
+            }
+        }
+    }
+
+    private void startLoad(Entry entry) {
+        PageFile.Page page = entry.page;
+        entry.state = State.LOADING;
+        entry.loading = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pageFile.read(page);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, ioExecutor);
+    }
+
+    private void finishLoad(Entry entry) {
+        ByteBuffer data;
+        try {
+            data = entry.loading.join();
+        } catch (CompletionException e) {
+            entry.state = State.EVICTED; // Can be retried
+            throw new IllegalStateException("loading container failed", e.getCause());
+        } finally {
+            entry.loading = null;
+        }
+        try {
+            restore(entry, data);
+        } catch (IllegalStateException e) {
+            entry.state = State.EVICTED; // Page is kept, can be retried
+            throw e;
+        }
+        pageFile.free(entry.page);
+        entry.page = null;
+    }
+
+    private void finishEviction(Entry entry) {
+        Snapshot snapshot = entry.snapshot;
+        CompletableFuture<PageFile.Page> writing = entry.writing;
+        entry.snapshot = null;
+        entry.writing = null;
+        if (entry.reload) { // Used again, restore from memory
+            entry.reload = false;
+            writing.thenAccept(pageFile::free);
+            restore(entry, snapshot.getData());
+            return;
+        }
+
+        try {
+            entry.page = writing.join();
+            entry.state = State.EVICTED;
+        } catch (CompletionException e) {
+            restore(entry, snapshot.getData()); // Don't lose entities
+            throw new IllegalStateException("paging out container failed", e.getCause());
+        }
+    }
+
+    /**
+     * Creates entities of a container from its snapshot data.
+     * @param entry Entry of container.
+     * @param data Snapshot data.
+     */
+    private void restore(Entry entry, ByteBuffer data) {
+        try {
+            Snapshot.read(data, storage, codecs, Collections.singletonList(entry.container));
+        } catch (IOException e) {
+            throw new IllegalStateException("corrupted page of container", e);
+        }
+        entry.container.lastUsed = clock; // Don't page out prefetched containers immediately
+        entry.state = State.RESIDENT;
+        loads++;
+    }
+
+    /**
+     * Pages out least recently used containers.
+     * @param excess How many bytes should be freed.
+     */
+    private void evict(long excess) {
+        List<Entry> candidates = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.state == State.RESIDENT && !entry.container.isUsed()
+                    && !entry.container.getEntities().isEmpty()) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.container.lastUsed));
+
+        long freed = 0;
+        for (Entry entry : candidates) {
+            if (freed >= excess) {
+                break;
+            }
+            Collection<Entity> entities = entry.container.getEntities();
+            freed += (long) entities.size() * entityBytes;
+
+            Snapshot snapshot = Snapshot.captureContainers(Collections.singletonList(entry.container), codecs);
+            for (Entity entity : entities) {
+                entity.destroy();
+            }
+            entry.container.removeAll();
+
+            entry.snapshot = snapshot;
+            entry.state = State.EVICTING;
+            entry.writing = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pageFile.write(snapshot.getData());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, ioExecutor);
+            evictions++;
+        }
+    }
+
+    /**
+     * Closes page file. Entities of containers that are not resident are
+     * lost.
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Entry entry : entries.values()) {
+            entry.container.residency = null;
+        }
+        pageFile.close();
+    }
+}
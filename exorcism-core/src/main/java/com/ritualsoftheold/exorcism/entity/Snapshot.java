@@ -0,0 +1,556 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.ritualsoftheold.exorcism.entity.component.CodecRegistry;
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentCodec;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+
+/**
+ * Binary snapshot of entities, their components and containers they are in.
+ *
+ * <p>A snapshot is {@link #capture(EntityStorage, Collection, CodecRegistry)
+ * captured} at a sync point between ticks; this copies all data to a
+ * direct buffer, which is fast because off-heap columns are copied in bulk.
+ * The copy can then be written to a file on another thread while ticks go
+ * on. Files are loaded by memory-mapping them; off-heap columns are read
+ * directly from the mapped file.
+ *
+ * <p>Format (version 1), in native byte order of the machine that wrote
+ * it:
+ * <pre>
+ * int magic, int version, byte byteOrder (0 little, 1 big endian)
+ * int typeCount, for each: short nameLength, UTF-8 class name
+ * int archetypeCount, for each:
+ *   int columnCount, int[] typeIndices, byte[] columnKinds, int entityCount
+ *   for each entity: float x, y, z, byte flags
+ *   for each column: struct-of-arrays data, or codec output of each entity
+ * int containerCount, for each:
+ *   float scale, x, y, z, cellSize, int entityCount, int[] entityOrdinals
+ * </pre>
+ * Entity ordinals count entities in order they appear in archetypes.
+ * Entity ids are not stored; loaded entities get new ids.
+ *
+ */
+public final class Snapshot {
+
+    /**
+     * "EXSN" in ASCII.
+     */
+    public static final int MAGIC = 0x4558534e;
+
+    /**
+     * Current format version.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte CODEC_COLUMN = 0;
+    private static final byte STRUCT_COLUMN = 1;
+
+    private static final byte MARKED_FOR_REMOVAL = 1;
+
+    /**
+     * Snapshot data, from position 0 to limit.
+     */
+    private final ByteBuffer data;
+
+    private Snapshot(ByteBuffer data) {
+        this.data = data;
+    }
+
+    /**
+     * Gets snapshot data.
+     * @return Read-only buffer of data.
+     */
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer().order(data.order());
+    }
+
+    /**
+     * Gets size of snapshot data.
+     * @return Size in bytes.
+     */
+    public int size() {
+        return data.limit();
+    }
+
+    /**
+     * Captures a snapshot. Must be called at a sync point, when entities are
+     * not being iterated or changed.
+     * @param storage Entity storage.
+     * @param containers Containers to include. Entities that are not in any
+     * of them are included too.
+     * @param codecs Codecs for components that are stored on heap.
+     * @return A new snapshot.
+     */
+    public static Snapshot capture(EntityStorage storage, Collection<EntityContainer> containers,
+            CodecRegistry codecs) {
+        List<Archetype> archetypes = new ArrayList<>();
+        for (Archetype archetype : storage.getArchetypes()) {
+            if (archetype.size() != 0) {
+                archetypes.add(archetype);
+            }
+        }
+        return capture(archetypes, null, containers, codecs);
+    }
+
+    /**
+     * Captures a snapshot of some containers and entities in them. Must be
+     * called at a sync point.
+     * @param containers Containers to include.
+     * @param codecs Codecs for components that are stored on heap.
+     * @return A new snapshot.
+     */
+    public static Snapshot captureContainers(Collection<EntityContainer> containers, CodecRegistry codecs) {
+        Map<Archetype, List<Entity>> subsets = new LinkedHashMap<>();
+        for (EntityContainer container : containers) {
+            for (Entity entity : container.getEntities()) {
+                if (entity.chunk != null) { // Not destroyed
+                    subsets.computeIfAbsent(entity.chunk.archetype, a -> new ArrayList<>()).add(entity);
+                }
+            }
+        }
+        return capture(subsets.keySet(), subsets, containers, codecs);
+    }
+
+    /**
+     * Captures a snapshot.
+     * @param archetypes Archetypes to include.
+     * @param subsets Entities to include by archetype, or null to include
+     * all entities of the archetypes.
+     * @param containers Containers to include.
+     * @param codecs Codecs.
+     * @return A new snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    private static Snapshot capture(Collection<Archetype> archetypes, Map<Archetype, List<Entity>> subsets,
+            Collection<EntityContainer> containers, CodecRegistry codecs) {
+        Map<Class<?>, Integer> typeIds = new HashMap<>();
+        List<byte[]> typeNames = new ArrayList<>();
+
+        // Compute upper bound of size, so that buffer is allocated only once
+        long size = 12 + 4 + 4 + 4;
+        for (Archetype archetype : archetypes) {
+            int count = subsets == null ? archetype.size() : subsets.get(archetype).size();
+            size += 8 + 5 * archetype.getComponentCount() + 13L * count;
+            for (int i = 0; i < archetype.getComponentCount(); i++) {
+                Class<? extends Component> type = archetype.getType(i);
+                if (!typeIds.containsKey(type)) {
+                    byte[] name = type.getName().getBytes(StandardCharsets.UTF_8);
+                    typeIds.put(type, typeNames.size());
+                    typeNames.add(name);
+                    size += 2 + name.length;
+                }
+                if (archetype.isOffHeap(i)) {
+                    size += (long) StructLayout.of(type).getStride() * count;
+                } else {
+                    size += (long) codecs.get(type).maxSize() * count;
+                }
+            }
+        }
+        for (EntityContainer container : containers) {
+            size += 24 + 4L * container.getEntities().size();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("snapshot would be too large: " + size + " bytes");
+        }
+
+        ByteBuffer out = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.put((byte) (out.order() == ByteOrder.LITTLE_ENDIAN ? 0 : 1));
+
+        out.putInt(typeNames.size());
+        for (byte[] name : typeNames) {
+            out.putShort((short) name.length);
+            out.put(name);
+        }
+
+        Map<Entity, Integer> ordinals = new IdentityHashMap<>();
+        out.putInt(archetypes.size());
+        for (Archetype archetype : archetypes) {
+            int columns = archetype.getComponentCount();
+            out.putInt(columns);
+            for (int i = 0; i < columns; i++) {
+                out.putInt(typeIds.get(archetype.getType(i)));
+            }
+            for (int i = 0; i < columns; i++) {
+                out.put(archetype.isOffHeap(i) ? STRUCT_COLUMN : CODEC_COLUMN);
+            }
+            if (subsets != null) {
+                writeEntities(subsets.get(archetype), out, ordinals, codecs);
+                continue;
+            }
+            out.putInt(archetype.size());
+
+            for (int c = 0; c < archetype.getChunkCount(); c++) {
+                Chunk chunk = archetype.getChunk(c);
+                for (int row = 0; row < chunk.size; row++) {
+                    writeEntity(chunk.entities[row], out, ordinals);
+                }
+            }
+
+            for (int i = 0; i < columns; i++) {
+                if (archetype.isOffHeap(i)) {
+                    writeStructColumn(archetype, i, out);
+                } else {
+                    ComponentCodec<Component> codec = (ComponentCodec<Component>) codecs.get(archetype.getType(i));
+                    for (int c = 0; c < archetype.getChunkCount(); c++) {
+                        Chunk chunk = archetype.getChunk(c);
+                        Component[] column = chunk.columns[i];
+                        for (int row = 0; row < chunk.size; row++) {
+                            codec.write(column[row], out);
+                        }
+                    }
+                }
+            }
+        }
+
+        out.putInt(containers.size());
+        for (EntityContainer container : containers) {
+            out.putFloat(container.scale);
+            out.putFloat(container.x);
+            out.putFloat(container.y);
+            out.putFloat(container.z);
+            out.putFloat(container.getSpatialIndex().getCellSize());
+            int countPos = out.position();
+            out.putInt(0);
+            int count = 0;
+            for (Entity entity : container.getEntities()) {
+                Integer ordinal = ordinals.get(entity);
+                if (ordinal != null) { // Not destroyed
+                    out.putInt(ordinal);
+                    count++;
+                }
+            }
+            out.putInt(countPos, count);
+        }
+
+        out.flip();
+        return new Snapshot(out);
+    }
+
+    private static void writeEntity(Entity entity, ByteBuffer out, Map<Entity, Integer> ordinals) {
+        ordinals.put(entity, ordinals.size());
+        out.putFloat(entity.getX());
+        out.putFloat(entity.getY());
+        out.putFloat(entity.getZ());
+        out.put(entity.isMarkedForRemoval() ? MARKED_FOR_REMOVAL : 0);
+    }
+
+    /**
+     * Writes some entities of an archetype and their components. Unlike
+     * when whole archetypes are written, off-heap columns are copied field
+     * by field.
+     * @param entities Entities, all of same archetype.
+     * @param out Output buffer.
+     * @param ordinals Ordinals of written entities.
+     * @param codecs Codecs.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeEntities(List<Entity> entities, ByteBuffer out, Map<Entity, Integer> ordinals,
+            CodecRegistry codecs) {
+        out.putInt(entities.size());
+        for (Entity entity : entities) {
+            writeEntity(entity, out, ordinals);
+        }
+
+        Archetype archetype = entities.get(0).chunk.archetype;
+        for (int i = 0; i < archetype.getComponentCount(); i++) {
+            if (archetype.isOffHeap(i)) {
+                StructLayout layout = StructLayout.of(archetype.getType(i));
+                for (int field = 0; field < layout.getFieldCount(); field++) {
+                    int fieldSize = layout.getFieldSize(field);
+                    for (Entity entity : entities) {
+                        long bits = entity.chunk.structs[i].getBits(field, entity.row);
+                        switch (fieldSize) {
+                            case 8:
+                                out.putLong(bits);
+                                break;
+                            case 4:
+                                out.putInt((int) bits);
+                                break;
+                            case 2:
+                                out.putShort((short) bits);
+                                break;
+                            default:
+                                out.put((byte) bits);
+                        }
+                    }
+                }
+            } else {
+                ComponentCodec<Component> codec = (ComponentCodec<Component>) codecs.get(archetype.getType(i));
+                for (Entity entity : entities) {
+                    codec.write(entity.chunk.columns[i][entity.row], out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an off-heap column in struct-of-arrays layout, as if all chunks
+     * were one column with capacity of entity count.
+     * @param archetype Archetype.
+     * @param column Column index.
+     * @param out Output buffer.
+     */
+    private static void writeStructColumn(Archetype archetype, int column, ByteBuffer out) {
+        StructLayout layout = StructLayout.of(archetype.getType(column));
+        for (int field = 0; field < layout.getFieldCount(); field++) {
+            int fieldSize = layout.getFieldSize(field);
+            for (int c = 0; c < archetype.getChunkCount(); c++) {
+                Chunk chunk = archetype.getChunk(c);
+                StructColumn struct = chunk.structs[column];
+                ByteBuffer src = struct.getBuffer().duplicate();
+                int base = struct.getFieldBase(field);
+                src.limit(base + fieldSize * chunk.size);
+                src.position(base);
+                out.put(src);
+            }
+        }
+    }
+
+    /**
+     * Writes this snapshot to a file. Data is first written to a temporary
+     * file, which then replaces the target, so a crash can't leave a
+     * partially written snapshot behind.
+     * @param file Target file.
+     * @throws IOException If writing fails.
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes this snapshot to a file on given executor.
+     * @param file Target file.
+     * @param executor Executor to write on.
+     * @return Future that completes when file has been written.
+     */
+    public CompletableFuture<Path> writeAsync(Path file, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                write(file);
+                return file;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Loads a snapshot file. Entities are created to given storage; it
+     * should not be iterated during this.
+     * @param file Snapshot file.
+     * @param storage Entity storage.
+     * @param codecs Codecs for components that were stored on heap.
+     * @return Containers of the snapshot, with their entities.
+     * @throws IOException If reading fails or the file is not a valid
+     * snapshot.
+     */
+    public static List<EntityContainer> load(Path file, EntityStorage storage, CodecRegistry codecs)
+            throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return read(in, storage, codecs);
+    }
+
+    /**
+     * Reads snapshot data.
+     * @param in Snapshot data.
+     * @param storage Entity storage.
+     * @param codecs Codecs for components that were stored on heap.
+     * @return Containers of the snapshot.
+     * @throws IOException If data is not a valid snapshot.
+     */
+    public static List<EntityContainer> read(ByteBuffer in, EntityStorage storage, CodecRegistry codecs)
+            throws IOException {
+        return read(in, storage, codecs, null);
+    }
+
+    /**
+     * Reads snapshot data.
+     * @param in Snapshot data.
+     * @param storage Entity storage.
+     * @param codecs Codecs for components that were stored on heap.
+     * @param targets Existing containers to add entities to, in same order
+     * as they are in snapshot; or null to create new containers.
+     * @return Containers of the snapshot.
+     * @throws IOException If data is not a valid snapshot. Entities that
+     * were created before the problem was found are destroyed.
+     */
+    static List<EntityContainer> read(ByteBuffer in, EntityStorage storage, CodecRegistry codecs,
+            List<EntityContainer> targets) throws IOException {
+        List<Entity> entities = new ArrayList<>();
+        try {
+            return read(in, storage, codecs, targets, entities);
+        } catch (IOException | RuntimeException e) {
+            for (Entity entity : entities) {
+                entity.despawn();
+            }
+            if (e instanceof BufferUnderflowException || e instanceof IndexOutOfBoundsException
+                    || e instanceof IllegalArgumentException || e instanceof NegativeArraySizeException) {
+                throw new IOException("corrupted or truncated snapshot", e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads snapshot data.
+     * @param in Snapshot data.
+     * @param storage Entity storage.
+     * @param codecs Codecs for components that were stored on heap.
+     * @param targets Existing containers, or null.
+     * @param entities Created entities are added here.
+     * @return Containers of the snapshot.
+     * @throws IOException If data is not a valid snapshot.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<EntityContainer> read(ByteBuffer in, EntityStorage storage, CodecRegistry codecs,
+            List<EntityContainer> targets, List<Entity> entities) throws IOException {
+        in.order(ByteOrder.nativeOrder());
+        if (in.remaining() < 9 || in.getInt() != MAGIC) {
+            throw new IOException("not a snapshot");
+        }
+        int version = in.getInt();
+        if (version > VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        byte byteOrder = in.get();
+        if (byteOrder != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1)) {
+            throw new IOException("snapshot was written with different byte order");
+        }
+
+        Class<? extends Component>[] types = (Class<? extends Component>[]) new Class<?>[in.getInt()];
+        for (int i = 0; i < types.length; i++) {
+            byte[] name = new byte[in.getShort() & 0xffff];
+            in.get(name);
+            String className = new String(name, StandardCharsets.UTF_8);
+            try {
+                types[i] = Class.forName(className, true, Snapshot.class.getClassLoader())
+                        .asSubclass(Component.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("unknown component type " + className, e);
+            }
+        }
+
+        int archetypeCount = in.getInt();
+        for (int a = 0; a < archetypeCount; a++) {
+            int columns = in.getInt();
+            Class<? extends Component>[] columnTypes = (Class<? extends Component>[]) new Class<?>[columns];
+            Archetype target = storage.getEmptyArchetype();
+            for (int i = 0; i < columns; i++) {
+                columnTypes[i] = types[in.getInt()];
+                target = storage.withComponent(target, columnTypes[i]);
+            }
+            byte[] kinds = new byte[columns];
+            in.get(kinds);
+
+            int count = in.getInt();
+            Entity[] created = new Entity[count];
+            for (int j = 0; j < count; j++) {
+                Entity entity = storage.createEntity(target);
+                created[j] = entity;
+                entities.add(entity);
+                entity.setX(in.getFloat());
+                entity.setY(in.getFloat());
+                entity.setZ(in.getFloat());
+                if ((in.get() & MARKED_FOR_REMOVAL) != 0) {
+                    entity.remove();
+                }
+            }
+
+            for (int i = 0; i < columns; i++) {
+                Class<? extends Component> type = columnTypes[i];
+                int column = target.indexOf(type);
+                if (kinds[i] == STRUCT_COLUMN) {
+                    readStructColumn(in, type, column, created);
+                } else {
+                    ComponentCodec<? extends Component> codec = codecs.get(type);
+                    for (Entity entity : created) {
+                        entity.addComponent(codec.read(in), 0);
+                    }
+                }
+            }
+        }
+
+        int containerCount = in.getInt();
+        List<EntityContainer> containers = new ArrayList<>(containerCount);
+        for (int c = 0; c < containerCount; c++) {
+            float scale = in.getFloat();
+            float x = in.getFloat();
+            float y = in.getFloat();
+            float z = in.getFloat();
+            float cellSize = in.getFloat();
+            EntityContainer container = targets != null ? targets.get(c)
+                    : new EntityContainer(scale, x, y, z, cellSize);
+            int count = in.getInt();
+            for (int j = 0; j < count; j++) {
+                container.addEntity(entities.get(in.getInt()));
+            }
+            containers.add(container);
+        }
+        return containers;
+    }
+
+    /**
+     * Reads an off-heap column. Data is not copied out of the input buffer
+     * first, it is accessed in place.
+     * @param in Input buffer.
+     * @param type Component type.
+     * @param column Column index in archetype of entities.
+     * @param entities Entities that own the components.
+     */
+    private static void readStructColumn(ByteBuffer in, Class<? extends Component> type, int column,
+            Entity[] entities) {
+        StructLayout layout = StructLayout.of(type);
+        StructColumn source = StructColumn.wrap(layout, in, entities.length);
+        int tick = ChangeTicks.current();
+        for (int j = 0; j < entities.length; j++) {
+            Entity entity = entities[j];
+            StructColumn target = entity.chunk.structs[column];
+            if (target != null) {
+                target.copyRow(entity.row, source, j);
+                entity.chunk.markChanged(column, entity.row, tick);
+            } else { // Type is stored on heap in this storage
+                Component component = layout.newInstance();
+                source.load(j, component);
+                entity.addComponent(component, 0);
+            }
+        }
+        in.position(in.position() + layout.getStride() * entities.length);
+    }
+}
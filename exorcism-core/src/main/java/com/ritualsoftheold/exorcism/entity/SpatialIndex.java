@@ -0,0 +1,418 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed uniform grid of entities, keyed on their coordinates. Each entity
+ * is in exactly one cell; queries only look at cells that overlap the
+ * queried area.
+ *
+ * <p>Index does not notice when entities move. Call {@link #update(Entity)}
+ * after changing coordinates of an entity; it is cheap when the entity
+ * stays in same cell.
+ *
+ * <p>Index is not thread safe.
+ *
+ */
+public class SpatialIndex {
+
+    /**
+     * Cell coordinates are packed in 21 bits each.
+     */
+    private static final int coordBits = 21;
+
+    private static final long coordMask = (1L << coordBits) - 1;
+
+    /**
+     * Marks empty slot in hash table. Not a valid key, because it has
+     * highest bit set.
+     */
+    private static final long noKey = -1;
+
+    /**
+     * A grid cell.
+     */
+    static final class Cell {
+
+        /**
+         * Index that has this cell.
+         */
+        final SpatialIndex index;
+
+        final long key;
+
+        Entity[] entities;
+
+        int size;
+
+        Cell(SpatialIndex index, long key) {
+            this.index = index;
+            this.key = key;
+            this.entities = new Entity[4];
+        }
+
+        void add(Entity entity) {
+            if (size == entities.length) {
+                entities = Arrays.copyOf(entities, size * 2);
+            }
+            entity.cell = this;
+            entity.cellIndex = size;
+            entities[size++] = entity;
+        }
+
+        void remove(Entity entity) {
+            int index = entity.cellIndex;
+            Entity last = entities[--size];
+            entities[index] = last;
+            last.cellIndex = index;
+            entities[size] = null;
+            entity.cell = null;
+        }
+    }
+
+    private final float cellSize;
+
+    private final float invCellSize;
+
+    /**
+     * Open addressing hash table of cells, keyed by packed cell coordinates.
+     */
+    private long[] keys;
+
+    private Cell[] cells;
+
+    private int cellCount;
+
+    /**
+     * Bounds of cells that have ever been created, in cell coordinates.
+     * Nearest neighbor search uses these to know when to stop.
+     */
+    private int minCellX, minCellY, minCellZ, maxCellX, maxCellY, maxCellZ;
+
+    private int size;
+
+    public SpatialIndex(float cellSize) {
+        this.cellSize = cellSize;
+        this.invCellSize = 1 / cellSize;
+        this.keys = new long[64];
+        Arrays.fill(keys, noKey);
+        this.cells = new Cell[64];
+        this.minCellX = minCellY = minCellZ = Integer.MAX_VALUE;
+        this.maxCellX = maxCellY = maxCellZ = Integer.MIN_VALUE;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Gets how many entities are in this index.
+     * @return Entity count.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int cellCoord(float coord) {
+        return (int) Math.floor(coord * invCellSize);
+    }
+
+    private static long key(int x, int y, int z) {
+        return (x & coordMask) << (coordBits * 2) | (y & coordMask) << coordBits | (z & coordMask);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Cell findCell(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return cells[i];
+            } else if (k == noKey) {
+                return null;
+            }
+        }
+    }
+
+    private Cell getOrCreateCell(int x, int y, int z) {
+        long key = key(x, y, z);
+        Cell cell = findCell(key);
+        if (cell != null) {
+            return cell;
+        }
+
+        if (cellCount * 2 >= keys.length) { // Keep load factor under 0.5
+            rehash(keys.length * 2);
+        }
+        cell = new Cell(this, key);
+        insert(cell);
+        cellCount++;
+
+        minCellX = Math.min(minCellX, x);
+        minCellY = Math.min(minCellY, y);
+        minCellZ = Math.min(minCellZ, z);
+        maxCellX = Math.max(maxCellX, x);
+        maxCellY = Math.max(maxCellY, y);
+        maxCellZ = Math.max(maxCellZ, z);
+        return cell;
+    }
+
+    private void insert(Cell cell) {
+        int mask = keys.length - 1;
+        int i = hash(cell.key) & mask;
+        while (keys[i] != noKey) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = cell.key;
+        cells[i] = cell;
+    }
+
+    private void rehash(int capacity) {
+        Cell[] old = cells;
+        keys = new long[capacity];
+        Arrays.fill(keys, noKey);
+        cells = new Cell[capacity];
+        for (Cell cell : old) {
+            if (cell != null) {
+                insert(cell);
+            }
+        }
+    }
+
+    /**
+     * Adds an entity to this index.
+     * @param entity Entity, which must not be in any spatial index.
+     */
+    public void add(Entity entity) {
+        getOrCreateCell(cellCoord(entity.getX()), cellCoord(entity.getY()), cellCoord(entity.getZ())).add(entity);
+        size++;
+    }
+
+    /**
+     * Removes an entity from this index.
+     * @param entity Entity in this index.
+     */
+    public void remove(Entity entity) {
+        if (entity.cell != null) {
+            entity.cell.remove(entity);
+            size--;
+        }
+    }
+
+    /**
+     * Moves entity to correct cell after it has moved. Empty cells are
+     * kept, since entities are likely to move back to them.
+     * @param entity Entity in this index.
+     * @throws IllegalArgumentException If entity is not indexed.
+     */
+    public void update(Entity entity) {
+        int x = cellCoord(entity.getX()), y = cellCoord(entity.getY()), z = cellCoord(entity.getZ());
+        Cell current = entity.cell;
+        if (current == null) {
+            throw new IllegalArgumentException("entity is not in a spatial index");
+        }
+        if (current.key == key(x, y, z)) {
+            return; // Still in same cell
+        }
+        current.remove(entity);
+        getOrCreateCell(x, y, z).add(entity);
+    }
+
+    /**
+     * Finds all entities inside an axis-aligned box.
+     * @param minX Minimum X.
+     * @param minY Minimum Y.
+     * @param minZ Minimum Z.
+     * @param maxX Maximum X.
+     * @param maxY Maximum Y.
+     * @param maxZ Maximum Z.
+     * @param action Action to call for every entity found.
+     */
+    public void queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+            Consumer<Entity> action) {
+        int x0 = Math.max(cellCoord(minX), minCellX), x1 = Math.min(cellCoord(maxX), maxCellX);
+        int y0 = Math.max(cellCoord(minY), minCellY), y1 = Math.min(cellCoord(maxY), maxCellY);
+        int z0 = Math.max(cellCoord(minZ), minCellZ), z1 = Math.min(cellCoord(maxZ), maxCellZ);
+        if (x0 > x1 || y0 > y1 || z0 > z1) {
+            return; // Outside of all cells
+        }
+
+        long boxCells = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+        if (boxCells > cellCount) { // Cheaper to go through cells we have
+            for (Cell cell : cells) {
+                if (cell != null && cell.size != 0) {
+                    queryCell(cell, minX, minY, minZ, maxX, maxY, maxZ, action);
+                }
+            }
+            return;
+        }
+
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int z = z0; z <= z1; z++) {
+                    Cell cell = findCell(key(x, y, z));
+                    if (cell != null) {
+                        queryCell(cell, minX, minY, minZ, maxX, maxY, maxZ, action);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void queryCell(Cell cell, float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ, Consumer<Entity> action) {
+        Entity[] entities = cell.entities;
+        for (int i = 0; i < cell.size; i++) {
+            Entity entity = entities[i];
+            float x = entity.getX(), y = entity.getY(), z = entity.getZ();
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ) {
+                action.accept(entity);
+            }
+        }
+    }
+
+    /**
+     * Finds all entities inside a sphere.
+     * @param x Center X.
+     * @param y Center Y.
+     * @param z Center Z.
+     * @param radius Radius of sphere.
+     * @param action Action to call for every entity found.
+     */
+    public void querySphere(float x, float y, float z, float radius, Consumer<Entity> action) {
+        float radiusSq = radius * radius;
+        queryBox(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius, entity -> {
+            if (distanceSq(entity, x, y, z) <= radiusSq) {
+                action.accept(entity);
+            }
+        });
+    }
+
+    private static float distanceSq(Entity entity, float x, float y, float z) {
+        float dx = entity.getX() - x, dy = entity.getY() - y, dz = entity.getZ() - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Finds entities that are nearest to given point.
+     * @param x Point X.
+     * @param y Point Y.
+     * @param z Point Z.
+     * @param k Maximum count of entities to find.
+     * @param maxDistance Maximum distance of entities from the point.
+     * @return Entities, nearest first; empty if k is not positive or there
+     * are no entities.
+     */
+    public List<Entity> nearest(float x, float y, float z, int k, float maxDistance) {
+        if (k <= 0 || size == 0) {
+            return Collections.emptyList();
+        }
+        // Max-heap of best candidates by distance
+        Entity[] heap = new Entity[k];
+        float[] dists = new float[k];
+        int found = 0;
+        float maxDistSq = maxDistance * maxDistance;
+
+        // In long, distance from far away point to bounds could overflow
+        int cx = cellCoord(x), cy = cellCoord(y), cz = cellCoord(z);
+        long boundsRing = Math.max(Math.max(Math.max((long) cx - minCellX, (long) maxCellX - cx),
+                Math.max((long) cy - minCellY, (long) maxCellY - cy)),
+                Math.max((long) cz - minCellZ, (long) maxCellZ - cz));
+        // Clamp before cast, huge or infinite distances would overflow
+        long ringLimit = (long) Math.min(Integer.MAX_VALUE - 1, Math.ceil((double) maxDistance * invCellSize));
+        int maxRing = (int) Math.min(Math.min(boundsRing, ringLimit + 1), Integer.MAX_VALUE - 1);
+
+        // Search cells in growing rings around the point
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dy = -ring; dy <= ring; dy++) {
+                    boolean edge = dx == -ring || dx == ring || dy == -ring || dy == ring;
+                    // Only visit shell of the ring, inner cells were already searched
+                    for (int dz = -ring; dz <= ring; dz += edge ? 1 : 2 * ring) {
+                        Cell cell = findCell(key(cx + dx, cy + dy, cz + dz));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.size; i++) {
+                            Entity entity = cell.entities[i];
+                            float dist = distanceSq(entity, x, y, z);
+                            if (dist > maxDistSq) {
+                                continue;
+                            }
+                            if (found < k) {
+                                heap[found] = entity;
+                                dists[found] = dist;
+                                siftUp(heap, dists, found++);
+                            } else if (dist < dists[0]) {
+                                heap[0] = entity;
+                                dists[0] = dist;
+                                siftDown(heap, dists, found);
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Anything in further rings is at least this far away
+            float ringDist = ring * cellSize;
+            if (found == k && dists[0] <= ringDist * ringDist) {
+                break;
+            }
+        }
+
+        // Take furthest from heap until it is empty, nearest ends up first
+        Entity[] result = new Entity[found];
+        for (int n = found; n > 0; n--) {
+            result[n - 1] = heap[0];
+            heap[0] = heap[n - 1];
+            dists[0] = dists[n - 1];
+            siftDown(heap, dists, n - 1);
+        }
+        return Arrays.asList(result);
+    }
+
+    private static void siftUp(Entity[] heap, float[] dists, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dists[parent] >= dists[i]) {
+                break;
+            }
+            swap(heap, dists, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(Entity[] heap, float[] dists, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, largest = i;
+            if (left < size && dists[left] > dists[largest]) {
+                largest = left;
+            }
+            if (right < size && dists[right] > dists[largest]) {
+                largest = right;
+            }
+            if (largest == i) {
+                return;
+            }
+            swap(heap, dists, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(Entity[] heap, float[] dists, int a, int b) {
+        Entity e = heap[a];
+        heap[a] = heap[b];
+        heap[b] = e;
+        float d = dists[a];
+        dists[a] = dists[b];
+        dists[b] = d;
+    }
+}
@@ -0,0 +1,109 @@
+package com.ritualsoftheold.exorcism.entity.collision;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+
+/**
+ * Finds pairs of entities whose bounds overlap, for each container
+ * separately. Bounds of an entity are a cube given by its
+ * {@link com.ritualsoftheold.exorcism.entity.component.ColliderComponent},
+ * or default radius if it doesn't have one.
+ *
+ * <p>Each container has a {@link SweepAndPrune} that keeps its pairs up to
+ * date between updates. Containers are updated in parallel; found pairs
+ * are then gathered to one {@link PairBuffer}, which systems that run after
+ * this can consume.
+ *
+ * <p>{@link #update(Collection)} must be called at a sync point, when
+ * entities are not moving.
+ *
+ */
+public class BroadPhase {
+
+    private final ForkJoinPool pool;
+
+    private final float defaultRadius;
+
+    private Map<EntityContainer, SweepAndPrune> sweeps;
+
+    private final PairBuffer pairs;
+
+    public BroadPhase(ForkJoinPool pool, float defaultRadius) {
+        this.pool = pool;
+        this.defaultRadius = defaultRadius;
+        this.sweeps = new IdentityHashMap<>();
+        this.pairs = new PairBuffer();
+    }
+
+    public BroadPhase(float defaultRadius) {
+        this(ForkJoinPool.commonPool(), defaultRadius);
+    }
+
+    /**
+     * Updates overlapping pairs of given containers. State of containers
+     * that were updated previously but are not given now is dropped.
+     * @param containers Containers.
+     */
+    public void update(Collection<EntityContainer> containers) {
+        Map<EntityContainer, SweepAndPrune> current = new IdentityHashMap<>();
+        List<SweepAndPrune> updated = new ArrayList<>(containers.size());
+        for (EntityContainer container : containers) {
+            SweepAndPrune sweep = sweeps.get(container);
+            if (sweep == null) {
+                sweep = new SweepAndPrune(container, defaultRadius);
+            }
+            current.put(container, sweep);
+            updated.add(sweep);
+        }
+        sweeps = current;
+
+        if (updated.size() == 1) {
+            updated.get(0).update();
+        } else if (!updated.isEmpty()) {
+            pool.invoke(new RecursiveAction() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>(updated.size());
+                    for (SweepAndPrune sweep : updated) {
+                        tasks.add(ForkJoinTask.adapt(sweep::update));
+                    }
+                    invokeAll(tasks);
+                }
+            });
+        }
+
+        pairs.clear();
+        for (SweepAndPrune sweep : updated) {
+            pairs.addAll(sweep.getPairs());
+        }
+    }
+
+    /**
+     * Gets pairs found by last update, from all containers.
+     * @return Overlapping pairs.
+     */
+    public PairBuffer getPairs() {
+        return pairs;
+    }
+
+    /**
+     * Gets pairs of one container.
+     * @param container Container.
+     * @return Overlapping pairs, or null if container was not updated.
+     */
+    public PairBuffer getPairs(EntityContainer container) {
+        SweepAndPrune sweep = sweeps.get(container);
+        return sweep != null ? sweep.getPairs() : null;
+    }
+}
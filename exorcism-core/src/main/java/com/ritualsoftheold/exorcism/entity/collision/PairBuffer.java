@@ -0,0 +1,79 @@
+package com.ritualsoftheold.exorcism.entity.collision;
+
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.Entity;
+
+/**
+ * A flat buffer of entity pairs. Pair i is at indices 2i and 2i + 1 of
+ * the backing array, so systems can go through pairs without any
+ * allocation.
+ *
+ */
+public class PairBuffer {
+
+    private Entity[] entities;
+
+    private int size;
+
+    public PairBuffer(int capacity) {
+        this.entities = new Entity[Math.max(1, capacity) * 2];
+    }
+
+    public PairBuffer() {
+        this(64);
+    }
+
+    /**
+     * Gets how many pairs there are.
+     * @return Pair count.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Entity getFirst(int pair) {
+        return entities[pair << 1];
+    }
+
+    public Entity getSecond(int pair) {
+        return entities[(pair << 1) + 1];
+    }
+
+    /**
+     * Gets the backing array. Pairs are in its first {@code 2 * size()}
+     * elements.
+     * @return Backing array.
+     */
+    public Entity[] getEntities() {
+        return entities;
+    }
+
+    public void add(Entity first, Entity second) {
+        ensureCapacity(size + 1);
+        entities[size << 1] = first;
+        entities[(size << 1) + 1] = second;
+        size++;
+    }
+
+    /**
+     * Appends all pairs of another buffer.
+     * @param other Another buffer.
+     */
+    public void addAll(PairBuffer other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.entities, 0, entities, size << 1, other.size << 1);
+        size += other.size;
+    }
+
+    private void ensureCapacity(int pairs) {
+        if (pairs * 2 > entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(pairs * 2, entities.length * 2));
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(entities, 0, size << 1, null);
+        size = 0;
+    }
+}
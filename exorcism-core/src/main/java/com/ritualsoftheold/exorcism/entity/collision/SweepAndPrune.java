@@ -0,0 +1,303 @@
+package com.ritualsoftheold.exorcism.entity.collision;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.ritualsoftheold.exorcism.entity.Chunk;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+import com.ritualsoftheold.exorcism.entity.component.ColliderComponent;
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+import com.ritualsoftheold.exorcism.util.LongHashSet;
+
+/**
+ * Incremental sweep and prune of entities in one container.
+ *
+ * <p>Minimum and maximum x of bounds of each entity are kept in one
+ * endpoint array, which stays sorted between updates. Entities move only a
+ * bit between updates, so insertion sort fixes the order in nearly linear
+ * time; each swap of a minimum and a maximum of two entities starts or ends
+ * their overlap along x. Pairs that overlap along x are kept in a set, and
+ * ones that overlap along y and z too are written to a pair buffer.
+ *
+ */
+final class SweepAndPrune {
+
+    private static final StructLayout colliderLayout = StructLayout.of(ColliderComponent.class);
+
+    private static final int radiusField = colliderLayout.indexOf("radius");
+
+    private final EntityContainer container;
+
+    private final float defaultRadius;
+
+    /**
+     * Slots of entities that are in this sweep.
+     */
+    private final Map<Entity, Integer> slots;
+
+    /**
+     * Slots that have been freed.
+     */
+    private int[] freeSlots;
+
+    private int freeCount;
+
+    /**
+     * Entities by slot; null for free slots.
+     */
+    private Entity[] entities;
+
+    /**
+     * Bounds by slot.
+     */
+    private float[] minX, maxX, minY, maxY, minZ, maxZ;
+
+    /**
+     * Update when each slot was last seen in container.
+     */
+    private int[] seen;
+
+    /**
+     * How many slots have been used.
+     */
+    private int slotCount;
+
+    /**
+     * Endpoints along x, sorted by value. An endpoint is slot shifted left
+     * by one, with lowest bit set for maximums.
+     */
+    private int[] endpoints;
+
+    private float[] values;
+
+    private int endpointCount;
+
+    /**
+     * Pairs that overlap along x; see {@link #key(int, int)}.
+     */
+    private final LongHashSet overlaps;
+
+    private final PairBuffer pairs;
+
+    private int tick;
+
+    SweepAndPrune(EntityContainer container, float defaultRadius) {
+        this.container = container;
+        this.defaultRadius = defaultRadius;
+        this.slots = new IdentityHashMap<>();
+        this.freeSlots = new int[16];
+        this.entities = new Entity[16];
+        this.minX = new float[16];
+        this.maxX = new float[16];
+        this.minY = new float[16];
+        this.maxY = new float[16];
+        this.minZ = new float[16];
+        this.maxZ = new float[16];
+        this.seen = new int[16];
+        this.endpoints = new int[32];
+        this.values = new float[32];
+        this.overlaps = new LongHashSet();
+        this.pairs = new PairBuffer();
+    }
+
+    /**
+     * Creates a key for a pair of slots. Order of slots doesn't matter.
+     * Key is never zero, because the slots are different.
+     * @param a A slot.
+     * @param b Another slot.
+     * @return Pair key.
+     */
+    private static long key(int a, int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+
+    PairBuffer getPairs() {
+        return pairs;
+    }
+
+    /**
+     * Updates bounds of entities and pairs that overlap.
+     */
+    void update() {
+        tick++;
+        boolean added = false;
+        for (Entity entity : container.getEntities()) {
+            Chunk chunk = entity.getChunk();
+            if (chunk == null) {
+                continue; // Destroyed, will be removed from container
+            }
+            Integer slot = slots.get(entity);
+            if (slot == null) {
+                slot = allocate(entity);
+                added = true;
+            }
+            updateBounds(slot, entity, chunk);
+        }
+
+        removeUnseen();
+        if (added) {
+            appendEndpoints();
+        }
+
+        for (int i = 0; i < endpointCount; i++) {
+            int endpoint = endpoints[i];
+            int slot = endpoint >>> 1;
+            values[i] = (endpoint & 1) == 0 ? minX[slot] : maxX[slot];
+        }
+        sort();
+
+        pairs.clear();
+        overlaps.forEach(key -> {
+            int a = (int) (key >>> 32);
+            int b = (int) key;
+            if (minY[a] <= maxY[b] && minY[b] <= maxY[a] && minZ[a] <= maxZ[b] && minZ[b] <= maxZ[a]) {
+                pairs.add(entities[a], entities[b]);
+            }
+        });
+    }
+
+    private int allocate(Entity entity) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == entities.length) {
+                int capacity = slot * 2;
+                entities = Arrays.copyOf(entities, capacity);
+                minX = Arrays.copyOf(minX, capacity);
+                maxX = Arrays.copyOf(maxX, capacity);
+                minY = Arrays.copyOf(minY, capacity);
+                maxY = Arrays.copyOf(maxY, capacity);
+                minZ = Arrays.copyOf(minZ, capacity);
+                maxZ = Arrays.copyOf(maxZ, capacity);
+                seen = Arrays.copyOf(seen, capacity);
+            }
+        }
+        entities[slot] = entity;
+        seen[slot] = -tick; // New, endpoints are not in array yet
+        slots.put(entity, slot);
+        return slot;
+    }
+
+    private void updateBounds(int slot, Entity entity, Chunk chunk) {
+        float radius = defaultRadius;
+        int column = chunk.getArchetype().indexOf(ColliderComponent.class);
+        if (column != -1) {
+            StructColumn struct = chunk.getStructColumn(column);
+            if (struct != null) {
+                radius = struct.getFloat(radiusField, entity.getRow());
+            } else {
+                Component[] colliders = chunk.getColumn(column);
+                radius = ((ColliderComponent) colliders[entity.getRow()]).radius;
+            }
+        }
+
+        float x = entity.getX();
+        float y = entity.getY();
+        float z = entity.getZ();
+        minX[slot] = x - radius;
+        maxX[slot] = x + radius;
+        minY[slot] = y - radius;
+        maxY[slot] = y + radius;
+        minZ[slot] = z - radius;
+        maxZ[slot] = z + radius;
+        if (seen[slot] != -tick) {
+            seen[slot] = tick;
+        }
+    }
+
+    /**
+     * Frees slots of entities that were not seen in this update, and
+     * removes their pairs and endpoints.
+     */
+    private void removeUnseen() {
+        boolean[] removed = null;
+        for (int slot = 0; slot < slotCount; slot++) {
+            Entity entity = entities[slot];
+            if (entity != null && seen[slot] != tick && seen[slot] != -tick) {
+                if (removed == null) {
+                    removed = new boolean[slotCount];
+                }
+                removed[slot] = true;
+                slots.remove(entity);
+                entities[slot] = null;
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            }
+        }
+        if (removed == null) {
+            return;
+        }
+
+        boolean[] mask = removed;
+        overlaps.removeIf(key -> mask[(int) (key >>> 32)] || mask[(int) key]);
+        int count = 0;
+        for (int i = 0; i < endpointCount; i++) {
+            int endpoint = endpoints[i];
+            int slot = endpoint >>> 1;
+            if (!mask[slot]) {
+                endpoints[count++] = endpoint;
+            }
+        }
+        endpointCount = count;
+    }
+
+    /**
+     * Appends endpoints of new entities to end of array. Sorting moves
+     * them to their places, and adds their overlaps on the way.
+     */
+    private void appendEndpoints() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (seen[slot] == -tick) {
+                if (endpointCount + 2 > endpoints.length) {
+                    endpoints = Arrays.copyOf(endpoints, endpoints.length * 2);
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                // Minimum first: it adds pairs with all maximums right of it,
+                // then maximum removes ones whose minimums are right of it
+                endpoints[endpointCount++] = slot << 1;
+                endpoints[endpointCount++] = slot << 1 | 1;
+                seen[slot] = tick;
+            }
+        }
+    }
+
+    /**
+     * Insertion sort of endpoints. When a minimum moves left past a
+     * maximum, the two entities start to overlap; when a maximum moves
+     * left past a minimum, they stop overlapping.
+     */
+    private void sort() {
+        int[] endpoints = this.endpoints;
+        float[] values = this.values;
+        for (int i = 1; i < endpointCount; i++) {
+            int endpoint = endpoints[i];
+            float value = values[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > value) {
+                int other = endpoints[j];
+                int a = endpoint >>> 1;
+                int b = other >>> 1;
+                if ((endpoint & 1) != (other & 1) && a != b) {
+                    if ((endpoint & 1) == 0) {
+                        overlaps.add(key(a, b));
+                    } else {
+                        overlaps.remove(key(a, b));
+                    }
+                }
+                endpoints[j + 1] = other;
+                values[j + 1] = values[j];
+                j--;
+            }
+            endpoints[j + 1] = endpoint;
+            values[j + 1] = value;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Codecs of component types. Data-only component types (see
+ * {@link StructLayout}) don't need to be registered; their fields are
+ * encoded as they are, by a {@link ComponentAccessor} if one has been
+ * generated.
+ *
+ */
+public class CodecRegistry {
+    
+    private final Map<Class<?>, ComponentCodec<?>> codecs;
+    
+    public CodecRegistry() {
+        this.codecs = new HashMap<>();
+    }
+    
+    /**
+     * Registers a codec for a component type, replacing previous one.
+     * @param type Component type.
+     * @param codec Codec.
+     */
+    public <T extends Component> void register(Class<T> type, ComponentCodec<T> codec) {
+        codecs.put(type, codec);
+    }
+    
+    /**
+     * Gets codec of a component type.
+     * @param type Component type.
+     * @return Codec.
+     * @throws IllegalArgumentException If there is no codec and the type is
+     * not data-only.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Component> ComponentCodec<T> get(Class<T> type) {
+        ComponentCodec<T> codec = (ComponentCodec<T>) codecs.get(type);
+        if (codec == null) {
+            codec = ComponentAccessor.find(type); // Generated one is fastest
+            if (codec == null) {
+                StructLayout layout = StructLayout.of(type); // Throws if not data-only
+                codec = new StructCodec<>(layout);
+            }
+            codecs.put(type, codec);
+        }
+        return codec;
+    }
+    
+    /**
+     * Codec of a data-only component type.
+     */
+    private static class StructCodec<T extends Component> implements ComponentCodec<T> {
+        
+        private final StructLayout layout;
+        
+        StructCodec(StructLayout layout) {
+            this.layout = layout;
+        }
+
+        @Override
+        public int maxSize() {
+            return layout.getStride();
+        }
+
+        @Override
+        public void write(T component, ByteBuffer out) {
+            layout.encode(component, out);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T read(ByteBuffer in) {
+            T component = (T) layout.newInstance();
+            layout.decode(in, component);
+            return component;
+        }
+    }
+}
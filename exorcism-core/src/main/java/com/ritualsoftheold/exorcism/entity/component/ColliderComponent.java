@@ -0,0 +1,21 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+/**
+ * Makes an entity collide with others. Its bounds are a cube centered on
+ * coordinates of the entity.
+ *
+ */
+@DataComponent
+public class ColliderComponent extends Component {
+
+    private static final int typeId = ComponentType.register(ColliderComponent.class);
+    
+    public ColliderComponent() {
+        super(typeId);
+    }
+    
+    /**
+     * Half of side length of bounds.
+     */
+    public float radius;
+}
@@ -14,11 +14,41 @@ package com.ritualsoftheold.exorcism.entity.component;
  */
 public abstract class Component {
     
+    /**
+     * Id of type of this component, see {@link ComponentType}.
+     */
     protected int originSlot;
     
     protected int currentSlot;
     
+    /**
+     * Creates a component.
+     * @param slot {@link ComponentType} id of this component's class.
+     */
     protected Component(int slot) {
         this.originSlot = slot;
     }
+    
+    /**
+     * Creates a component. Its type id is looked up from
+     * {@link ComponentType}.
+     */
+    protected Component() {
+        this.originSlot = ComponentType.idOf(getClass());
+    }
+    
+    /**
+     * Resets this component to state it was after construction. Called
+     * by {@link ComponentPool} when component is returned to it. Components
+     * that are pooled must override this, unless a
+     * {@link ComponentAccessor} has been generated for them or the pool
+     * has a reset callback.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected void reset() {
+        ComponentAccessor accessor = ComponentAccessor.find(getClass());
+        if (accessor != null) {
+            accessor.reset(this);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Field metadata and accessors of a data-only component type, generated at
+ * compile time for classes marked with {@link DataComponent}. When a type
+ * has an accessor, {@link StructLayout} and {@link CodecRegistry} use it
+ * instead of reflection; its methods access fields directly, so the JIT
+ * compiler can inline them.
+ *
+ * <p>Accessor of a component class is in same package, named after the
+ * class with nested class names joined by '_' and suffix {@code _Accessor}.
+ * Fields are ordered by name, like in {@link StructLayout}, and encoded
+ * format is same as {@link StructLayout#encode(Component, ByteBuffer)}.
+ *
+ */
+public abstract class ComponentAccessor<T extends Component> implements ComponentCodec<T> {
+
+    /**
+     * Accessors that have been created, by component type. Generated
+     * accessors have one instance, which is created when they are loaded.
+     */
+    private static final Map<Class<?>, ComponentAccessor<?>> accessors = new ConcurrentHashMap<>();
+
+    private static final ClassValue<ComponentAccessor<?>> lookups = new ClassValue<ComponentAccessor<?>>() {
+
+        @Override
+        protected ComponentAccessor<?> computeValue(Class<?> type) {
+            String name = type.getName();
+            int nameStart = name.lastIndexOf('.') + 1;
+            name = name.substring(0, nameStart) + name.substring(nameStart).replace('$', '_') + "_Accessor";
+            try {
+                Class.forName(name, true, type.getClassLoader()); // Registers accessor
+            } catch (ClassNotFoundException e) {
+                return null; // Not generated, fall back to reflection
+            }
+            return accessors.get(type);
+        }
+    };
+
+    /**
+     * Finds generated accessor of a component type.
+     * @param type Component type.
+     * @return Accessor, or null if none was generated for the type.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Component> ComponentAccessor<T> find(Class<T> type) {
+        return (ComponentAccessor<T>) lookups.get(type);
+    }
+
+    private final Class<T> type;
+
+    private final int typeId;
+
+    /**
+     * Component in its initial state, used for resetting. Created lazily,
+     * so that accessor can be loaded during initialization of its type.
+     */
+    private volatile T prototype;
+
+    protected ComponentAccessor(Class<T> type) {
+        this.type = type;
+        this.typeId = ComponentType.register(type);
+        accessors.put(type, this);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Gets {@link ComponentType} id of the component type.
+     * @return Type id.
+     */
+    public int getTypeId() {
+        return typeId;
+    }
+
+    public abstract int getFieldCount();
+
+    public abstract String getFieldName(int field);
+
+    public abstract Class<?> getFieldType(int field);
+
+    /**
+     * Creates a new component with its no-argument constructor.
+     * @return A new component.
+     */
+    public abstract T newInstance();
+
+    /**
+     * Copies all fields of a component to another.
+     * @param from Source component.
+     * @param to Target component.
+     */
+    public abstract void copy(T from, T to);
+
+    /**
+     * Sets fields of a component to values they have after construction.
+     * @param component Component.
+     */
+    public void reset(T component) {
+        T initial = prototype;
+        if (initial == null) {
+            initial = newInstance();
+            prototype = initial;
+        }
+        copy(initial, component);
+    }
+
+    /**
+     * Reads fields of a component from a buffer.
+     * @param in Input buffer.
+     * @param component Component to read to.
+     */
+    public abstract void read(ByteBuffer in, T component);
+
+    @Override
+    public T read(ByteBuffer in) {
+        T component = newInstance();
+        read(in, component);
+        return component;
+    }
+
+    /**
+     * Reads a field as raw bits, see
+     * {@link StructLayout#readBits(Component, int)}.
+     * @param component Component.
+     * @param field Field index.
+     * @return Field value, widened to long.
+     */
+    public abstract long readBits(T component, int field);
+
+    /**
+     * Writes raw bits to a field, see
+     * {@link StructLayout#writeBits(Component, int, long)}.
+     * @param component Component.
+     * @param field Field index.
+     * @param bits Field value.
+     */
+    public abstract void writeBits(T component, int field, long bits);
+}
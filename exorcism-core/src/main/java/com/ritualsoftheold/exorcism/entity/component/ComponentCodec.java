@@ -0,0 +1,32 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes components of one type to binary form, for example for
+ * snapshots. Codecs are registered to a {@link CodecRegistry}.
+ *
+ */
+public interface ComponentCodec<T extends Component> {
+    
+    /**
+     * Gets maximum count of bytes that one component can take when encoded.
+     * Writers make sure there is at least this much space in buffer.
+     * @return Maximum size in bytes.
+     */
+    int maxSize();
+    
+    /**
+     * Writes a component to a buffer.
+     * @param component Component to write.
+     * @param out Output buffer.
+     */
+    void write(T component, ByteBuffer out);
+    
+    /**
+     * Reads a component from a buffer.
+     * @param in Input buffer.
+     * @return A new component.
+     */
+    T read(ByteBuffer in);
+}
@@ -0,0 +1,251 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Pool of components of one type. Short-lived components (buffs, status
+ * effects and such) can be obtained from a pool and released back to it
+ * instead of allocating new ones every time.
+ *
+ * <p>Each thread has a small cache of components, so obtaining and
+ * releasing them is usually contention-free. When a cache overflows, half
+ * of it is moved to a shared pool as one batch; when it runs empty, a batch
+ * is taken from there.
+ *
+ * <p>Released components are {@link Component#reset() reset}, or given to
+ * a reset callback of the pool. Pool can only be created for types that
+ * can be reset one of these ways. A released
+ * component has its current slot set to {@link #POOLED}, which is used to
+ * catch components that are released twice.
+ *
+ */
+public class ComponentPool<T extends Component> {
+
+    /**
+     * Current slot of components that are in a pool.
+     */
+    public static final int POOLED = -1;
+
+    /**
+     * Cache of one thread.
+     */
+    private static class Local {
+
+        final Component[] components;
+
+        int size;
+
+        /**
+         * Emptied batch from shared pool, reused when spilling.
+         */
+        Component[] spareBatch;
+
+        Local(int capacity) {
+            this.components = new Component[capacity];
+        }
+    }
+
+    private final Supplier<T> factory;
+
+    /**
+     * Resets released components, or null to use {@link Component#reset()}.
+     */
+    private final Consumer<? super T> reset;
+
+    private final ThreadLocal<Local> locals;
+
+    /**
+     * Batches of components shared by all threads.
+     */
+    private final Queue<Component[]> shared;
+
+    private final AtomicInteger sharedBatches;
+
+    private final int maxSharedBatches;
+
+    private final LongAdder hits;
+
+    private final LongAdder misses;
+
+    private final LongAdder drops;
+
+    /**
+     * Creates a new pool.
+     * @param type Component type.
+     * @param factory Creates new components when pool is empty.
+     * @param reset Resets released components to their initial state, or
+     * null if the type has a {@link ComponentAccessor} or overrides
+     * {@link Component#reset()}.
+     * @param localCapacity How many components each thread caches; at
+     * least 2, so that half of a full cache can be spilled.
+     * @param maxShared How many components at most are kept in shared pool.
+     * @throws IllegalArgumentException If components of the type can't be
+     * reset.
+     */
+    public ComponentPool(Class<T> type, Supplier<T> factory, Consumer<? super T> reset, int localCapacity,
+            int maxShared) {
+        if (localCapacity < 2) {
+            throw new IllegalArgumentException("local capacity must be at least 2, was " + localCapacity);
+        }
+        if (reset == null && ComponentAccessor.find(type) == null && !overridesReset(type)) {
+            // Released components would keep their old state
+            throw new IllegalArgumentException(type + " has no accessor and does not override reset()");
+        }
+        this.factory = factory;
+        this.reset = reset;
+        this.locals = ThreadLocal.withInitial(() -> new Local(localCapacity));
+        this.shared = new ConcurrentLinkedQueue<>();
+        this.sharedBatches = new AtomicInteger();
+        this.maxSharedBatches = Math.max(1, maxShared / (localCapacity / 2));
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.drops = new LongAdder();
+    }
+
+    public ComponentPool(Class<T> type, Supplier<T> factory, Consumer<? super T> reset) {
+        this(type, factory, reset, 64, 4096);
+    }
+
+    public ComponentPool(Class<T> type, Supplier<T> factory) {
+        this(type, factory, null);
+    }
+
+    private static boolean overridesReset(Class<?> type) {
+        for (Class<?> c = type; c != Component.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("reset");
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Look in superclass
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets a component from this pool, or creates a new one if the pool is
+     * empty.
+     * @return A component in its initial state.
+     */
+    public T obtain() {
+        Local local = locals.get();
+        if (local.size == 0 && !refill(local)) {
+            misses.increment();
+            return factory.get();
+        }
+
+        @SuppressWarnings("unchecked")
+        T component = (T) local.components[--local.size];
+        local.components[local.size] = null;
+        component.currentSlot = component.originSlot;
+        hits.increment();
+        return component;
+    }
+
+    /**
+     * Returns a component to this pool. It must have been removed from its
+     * entity first, and must not be used after this.
+     * @param component Component to release.
+     */
+    public void release(T component) {
+        if (component.currentSlot == POOLED) {
+            throw new IllegalStateException("component released twice");
+        }
+        if (reset != null) {
+            reset.accept(component);
+        } else {
+            component.reset();
+        }
+        component.currentSlot = POOLED;
+
+        Local local = locals.get();
+        if (local.size == local.components.length) {
+            spill(local);
+        }
+        local.components[local.size++] = component;
+    }
+
+    /**
+     * Takes a batch from shared pool to local cache.
+     * @param local Empty local cache.
+     * @return Whether a batch was available.
+     */
+    private boolean refill(Local local) {
+        Component[] batch = shared.poll();
+        if (batch == null) {
+            return false;
+        }
+        sharedBatches.decrementAndGet();
+        System.arraycopy(batch, 0, local.components, 0, batch.length);
+        local.size = batch.length;
+        Arrays.fill(batch, null);
+        local.spareBatch = batch;
+        return true;
+    }
+
+    /**
+     * Moves half of a full local cache to shared pool.
+     * @param local Full local cache.
+     */
+    private void spill(Local local) {
+        int count = local.components.length / 2;
+        int start = local.size - count;
+        if (sharedBatches.incrementAndGet() <= maxSharedBatches) {
+            Component[] batch = local.spareBatch;
+            if (batch == null || batch.length != count) {
+                batch = new Component[count];
+            }
+            local.spareBatch = null;
+            System.arraycopy(local.components, start, batch, 0, count);
+            shared.add(batch);
+        } else { // Shared pool is full, let garbage collector have them
+            sharedBatches.decrementAndGet();
+            drops.add(count);
+        }
+        for (int i = start; i < local.size; i++) {
+            local.components[i] = null;
+        }
+        local.size = start;
+    }
+
+    /**
+     * Gets how many times a component was obtained from pool.
+     * @return Hit count.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets how many times a component had to be created, because
+     * pool was empty.
+     * @return Miss count.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets how many released components were dropped, because pool was full.
+     * @return Drop count.
+     */
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    /**
+     * Gets ratio of hits to all obtains.
+     * @return Hit rate between 0 and 1, or 0 if nothing was obtained yet.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
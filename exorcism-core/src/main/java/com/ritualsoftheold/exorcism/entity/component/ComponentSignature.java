@@ -0,0 +1,147 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.util.Arrays;
+
+/**
+ * An immutable bit set of component types. Bit index of a type is its
+ * {@link ComponentType} id; signature of an entity has bits of all
+ * components it has set.
+ *
+ * <p>Up to 64 component types fit in one word, so checking whether
+ * an entity matches a signature is usually a single mask test.
+ *
+ */
+public final class ComponentSignature {
+
+    /**
+     * Signature that has no components.
+     */
+    public static final ComponentSignature EMPTY = new ComponentSignature(new long[1]);
+
+    /**
+     * Gets bit index of given component type.
+     * @param type Component type.
+     * @return Bit index.
+     */
+    public static int bitOf(Class<? extends Component> type) {
+        return ComponentType.idOf(type);
+    }
+
+    /**
+     * Creates a signature of given component types.
+     * @param types Component types.
+     * @return A new signature.
+     */
+    @SafeVarargs
+    public static ComponentSignature of(Class<? extends Component>... types) {
+        return EMPTY.with(types);
+    }
+
+    private final long[] words;
+
+    private ComponentSignature(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * Creates a new signature with given types added to this.
+     * @param types Component types to add.
+     * @return A new signature.
+     */
+    @SafeVarargs
+    public final ComponentSignature with(Class<? extends Component>... types) {
+        long[] words = this.words;
+        for (Class<? extends Component> type : types) {
+            int bit = bitOf(type);
+            int word = bit >>> 6;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            } else if (words == this.words) {
+                words = words.clone();
+            }
+            words[word] |= 1L << bit;
+        }
+        return new ComponentSignature(words);
+    }
+
+    /**
+     * Checks if this signature has given component type.
+     * @param type Component type.
+     * @return Whether the type is in this signature.
+     */
+    public boolean contains(Class<? extends Component> type) {
+        int bit = bitOf(type);
+        int word = bit >>> 6;
+        return word < words.length && (words[word] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Checks if this signature has all types of another signature.
+     * @param other Another signature.
+     * @return Whether other is subset of this.
+     */
+    public boolean containsAll(ComponentSignature other) {
+        long[] ours = words;
+        long[] theirs = other.words;
+        for (int i = 0; i < theirs.length; i++) {
+            long word = i < ours.length ? ours[i] : 0;
+            if ((word & theirs[i]) != theirs[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if this signature has any types of another signature.
+     * @param other Another signature.
+     * @return Whether the signatures have common types.
+     */
+    public boolean intersects(ComponentSignature other) {
+        long[] ours = words;
+        long[] theirs = other.words;
+        int length = Math.min(ours.length, theirs.length);
+        for (int i = 0; i < length; i++) {
+            if ((ours[i] & theirs[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if this signature has no types.
+     * @return Whether this is empty.
+     */
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ComponentSignature)) {
+            return false;
+        }
+        ComponentSignature other = (ComponentSignature) obj;
+        return containsAll(other) && other.containsAll(this);
+    }
+
+    @Override
+    public int hashCode() {
+        // Ignore trailing zero words, so that equal signatures have same hash
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) {
+            length--;
+        }
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + Long.hashCode(words[i]);
+        }
+        return hash;
+    }
+}
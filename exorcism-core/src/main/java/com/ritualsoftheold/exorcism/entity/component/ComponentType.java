@@ -0,0 +1,153 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.util.Arrays;
+
+/**
+ * Registry of component types. Each type gets a dense id, starting from
+ * zero, when it is registered; ids are also bit indices of
+ * {@link ComponentSignature}s and indices of per-type arrays such as column
+ * lookup tables of archetypes.
+ *
+ * <p>Types are registered when they are first looked up. Component classes
+ * can also register themselves when they are loaded:
+ * <pre>
+ * private static final int typeId = ComponentType.register(MyComponent.class);
+ * </pre>
+ *
+ * <p>Lookups don't lock or allocate. Class to id map is an open addressing
+ * table of classes and ints; it is copied when a type is registered, which
+ * happens only a few times during lifetime of a program.
+ *
+ */
+public final class ComponentType {
+
+    /**
+     * Immutable class to id table.
+     */
+    private static final class Table {
+
+        final Class<?>[] keys;
+
+        final int[] ids;
+
+        /**
+         * Component types by id.
+         */
+        final Class<? extends Component>[] types;
+
+        @SuppressWarnings("unchecked")
+        Table(int capacity, int count) {
+            this.keys = new Class<?>[capacity];
+            this.ids = new int[capacity];
+            this.types = (Class<? extends Component>[]) new Class<?>[count];
+        }
+    }
+
+    private static volatile Table table = new Table(64, 0);
+
+    private ComponentType() {}
+
+    private static int hash(Class<?> type) {
+        int hash = System.identityHashCode(type) * 0x9e3779b9; // Spread bits
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Gets id of a component type, registering it if needed.
+     * @param type Component type.
+     * @return Dense type id.
+     */
+    public static int idOf(Class<? extends Component> type) {
+        int id = find(type);
+        return id != -1 ? id : register(type);
+    }
+
+    /**
+     * Gets id of a type that has been registered.
+     * @param type A class.
+     * @return Type id, or -1 if the class is not a registered component
+     * type.
+     */
+    public static int find(Class<?> type) {
+        Table current = table;
+        Class<?>[] keys = current.keys;
+        int mask = keys.length - 1;
+        for (int i = hash(type) & mask; ; i = (i + 1) & mask) {
+            Class<?> key = keys[i];
+            if (key == type) {
+                return current.ids[i];
+            } else if (key == null) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Registers a component type. Registering a type again is allowed and
+     * returns the id it already has.
+     * @param type Component type.
+     * @return Dense type id.
+     */
+    public static synchronized int register(Class<? extends Component> type) {
+        if (!Component.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException(type + " is not a component");
+        }
+        int id = find(type);
+        if (id != -1) {
+            return id;
+        }
+
+        Table old = table;
+        id = old.types.length;
+        int capacity = old.keys.length;
+        if ((id + 1) * 2 > capacity) { // Keep load factor at most 0.5
+            capacity *= 2;
+        }
+        Table grown = new Table(capacity, id + 1);
+        for (int i = 0; i < id; i++) {
+            insert(grown, old.types[i], i);
+        }
+        insert(grown, type, id);
+        table = grown; // Publish
+        return id;
+    }
+
+    private static void insert(Table table, Class<? extends Component> type, int id) {
+        int mask = table.keys.length - 1;
+        int i = hash(type) & mask;
+        while (table.keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table.keys[i] = type;
+        table.ids[i] = id;
+        table.types[id] = type;
+    }
+
+    /**
+     * Gets a registered component type.
+     * @param id Type id.
+     * @return Component type.
+     * @throws IndexOutOfBoundsException If no type has the id.
+     */
+    public static Class<? extends Component> typeOf(int id) {
+        return table.types[id];
+    }
+
+    /**
+     * Gets how many types have been registered. All type ids are less
+     * than this.
+     * @return Type count.
+     */
+    public static int count() {
+        return table.types.length;
+    }
+
+    /**
+     * Gets all registered types.
+     * @return Types, ordered by id.
+     */
+    public static Class<? extends Component>[] getTypes() {
+        Class<? extends Component>[] types = table.types;
+        return Arrays.copyOf(types, types.length);
+    }
+}
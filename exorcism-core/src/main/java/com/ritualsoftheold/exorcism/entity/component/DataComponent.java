@@ -0,0 +1,21 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a data-only component (see {@link StructLayout}). When
+ * exorcism-processor is on annotation processor path, it generates a
+ * {@link ComponentAccessor} for each marked class at compile time, and
+ * reports an error if the class is not data-only.
+ *
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface DataComponent {
+
+}
@@ -4,12 +4,13 @@ package com.ritualsoftheold.exorcism.entity.component;
  * Stores a position and a world.
  *
  */
-public class PositionComponent extends com.ritualsoftheold.common.entity.component.Component {
+@DataComponent
+public class PositionComponent extends Component {
 
-    private static int slot;
+    private static final int typeId = ComponentType.register(PositionComponent.class);
     
     public PositionComponent() {
-        super(slot);
+        super(typeId);
     }
     
     /**
@@ -0,0 +1,72 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Accessor for off-heap {@link PositionComponent} data. Bind it to a
+ * column, then read and write positions by row without creating any
+ * component objects. One flyweight can be rebound any number of times.
+ *
+ */
+public final class PositionFlyweight {
+
+    private static final StructLayout layout = StructLayout.of(PositionComponent.class);
+
+    private static final int xField = layout.indexOf("x");
+    private static final int yField = layout.indexOf("y");
+    private static final int zField = layout.indexOf("z");
+
+    private ByteBuffer buffer;
+
+    /**
+     * Byte offsets to areas of coordinates.
+     */
+    private int xBase, yBase, zBase;
+
+    /**
+     * Binds this flyweight to a column.
+     * @param column Column of position components.
+     * @return This flyweight.
+     */
+    public PositionFlyweight bind(StructColumn column) {
+        if (column.getLayout() != layout) {
+            throw new IllegalArgumentException("not a position column");
+        }
+        this.buffer = column.getBuffer();
+        this.xBase = column.getFieldBase(xField);
+        this.yBase = column.getFieldBase(yField);
+        this.zBase = column.getFieldBase(zField);
+        return this;
+    }
+
+    public float x(int row) {
+        return buffer.getFloat(xBase + (row << 2));
+    }
+
+    public float y(int row) {
+        return buffer.getFloat(yBase + (row << 2));
+    }
+
+    public float z(int row) {
+        return buffer.getFloat(zBase + (row << 2));
+    }
+
+    public void setX(int row, float x) {
+        buffer.putFloat(xBase + (row << 2), x);
+    }
+
+    public void setY(int row, float y) {
+        buffer.putFloat(yBase + (row << 2), y);
+    }
+
+    public void setZ(int row, float z) {
+        buffer.putFloat(zBase + (row << 2), z);
+    }
+
+    public void set(int row, float x, float y, float z) {
+        int offset = row << 2;
+        buffer.putFloat(xBase + offset, x);
+        buffer.putFloat(yBase + offset, y);
+        buffer.putFloat(zBase + offset, z);
+    }
+}
@@ -0,0 +1,238 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Off-heap storage of data-only components of one type. Each field has its
+ * own contiguous area in a direct buffer, so e.g. X coordinates of all
+ * positions are next to each other. Garbage collector never scans this
+ * memory; it is freed when the column becomes unreachable.
+ *
+ * <p>Systems should access the data through flyweights such as
+ * {@link PositionFlyweight}, or directly with {@link #getBuffer()} and
+ * {@link #getFieldBase(int)}.
+ *
+ */
+public final class StructColumn {
+
+    private final StructLayout layout;
+
+    private final ByteBuffer buffer;
+
+    private final int capacity;
+
+    /**
+     * Byte offsets to areas of fields.
+     */
+    private final int[] bases;
+
+    /**
+     * Float views of fields, created when first needed.
+     */
+    private final FloatBuffer[] floatViews;
+
+    public StructColumn(StructLayout layout, int capacity) {
+        this(layout, ByteBuffer.allocateDirect(layout.getStride() * capacity).order(ByteOrder.nativeOrder()),
+                capacity);
+    }
+
+    private StructColumn(StructLayout layout, ByteBuffer buffer, int capacity) {
+        this.layout = layout;
+        this.capacity = capacity;
+        this.buffer = buffer;
+        this.bases = new int[layout.getFieldCount()];
+        this.floatViews = new FloatBuffer[bases.length];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = layout.getFieldBase(i, capacity);
+        }
+    }
+
+    /**
+     * Creates a column that uses existing memory, e.g. part of a memory-mapped
+     * file. Data is not copied.
+     * @param layout Layout of the column.
+     * @param buffer Buffer that starts with the column data. Its byte order
+     * must be native.
+     * @param capacity Capacity of the column.
+     * @return A column backed by the buffer.
+     */
+    public static StructColumn wrap(StructLayout layout, ByteBuffer buffer, int capacity) {
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("byte order is not native");
+        }
+        if (buffer.remaining() < layout.getStride() * capacity) {
+            throw new IllegalArgumentException("buffer is too small");
+        }
+        return new StructColumn(layout, buffer.slice().order(ByteOrder.nativeOrder()), capacity);
+    }
+
+    public StructLayout getLayout() {
+        return layout;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the buffer that holds data. It uses native byte order.
+     * @return Direct buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Gets byte offset of area of a field in the buffer.
+     * @param field Field index in layout.
+     * @return Offset in bytes.
+     */
+    public int getFieldBase(int field) {
+        return bases[field];
+    }
+
+    /**
+     * Gets area of a float field as a buffer, where index of a value is
+     * its row. Bulk systems can process whole columns through these.
+     * The view is shared, so only use absolute get and put methods.
+     * @param field Index of a float field.
+     * @return Float buffer of all rows, including unused ones.
+     */
+    public FloatBuffer getFloatField(int field) {
+        FloatBuffer view = floatViews[field];
+        if (view == null) { // Benign race, views of same area are equal
+            if (layout.getFieldType(field) != float.class) {
+                throw new IllegalArgumentException("field " + field + " is not a float");
+            }
+            ByteBuffer area = buffer.duplicate();
+            area.position(bases[field]);
+            area.limit(bases[field] + capacity * 4);
+            view = area.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+            floatViews[field] = view;
+        }
+        return view;
+    }
+
+    public float getFloat(int field, int row) {
+        return buffer.getFloat(bases[field] + row * 4);
+    }
+
+    public void setFloat(int field, int row, float value) {
+        buffer.putFloat(bases[field] + row * 4, value);
+    }
+
+    public int getInt(int field, int row) {
+        return buffer.getInt(bases[field] + row * 4);
+    }
+
+    public void setInt(int field, int row, int value) {
+        buffer.putInt(bases[field] + row * 4, value);
+    }
+
+    public long getLong(int field, int row) {
+        return buffer.getLong(bases[field] + row * 8);
+    }
+
+    public void setLong(int field, int row, long value) {
+        buffer.putLong(bases[field] + row * 8, value);
+    }
+
+    public double getDouble(int field, int row) {
+        return buffer.getDouble(bases[field] + row * 8);
+    }
+
+    public void setDouble(int field, int row, double value) {
+        buffer.putDouble(bases[field] + row * 8, value);
+    }
+
+    /**
+     * Gets a field as raw bits, like {@link StructLayout#readBits(Component, int)}.
+     * @param field Field index.
+     * @param row Row index.
+     * @return Field value, widened to long.
+     */
+    public long getBits(int field, int row) {
+        int size = layout.getFieldSize(field);
+        int offset = bases[field] + row * size;
+        switch (size) {
+            case 8:
+                return buffer.getLong(offset);
+            case 4:
+                return buffer.getInt(offset);
+            case 2:
+                return buffer.getShort(offset);
+            default:
+                return buffer.get(offset);
+        }
+    }
+
+    /**
+     * Sets a field from raw bits.
+     * @param field Field index.
+     * @param row Row index.
+     * @param bits Field value, as returned by {@link #getBits(int, int)}.
+     */
+    public void setBits(int field, int row, long bits) {
+        int size = layout.getFieldSize(field);
+        int offset = bases[field] + row * size;
+        switch (size) {
+            case 8:
+                buffer.putLong(offset, bits);
+                break;
+            case 4:
+                buffer.putInt(offset, (int) bits);
+                break;
+            case 2:
+                buffer.putShort(offset, (short) bits);
+                break;
+            default:
+                buffer.put(offset, (byte) bits);
+        }
+    }
+
+    /**
+     * Copies fields of a component to given row.
+     * @param row Row index.
+     * @param component Component of the type of this column.
+     */
+    public void store(int row, Component component) {
+        for (int i = 0; i < bases.length; i++) {
+            setBits(i, row, layout.readBits(component, i));
+        }
+    }
+
+    /**
+     * Copies fields of given row to a component.
+     * @param row Row index.
+     * @param component Component of the type of this column.
+     */
+    public void load(int row, Component component) {
+        for (int i = 0; i < bases.length; i++) {
+            layout.writeBits(component, i, getBits(i, row));
+        }
+    }
+
+    /**
+     * Copies a row from another column of same layout.
+     * @param row Target row in this column.
+     * @param source Source column.
+     * @param sourceRow Row in source column.
+     */
+    public void copyRow(int row, StructColumn source, int sourceRow) {
+        for (int i = 0; i < bases.length; i++) {
+            setBits(i, row, source.getBits(i, sourceRow));
+        }
+    }
+
+    /**
+     * Sets all fields of a row to zero.
+     * @param row Row index.
+     */
+    public void clearRow(int row) {
+        for (int i = 0; i < bases.length; i++) {
+            setBits(i, row, 0);
+        }
+    }
+}
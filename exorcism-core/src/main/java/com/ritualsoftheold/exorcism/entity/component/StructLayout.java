@@ -0,0 +1,346 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Describes fields of a data-only component, so that it can be stored
+ * off-heap in {@link StructColumn}s. A data-only component has only public
+ * fields of primitive types, and a public no-argument constructor.
+ *
+ * <p>Fields are ordered by name. In a struct column, each field has its own
+ * contiguous area (struct-of-arrays layout).
+ *
+ * <p>If a {@link ComponentAccessor} has been generated for the type, fields
+ * are accessed through it. Otherwise, they are found with reflection and
+ * accessed with var handles.
+ *
+ */
+public final class StructLayout {
+
+    private static final ClassValue<StructLayout> layouts = new ClassValue<StructLayout>() {
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected StructLayout computeValue(Class<?> type) {
+            return new StructLayout((Class<? extends Component>) type);
+        }
+    };
+
+    /**
+     * Gets layout of a component type.
+     * @param type Component type.
+     * @return Layout of the type.
+     * @throws IllegalArgumentException If type is not a data-only component.
+     */
+    public static StructLayout of(Class<? extends Component> type) {
+        return layouts.get(type);
+    }
+
+    private final Class<? extends Component> type;
+
+    private final String[] names;
+
+    private final Class<?>[] fieldTypes;
+
+    /**
+     * Sizes of fields, in bytes.
+     */
+    private final int[] sizes;
+
+    /**
+     * Sum of sizes of fields before each field.
+     */
+    private final int[] prefixSizes;
+
+    /**
+     * Generated accessor, or null if there is none.
+     */
+    private final ComponentAccessor<Component> accessor;
+
+    /**
+     * Field var handles, or null if accessor is used.
+     */
+    private final VarHandle[] handles;
+
+    private final MethodHandle constructor;
+
+    /**
+     * Size of one struct, in bytes.
+     */
+    private final int stride;
+
+    @SuppressWarnings("unchecked")
+    private StructLayout(Class<? extends Component> type) {
+        this.type = type;
+        this.accessor = (ComponentAccessor<Component>) ComponentAccessor.find(type);
+        if (accessor != null) {
+            int count = accessor.getFieldCount();
+            this.names = new String[count];
+            this.fieldTypes = new Class<?>[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = accessor.getFieldName(i);
+                fieldTypes[i] = accessor.getFieldType(i);
+            }
+            this.handles = null;
+            this.constructor = null;
+        } else {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != Component.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers)) {
+                        continue;
+                    }
+                    if (!Modifier.isPublic(modifiers)) { // Would not be stored, so data would be lost
+                        throw new IllegalArgumentException(type + " is not data-only: field " + field.getName()
+                                + " is not public");
+                    }
+                    if (!field.getType().isPrimitive()) {
+                        throw new IllegalArgumentException(type + " is not data-only: field " + field.getName()
+                                + " is not primitive");
+                    }
+                    fields.add(field);
+                }
+            }
+            fields.sort(Comparator.comparing(Field::getName));
+
+            int count = fields.size();
+            this.names = new String[count];
+            this.fieldTypes = new Class<?>[count];
+            this.handles = new VarHandle[count];
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Field field = fields.get(i);
+                    names[i] = field.getName();
+                    fieldTypes[i] = field.getType();
+                    handles[i] = lookup.unreflectVarHandle(field);
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+            } catch (IllegalAccessException | NoSuchMethodException e) {
+                throw new IllegalArgumentException(type + " is not data-only: " + e.getMessage(), e);
+            }
+        }
+
+        int count = names.length;
+        this.sizes = new int[count];
+        this.prefixSizes = new int[count];
+        int stride = 0;
+        for (int i = 0; i < count; i++) {
+            sizes[i] = sizeOf(fieldTypes[i]);
+            prefixSizes[i] = stride;
+            stride += sizes[i];
+        }
+        this.stride = stride;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else { // byte, boolean
+            return 1;
+        }
+    }
+
+    public Class<? extends Component> getType() {
+        return type;
+    }
+
+    public int getFieldCount() {
+        return names.length;
+    }
+
+    public String getFieldName(int field) {
+        return names[field];
+    }
+
+    public Class<?> getFieldType(int field) {
+        return fieldTypes[field];
+    }
+
+    public int getFieldSize(int field) {
+        return sizes[field];
+    }
+
+    /**
+     * Finds a field by name.
+     * @param name Field name.
+     * @return Field index, or -1 if there is no such field.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets size of one struct.
+     * @return Size in bytes.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Gets byte offset where area of given field starts in a struct
+     * column.
+     * @param field Field index.
+     * @param capacity Capacity of the column.
+     * @return Offset in bytes.
+     */
+    public int getFieldBase(int field, int capacity) {
+        return prefixSizes[field] * capacity;
+    }
+
+    /**
+     * Reads a field of a component as raw bits.
+     * @param component Component.
+     * @param field Field index.
+     * @return Field value, widened to long.
+     */
+    public long readBits(Component component, int field) {
+        if (accessor != null) {
+            return accessor.readBits(component, field);
+        }
+        VarHandle handle = handles[field];
+        Class<?> t = fieldTypes[field];
+        if (t == float.class) {
+            return Float.floatToRawIntBits((float) handle.get(component));
+        } else if (t == double.class) {
+            return Double.doubleToRawLongBits((double) handle.get(component));
+        } else if (t == long.class) {
+            return (long) handle.get(component);
+        } else if (t == int.class) {
+            return (int) handle.get(component);
+        } else if (t == short.class) {
+            return (short) handle.get(component);
+        } else if (t == char.class) {
+            return (char) handle.get(component);
+        } else if (t == byte.class) {
+            return (byte) handle.get(component);
+        } else { // boolean
+            return (boolean) handle.get(component) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Writes raw bits to a field of a component.
+     * @param component Component.
+     * @param field Field index.
+     * @param bits Field value, as returned by {@link #readBits(Component, int)}.
+     */
+    public void writeBits(Component component, int field, long bits) {
+        if (accessor != null) {
+            accessor.writeBits(component, field, bits);
+            return;
+        }
+        VarHandle handle = handles[field];
+        Class<?> t = fieldTypes[field];
+        if (t == float.class) {
+            handle.set(component, Float.intBitsToFloat((int) bits));
+        } else if (t == double.class) {
+            handle.set(component, Double.longBitsToDouble(bits));
+        } else if (t == long.class) {
+            handle.set(component, bits);
+        } else if (t == int.class) {
+            handle.set(component, (int) bits);
+        } else if (t == short.class) {
+            handle.set(component, (short) bits);
+        } else if (t == char.class) {
+            handle.set(component, (char) bits);
+        } else if (t == byte.class) {
+            handle.set(component, (byte) bits);
+        } else { // boolean
+            handle.set(component, bits != 0);
+        }
+    }
+
+    /**
+     * Writes all fields of a component to a buffer, in order of fields.
+     * @param component Component.
+     * @param out Output buffer, needs {@link #getStride()} bytes of space.
+     */
+    public void encode(Component component, ByteBuffer out) {
+        if (accessor != null) {
+            accessor.write(component, out);
+            return;
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            long bits = readBits(component, i);
+            switch (sizes[i]) {
+                case 8:
+                    out.putLong(bits);
+                    break;
+                case 4:
+                    out.putInt((int) bits);
+                    break;
+                case 2:
+                    out.putShort((short) bits);
+                    break;
+                default:
+                    out.put((byte) bits);
+            }
+        }
+    }
+
+    /**
+     * Reads fields written by {@link #encode(Component, ByteBuffer)} to a
+     * component.
+     * @param in Input buffer.
+     * @param component Component.
+     */
+    public void decode(ByteBuffer in, Component component) {
+        if (accessor != null) {
+            accessor.read(in, component);
+            return;
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            long bits;
+            switch (sizes[i]) {
+                case 8:
+                    bits = in.getLong();
+                    break;
+                case 4:
+                    bits = in.getInt();
+                    break;
+                case 2:
+                    bits = in.getShort();
+                    break;
+                default:
+                    bits = in.get();
+            }
+            writeBits(component, i, bits);
+        }
+    }
+
+    /**
+     * Creates a new instance of the component type.
+     * @return A new component.
+     */
+    public Component newInstance() {
+        if (accessor != null) {
+            return accessor.newInstance();
+        }
+        try {
+            return (Component) constructor.invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("failed to create " + type, e);
+        }
+    }
+}
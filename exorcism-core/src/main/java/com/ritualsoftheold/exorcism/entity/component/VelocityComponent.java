@@ -0,0 +1,17 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+/**
+ * Stores a velocity, in units per second.
+ *
+ */
+@DataComponent
+public class VelocityComponent extends Component {
+
+    private static final int typeId = ComponentType.register(VelocityComponent.class);
+    
+    public VelocityComponent() {
+        super(typeId);
+    }
+    
+    public float x, y, z;
+}
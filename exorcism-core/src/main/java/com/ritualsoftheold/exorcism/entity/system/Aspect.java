@@ -0,0 +1,156 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.Archetype;
+import com.ritualsoftheold.exorcism.entity.ChangeTicks;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+
+/**
+ * Describes which entities a {@link System} is interested in. Entities
+ * must have all required components and none of excluded ones. Optional
+ * components don't affect matching; they just document what else the
+ * system may access.
+ *
+ * <p>An aspect can also filter by changes. Then only entities where at
+ * least one of {@link #changed(Class...) changed} components has been
+ * modified since previous run of the system are processed. Changes are
+ * recorded with {@link Entity#markChanged(Class)}.
+ *
+ * <p>Aspects are immutable. Start from {@link #ANY} and add types:
+ * <pre>
+ * Aspect.ANY.require(PositionComponent.class).exclude(DeadComponent.class)
+ * </pre>
+ *
+ */
+public final class Aspect {
+
+    /**
+     * Aspect that matches all entities.
+     */
+    public static final Aspect ANY = new Aspect(ComponentSignature.EMPTY,
+            ComponentSignature.EMPTY, ComponentSignature.EMPTY, new Class<?>[0]);
+
+    private final ComponentSignature required;
+
+    private final ComponentSignature optional;
+
+    private final ComponentSignature excluded;
+
+    /**
+     * Types that are checked for changes. Empty if this aspect doesn't
+     * filter by changes.
+     */
+    private final Class<?>[] changed;
+
+    private Aspect(ComponentSignature required, ComponentSignature optional, ComponentSignature excluded,
+            Class<?>[] changed) {
+        this.required = required;
+        this.optional = optional;
+        this.excluded = excluded;
+        this.changed = changed;
+    }
+
+    @SafeVarargs
+    public final Aspect require(Class<? extends Component>... types) {
+        return new Aspect(required.with(types), optional, excluded, changed);
+    }
+
+    @SafeVarargs
+    public final Aspect optional(Class<? extends Component>... types) {
+        return new Aspect(required, optional.with(types), excluded, changed);
+    }
+
+    @SafeVarargs
+    public final Aspect exclude(Class<? extends Component>... types) {
+        return new Aspect(required, optional, excluded.with(types), changed);
+    }
+
+    /**
+     * Requires given components and filters entities by changes to them.
+     * @param types Component types.
+     * @return A new aspect.
+     */
+    @SafeVarargs
+    public final Aspect changed(Class<? extends Component>... types) {
+        Class<?>[] changed = Arrays.copyOf(this.changed, this.changed.length + types.length);
+        for (int i = 0; i < types.length; i++) { // Not arraycopy, varargs array must not escape
+            changed[this.changed.length + i] = types[i];
+        }
+        return new Aspect(required.with(types), optional, excluded, changed);
+    }
+
+    public ComponentSignature getRequired() {
+        return required;
+    }
+
+    public ComponentSignature getOptional() {
+        return optional;
+    }
+
+    public ComponentSignature getExcluded() {
+        return excluded;
+    }
+
+    /**
+     * Checks if this aspect filters entities by changes.
+     * @return Whether there are changed types.
+     */
+    public boolean isChangeFiltered() {
+        return changed.length != 0;
+    }
+
+    /**
+     * Checks if an entity with given signature matches this aspect.
+     * @param signature Component signature of entity.
+     * @return Whether it matches.
+     */
+    public boolean matches(ComponentSignature signature) {
+        return signature.containsAll(required) && !signature.intersects(excluded);
+    }
+
+    /**
+     * Checks if entities of given archetype match this aspect.
+     * @param archetype Archetype.
+     * @return Whether they match.
+     */
+    public boolean matches(Archetype archetype) {
+        return matches(archetype.getSignature());
+    }
+
+    /**
+     * Checks if an entity has changed after given tick, as far as this
+     * aspect is concerned. If this aspect doesn't filter by changes,
+     * entities are always considered changed.
+     * @param entity Entity that matches this aspect.
+     * @param since Tick to compare to, see {@link ChangeTicks}.
+     * @return Whether the entity should be processed.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean isChanged(Entity entity, int since) {
+        if (changed.length == 0) {
+            return true;
+        }
+        for (Class<?> type : changed) {
+            if (entity.isChangedSince((Class<? extends Component>) type, since)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds columns of changed types in an archetype.
+     * @param archetype Archetype that matches this aspect.
+     * @return Column indices.
+     */
+    int[] changedColumns(Archetype archetype) {
+        int[] columns = new int[changed.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = archetype.indexOf(changed[i]);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import com.ritualsoftheold.exorcism.entity.Chunk;
+import com.ritualsoftheold.exorcism.entity.Entity;
+
+/**
+ * A system that processes ranges of entities in a chunk at once, instead
+ * of one entity at a time. For components stored off-heap, it can get
+ * whole columns with {@link Chunk#getStructColumn(Class)} and process them
+ * in tight loops that the JIT compiler can unroll and vectorize.
+ *
+ * <p>{@link SystemScheduler} gives bulk systems runs of consecutive rows
+ * that match their aspect, so entities marked for removal or filtered out
+ * by change detection are never included. Iterators that go through
+ * entities one by one call {@link #process(float, Entity)}, which
+ * processes a range of one row.
+ *
+ * <p>Bulk systems that write to components should call
+ * {@link Chunk#markRangeChanged(int, int, int)} for the rows they wrote.
+ *
+ */
+public interface BulkSystem extends System {
+    
+    /**
+     * Processes a range of rows in a chunk.
+     * @param tpf Time per frame.
+     * @param chunk Chunk of entities that match aspect of this system.
+     * @param from First row.
+     * @param to Row after last one.
+     */
+    void process(float tpf, Chunk chunk, int from, int to);
+    
+    @Override
+    default void process(float tpf, Entity entity) {
+        process(tpf, entity.getChunk(), entity.getRow(), entity.getRow() + 1);
+    }
+}
@@ -0,0 +1,193 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+
+import com.ritualsoftheold.exorcism.entity.ChangeTicks;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+
+/**
+ * Containers of one system, in buckets by their {@link UpdateCadence}
+ * interval. A bucket with interval n is split to n phases; containers of
+ * one phase are processed on same tick, so load is spread evenly over
+ * ticks. Containers that are not due are skipped without visiting their
+ * entities.
+ *
+ */
+final class CadenceBuckets {
+
+    /**
+     * Cadence state of one container.
+     */
+    private static final class Slot {
+
+        final EntityContainer container;
+
+        int interval;
+
+        int phase;
+
+        /**
+         * Time when container was last processed.
+         */
+        double lastTime;
+
+        /**
+         * Change tick at end of previous run that processed the container.
+         */
+        int since = ChangeTicks.NEVER;
+
+        long seen;
+
+        Slot(EntityContainer container) {
+            this.container = container;
+        }
+    }
+
+    private final UpdateCadence cadence;
+
+    private final Map<EntityContainer, Slot> slots;
+
+    /**
+     * How many containers there are in each phase, by interval.
+     */
+    private final Map<Integer, int[]> phaseSizes;
+
+    /**
+     * Containers that are due in current tick.
+     */
+    private Slot[] due;
+
+    /**
+     * Time per frame of due containers; time since they were last
+     * processed.
+     */
+    private float[] dueTpf;
+
+    private int dueCount;
+
+    CadenceBuckets(UpdateCadence cadence) {
+        this.cadence = cadence;
+        this.slots = new IdentityHashMap<>();
+        this.phaseSizes = new HashMap<>();
+        this.due = new Slot[16];
+        this.dueTpf = new float[16];
+    }
+
+    /**
+     * Puts containers to buckets and finds ones that are due. Must be
+     * called at a sync point.
+     * @param tick Tick number.
+     * @param time Time at end of current tick.
+     * @param tpf Length of current tick.
+     * @param containers Containers.
+     * @param distances Distances of containers from interest points.
+     */
+    void update(long tick, double time, float tpf, EntityContainer[] containers, float[] distances) {
+        dueCount = 0;
+        for (int i = 0; i < containers.length; i++) {
+            Slot slot = slots.get(containers[i]);
+            if (slot == null) {
+                slot = new Slot(containers[i]);
+                slot.lastTime = time - tpf;
+                slots.put(containers[i], slot);
+            }
+            slot.seen = tick;
+
+            int interval = cadence.intervalAt(distances[i]);
+            if (interval != slot.interval) {
+                if (slot.interval != 0) {
+                    phaseSizes.get(slot.interval)[slot.phase]--;
+                }
+                slot.interval = interval;
+                slot.phase = choosePhase(interval);
+            }
+
+            if (tick % interval == slot.phase) {
+                if (dueCount == due.length) {
+                    due = Arrays.copyOf(due, dueCount * 2);
+                    dueTpf = Arrays.copyOf(dueTpf, dueCount * 2);
+                }
+                due[dueCount] = slot;
+                dueTpf[dueCount] = (float) (time - slot.lastTime);
+                dueCount++;
+                slot.lastTime = time;
+            }
+        }
+
+        // Forget containers that are gone
+        Iterator<Slot> it = slots.values().iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (slot.seen != tick) {
+                phaseSizes.get(slot.interval)[slot.phase]--;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Picks the least used phase of an interval for a container.
+     * @param interval Interval.
+     * @return Phase.
+     */
+    private int choosePhase(int interval) {
+        int[] sizes = phaseSizes.computeIfAbsent(interval, key -> new int[key]);
+        int phase = 0;
+        for (int i = 1; i < interval; i++) {
+            if (sizes[i] < sizes[phase]) {
+                phase = i;
+            }
+        }
+        sizes[phase]++;
+        return phase;
+    }
+
+    /**
+     * Runs a system for entities in containers that are due.
+     * @param system System.
+     * @param aspect Aspect of the system.
+     * @param removed Entities marked for removal are added here.
+     * @return Count of processed entities.
+     */
+    int process(System system, Aspect aspect, Queue<Entity> removed) {
+        int processed = 0;
+        int now = ChangeTicks.current();
+        for (int i = 0; i < dueCount; i++) {
+            Slot slot = due[i];
+            float tpf = dueTpf[i];
+            int since = ChangeTicks.clamp(slot.since, now);
+            for (Entity entity : slot.container.getEntities()) {
+                ComponentSignature signature = entity.getSignature();
+                if (signature == null) {
+                    continue; // Destroyed
+                } else if (entity.isMarkedForRemoval()) {
+                    removed.add(entity);
+                    continue;
+                }
+                if (aspect.matches(signature) && aspect.isChanged(entity, since)) {
+                    system.process(tpf, entity);
+                    processed++;
+                }
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Records that due containers were processed.
+     * @param runTick Change tick at end of the run; changes made during it
+     * are not newer than this.
+     */
+    void processed(int runTick) {
+        for (int i = 0; i < dueCount; i++) {
+            due[i].since = runTick;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+
+/**
+ * Describes which component types a {@link System} reads and writes.
+ * {@link SystemScheduler} uses this to find systems that can run at same
+ * time.
+ *
+ * <p>Access descriptions are immutable. Start from {@link #NONE}:
+ * <pre>
+ * ComponentAccess.NONE.read(VelocityComponent.class).write(PositionComponent.class)
+ * </pre>
+ *
+ */
+public final class ComponentAccess {
+
+    /**
+     * System does not access any components.
+     */
+    public static final ComponentAccess NONE = new ComponentAccess(ComponentSignature.EMPTY,
+            ComponentSignature.EMPTY, false);
+
+    /**
+     * System may read and write anything. It will never run concurrently
+     * with other systems.
+     */
+    public static final ComponentAccess EXCLUSIVE = new ComponentAccess(ComponentSignature.EMPTY,
+            ComponentSignature.EMPTY, true);
+
+    private final ComponentSignature reads;
+
+    private final ComponentSignature writes;
+
+    private final boolean exclusive;
+
+    private ComponentAccess(ComponentSignature reads, ComponentSignature writes, boolean exclusive) {
+        this.reads = reads;
+        this.writes = writes;
+        this.exclusive = exclusive;
+    }
+
+    @SafeVarargs
+    public final ComponentAccess read(Class<? extends Component>... types) {
+        return new ComponentAccess(reads.with(types), writes, exclusive);
+    }
+
+    @SafeVarargs
+    public final ComponentAccess write(Class<? extends Component>... types) {
+        return new ComponentAccess(reads, writes.with(types), exclusive);
+    }
+
+    public ComponentSignature getReads() {
+        return reads;
+    }
+
+    public ComponentSignature getWrites() {
+        return writes;
+    }
+
+    public boolean isExclusive() {
+        return exclusive;
+    }
+
+    /**
+     * Checks if a system with this access may not run concurrently with
+     * a system that has given access. Reading same types is fine;
+     * writing a type that the other reads or writes is not.
+     * @param other Access of another system.
+     * @return Whether there is a hazard.
+     */
+    public boolean conflictsWith(ComponentAccess other) {
+        if (exclusive || other.exclusive) {
+            return true;
+        }
+        return writes.intersects(other.writes) || writes.intersects(other.reads)
+                || reads.intersects(other.writes);
+    }
+}
@@ -2,9 +2,28 @@ package com.ritualsoftheold.exorcism.entity.system;
 
 import java.util.Iterator;
 
-import com.ritualsoftheold.common.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.EntityStorage;
+import com.ritualsoftheold.exorcism.util.ConcurrentLinkedArray;
 
+/**
+ * Runs systems for entities. Structural changes that systems record to
+ * command buffers during processing are not applied by iterators; caller
+ * should apply them with {@link EntityStorage#applyCommands()} once
+ * iteration has finished.
+ *
+ */
 public interface EntityIterator {
     
     void process(float tpf, Iterator<Entity> entities);
+    
+    /**
+     * Processes entities stored in a concurrent array. Iterators that can
+     * split the work between threads should override this.
+     * @param tpf Time per frame.
+     * @param entities Entities to process.
+     */
+    default void process(float tpf, ConcurrentLinkedArray<Entity> entities) {
+        process(tpf, entities.iterator());
+    }
 }
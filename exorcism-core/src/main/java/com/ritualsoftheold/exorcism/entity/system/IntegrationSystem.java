@@ -0,0 +1,101 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.nio.FloatBuffer;
+
+import com.ritualsoftheold.exorcism.entity.Chunk;
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.component.StructColumn;
+import com.ritualsoftheold.exorcism.entity.component.StructLayout;
+import com.ritualsoftheold.exorcism.entity.component.VelocityComponent;
+
+/**
+ * Moves entities by their velocities. This is a reference
+ * {@link BulkSystem}: when both components are stored off-heap, each
+ * coordinate is integrated over whole range of rows in one loop.
+ * Otherwise, rows are processed one at a time.
+ *
+ */
+public class IntegrationSystem implements BulkSystem {
+
+    private static final StructLayout positionLayout = StructLayout.of(PositionComponent.class);
+    private static final StructLayout velocityLayout = StructLayout.of(VelocityComponent.class);
+
+    private static final int xField = positionLayout.indexOf("x");
+    private static final int yField = positionLayout.indexOf("y");
+    private static final int zField = positionLayout.indexOf("z");
+
+    private static final int vxField = velocityLayout.indexOf("x");
+    private static final int vyField = velocityLayout.indexOf("y");
+    private static final int vzField = velocityLayout.indexOf("z");
+
+    private static final Aspect aspect = Aspect.ANY.require(PositionComponent.class, VelocityComponent.class);
+
+    private static final ComponentAccess access = ComponentAccess.NONE.read(VelocityComponent.class)
+            .write(PositionComponent.class);
+
+    @Override
+    public Aspect getAspect() {
+        return aspect;
+    }
+
+    @Override
+    public ComponentAccess getAccess() {
+        return access;
+    }
+
+    @Override
+    public void process(float tpf, Chunk chunk, int from, int to) {
+        int column = chunk.getArchetype().indexOf(PositionComponent.class);
+        StructColumn positions = chunk.getStructColumn(column);
+        StructColumn velocities = chunk.getStructColumn(VelocityComponent.class);
+        if (positions != null && velocities != null) {
+            integrate(positions.getFloatField(xField), velocities.getFloatField(vxField), tpf, from, to);
+            integrate(positions.getFloatField(yField), velocities.getFloatField(vyField), tpf, from, to);
+            integrate(positions.getFloatField(zField), velocities.getFloatField(vzField), tpf, from, to);
+        } else {
+            PositionComponent[] heapPositions = chunk.getColumn(PositionComponent.class);
+            VelocityComponent[] heapVelocities = chunk.getColumn(VelocityComponent.class);
+            for (int row = from; row < to; row++) {
+                float vx, vy, vz;
+                if (velocities != null) {
+                    vx = velocities.getFloat(vxField, row);
+                    vy = velocities.getFloat(vyField, row);
+                    vz = velocities.getFloat(vzField, row);
+                } else {
+                    VelocityComponent velocity = heapVelocities[row];
+                    vx = velocity.x;
+                    vy = velocity.y;
+                    vz = velocity.z;
+                }
+
+                if (positions != null) {
+                    positions.setFloat(xField, row, positions.getFloat(xField, row) + vx * tpf);
+                    positions.setFloat(yField, row, positions.getFloat(yField, row) + vy * tpf);
+                    positions.setFloat(zField, row, positions.getFloat(zField, row) + vz * tpf);
+                } else {
+                    PositionComponent position = heapPositions[row];
+                    position.x += vx * tpf;
+                    position.y += vy * tpf;
+                    position.z += vz * tpf;
+                }
+            }
+        }
+        chunk.markRangeChanged(column, from, to);
+    }
+
+    /**
+     * Adds velocity multiplied by time to a coordinate, for a range of
+     * rows. The loop has no calls or branches, so the JIT compiler can
+     * unroll it.
+     * @param position Coordinates.
+     * @param velocity Velocities along the same axis.
+     * @param tpf Time per frame.
+     * @param from First row.
+     * @param to Row after last one.
+     */
+    public static void integrate(FloatBuffer position, FloatBuffer velocity, float tpf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            position.put(i, position.get(i) + velocity.get(i) * tpf);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.Arrays;
+
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+
+/**
+ * Points that entities near them should be updated often, e.g. positions
+ * of players. {@link UpdateCadence}s are chosen by distance of containers
+ * from nearest point.
+ *
+ * <p>Points should be changed only between ticks, usually by
+ * {@link #clear() clearing} them and adding current positions again.
+ * If there are no points, all entities are considered to be near.
+ *
+ */
+public final class InterestPoints {
+
+    /**
+     * Coordinates of points, three per point.
+     */
+    private float[] coords;
+
+    private int size;
+
+    public InterestPoints() {
+        this.coords = new float[3 * 8];
+    }
+
+    /**
+     * Adds a point.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     * @return Index of the point.
+     */
+    public int add(float x, float y, float z) {
+        if ((size + 1) * 3 > coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        int index = size++;
+        set(index, x, y, z);
+        return index;
+    }
+
+    /**
+     * Moves a point.
+     * @param index Index of the point.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @param z Z coordinate.
+     */
+    public void set(int index, float x, float y, float z) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("no interest point " + index);
+        }
+        coords[index * 3] = x;
+        coords[index * 3 + 1] = y;
+        coords[index * 3 + 2] = z;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Gets distance from nearest point to a container. Container is a cube
+     * with side length of its scale, centered on its coordinates; points
+     * inside it are at distance zero.
+     * @param container Container.
+     * @return Distance, or zero if there are no points.
+     */
+    public float distanceTo(EntityContainer container) {
+        if (size == 0) {
+            return 0;
+        }
+        float half = container.scale / 2;
+        float nearest = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < size * 3; i += 3) {
+            float dx = Math.max(Math.abs(coords[i] - container.x) - half, 0);
+            float dy = Math.max(Math.abs(coords[i + 1] - container.y) - half, 0);
+            float dz = Math.max(Math.abs(coords[i + 2] - container.z) - half, 0);
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return (float) Math.sqrt(nearest);
+    }
+}
@@ -0,0 +1,127 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.util.ConcurrentLinkedArray;
+
+/**
+ * Entity iterator that processes backing arrays of a
+ * {@link ConcurrentLinkedArray} in parallel on a fork-join pool. Idle
+ * workers steal arrays from busy ones.
+ *
+ * <p>Systems are given to iterator as a collection, but it is copied; later
+ * changes to it are not seen.
+ *
+ * <p>Systems are run concurrently for different entities, so they must not
+ * make structural changes (add or remove components) to entities. They
+ * should record them to {@link com.ritualsoftheold.exorcism.entity.CommandBuffer}
+ * of calling thread instead.
+ * Entities that are marked for removal are dropped from the array by the
+ * workers, but they are destroyed on the thread that called
+ * {@link #process(float, ConcurrentLinkedArray)}, because entity storage
+ * is not thread safe.
+ *
+ */
+public class ParallelIterator implements EntityIterator {
+
+    private final SystemList systems;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Entities removed during current process call.
+     */
+    private final Queue<Entity> removed;
+
+    public ParallelIterator(Collection<System> systems, ForkJoinPool pool) {
+        this.systems = new SystemList(systems);
+        this.pool = pool;
+        this.removed = new ConcurrentLinkedQueue<>();
+    }
+
+    public ParallelIterator(Collection<System> systems) {
+        this(systems, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Plain iterators can't be split, so they are processed on calling
+     * thread.
+     */
+    @Override
+    public void process(float tpf, Iterator<Entity> entities) {
+        systems.begin();
+        while (entities.hasNext()) {
+            Entity entity = entities.next();
+            if (entity.isMarkedForRemoval()) {
+                entities.remove();
+                entity.destroy();
+                continue;
+            }
+
+            systems.process(tpf, entity);
+        }
+        systems.end();
+    }
+
+    @Override
+    public void process(float tpf, ConcurrentLinkedArray<Entity> entities) {
+        systems.begin();
+        pool.invoke(new ArrayTask(tpf, entities.spliterator()));
+        systems.end();
+
+        // Destroy removed entities here, storage is not thread safe
+        Entity entity;
+        while ((entity = removed.poll()) != null) {
+            entity.destroy();
+        }
+    }
+
+    private class ArrayTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final float tpf;
+
+        private final ConcurrentLinkedArray<Entity>.ArraySpliterator entities;
+
+        ArrayTask(float tpf, ConcurrentLinkedArray<Entity>.ArraySpliterator entities) {
+            this.tpf = tpf;
+            this.entities = entities;
+        }
+
+        @Override
+        protected void compute() {
+            // Fork off everything but one array, so others can steal them
+            List<ArrayTask> forked = new ArrayList<>();
+            ConcurrentLinkedArray<Entity>.ArraySpliterator split;
+            while ((split = entities.trySplit()) != null) {
+                ArrayTask task = new ArrayTask(tpf, split);
+                task.fork();
+                forked.add(task);
+            }
+
+            // Process our own array
+            entities.retainRemaining(entity -> {
+                if (entity.isMarkedForRemoval()) {
+                    removed.add(entity);
+                    return false;
+                }
+
+                systems.process(tpf, entity);
+                return true;
+            });
+
+            for (ArrayTask task : forked) {
+                task.join();
+            }
+        }
+    }
+}
@@ -3,29 +3,35 @@ package com.ritualsoftheold.exorcism.entity.system;
 import java.util.Collection;
 import java.util.Iterator;
 
-import com.ritualsoftheold.common.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.Entity;
 
+/**
+ * Entity iterator that runs systems for entities one by one on calling
+ * thread. Systems are only called for entities that match their aspects.
+ *
+ */
 public class SimpleIterator implements EntityIterator {
 
-    private Collection<System> systems;
+    private final SystemList systems;
     
     public SimpleIterator(Collection<System> systems) {
-        this.systems = systems;
+        this.systems = new SystemList(systems);
     }
     
     @Override
     public void process(float tpf, Iterator<Entity> entities) {
+        systems.begin();
         while (entities.hasNext()) {
             Entity entity = entities.next();
             if (entity.isMarkedForRemoval()) {
                 entities.remove();
+                entity.destroy();
                 continue;
             }
             
-            for (System system : systems) {
-                system.process(tpf, entity);
-            }
+            systems.process(tpf, entity);
         }
+        systems.end();
     }
 
 }
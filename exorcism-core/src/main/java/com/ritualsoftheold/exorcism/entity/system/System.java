@@ -1,8 +1,40 @@
 package com.ritualsoftheold.exorcism.entity.system;
 
-import com.ritualsoftheold.common.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.Entity;
 
 public interface System {
     
     void process(float tpf, Entity entity);
+    
+    /**
+     * Gets which entities this system wants to process. Entity iterators
+     * don't call {@link #process(float, Entity)} for entities that don't
+     * match it. The aspect must not change after system has been given
+     * to an iterator.
+     * @return Aspect of this system.
+     */
+    default Aspect getAspect() {
+        return Aspect.ANY;
+    }
+    
+    /**
+     * Gets which components this system reads and writes.
+     * {@link SystemScheduler} runs systems concurrently when their accesses
+     * don't conflict. By default, systems are assumed to access everything.
+     * @return Component access of this system.
+     */
+    default ComponentAccess getAccess() {
+        return ComponentAccess.EXCLUSIVE;
+    }
+    
+    /**
+     * Gets how often this system processes entities, by their distance
+     * from interest points. {@link SystemScheduler} that has been given
+     * containers processes systems that don't update every tick only for
+     * entities in those containers. Other iterators ignore cadences.
+     * @return Update cadence of this system.
+     */
+    default UpdateCadence getCadence() {
+        return UpdateCadence.EVERY_TICK;
+    }
 }
@@ -0,0 +1,92 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.Collection;
+
+import com.ritualsoftheold.exorcism.entity.component.ComponentSignature;
+import com.ritualsoftheold.exorcism.entity.ChangeTicks;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.metrics.Metrics;
+import com.ritualsoftheold.exorcism.metrics.SystemMetrics;
+
+/**
+ * Systems and their aspects in arrays, so that entity iterators can test
+ * entity signatures without calling into systems.
+ *
+ */
+final class SystemList {
+
+    private final System[] systems;
+
+    private final Aspect[] aspects;
+
+    /**
+     * Change tick at end of previous run of systems. Changes made during
+     * that run are not newer than it, so systems don't see their own
+     * changes.
+     */
+    private int lastRun = ChangeTicks.NEVER;
+
+    /**
+     * Metrics of systems, or null if metrics were disabled when current
+     * run began.
+     */
+    private SystemMetrics[] metrics;
+
+    SystemList(Collection<System> systems) {
+        this.systems = systems.toArray(new System[0]);
+        this.aspects = new Aspect[this.systems.length];
+        for (int i = 0; i < aspects.length; i++) {
+            aspects[i] = this.systems[i].getAspect();
+        }
+    }
+
+    /**
+     * Starts a new run of systems. Changes made after previous run ended are
+     * visible to change-filtered systems in this run.
+     */
+    void begin() {
+        lastRun = ChangeTicks.clamp(lastRun, ChangeTicks.current());
+
+        if (Metrics.isEnabled()) {
+            metrics = new SystemMetrics[systems.length];
+            for (int i = 0; i < systems.length; i++) {
+                metrics[i] = Metrics.forSystem(systems[i]);
+            }
+        } else {
+            metrics = null;
+        }
+    }
+
+    /**
+     * Ends current run of systems. Changes made during it are not visible
+     * in next run, so systems don't see their own changes.
+     */
+    void end() {
+        lastRun = ChangeTicks.advance();
+        if (metrics != null) {
+            for (SystemMetrics m : metrics) {
+                m.endTick();
+            }
+        }
+    }
+
+    /**
+     * Runs all systems that are interested in given entity.
+     * @param tpf Time per frame.
+     * @param entity Entity to process.
+     */
+    void process(float tpf, Entity entity) {
+        ComponentSignature signature = entity.getSignature();
+        for (int i = 0; i < systems.length; i++) {
+            if (aspects[i].matches(signature) && aspects[i].isChanged(entity, lastRun)) {
+                if (metrics != null) {
+                    long start = java.lang.System.nanoTime();
+                    systems[i].process(tpf, entity);
+                    metrics[i].add(java.lang.System.nanoTime() - start);
+                } else {
+                    systems[i].process(tpf, entity);
+                }
+            }
+        }
+    }
+}
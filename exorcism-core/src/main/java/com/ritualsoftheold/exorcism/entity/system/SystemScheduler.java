@@ -0,0 +1,614 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ritualsoftheold.exorcism.entity.Archetype;
+import com.ritualsoftheold.exorcism.entity.ChangeTicks;
+import com.ritualsoftheold.exorcism.entity.Chunk;
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.EntityContainer;
+import com.ritualsoftheold.exorcism.entity.EntityStorage;
+import com.ritualsoftheold.exorcism.metrics.Metrics;
+import com.ritualsoftheold.exorcism.util.EventChannel;
+
+/**
+ * Runs systems over an {@link EntityStorage}, concurrently where their
+ * {@link ComponentAccess} allows it.
+ *
+ * <p>Systems are ordered by a dependency graph. If two systems conflict
+ * (one writes something the other reads or writes), the one that was added
+ * first runs first. Explicit ordering constraints can be given with
+ * {@link #order(System, System)}; they override registration order, also
+ * for hazards between systems that are not directly constrained.
+ * A system starts as soon as all systems it depends on are done, so
+ * there is no barrier between systems that have no hazards.
+ *
+ * <p>Each system processes all entities that match its aspect by itself.
+ * {@link BulkSystem}s are given runs of rows in chunks instead of single
+ * entities.
+ * Structural changes to entities are not allowed while systems run.
+ * Entities that systems come across that are marked for removal are
+ * removed from their containers and destroyed after the run.
+ *
+ * <p>If scheduler has been given {@link #setContainers(Collection,
+ * InterestPoints) containers}, systems whose {@link UpdateCadence} skips
+ * ticks process only entities of containers that are due on current tick.
+ * Time per frame given to them is time since their container was last
+ * processed.
+ *
+ * <p>Systems can talk to each other through {@link EventChannel}s. Events
+ * published during a run can be read in the next one.
+ *
+ */
+public class SystemScheduler {
+
+    private final Executor executor;
+
+    private final List<System> systems;
+
+    /**
+     * Explicit ordering constraints, as pairs of (before, after).
+     */
+    private final List<System[]> orderings;
+
+    /**
+     * Event channels that are swapped after each run.
+     */
+    private final List<EventChannel<?>> channels;
+
+    /**
+     * Entities marked for removal that were found during current run.
+     */
+    private final Queue<Entity> removed;
+
+    /**
+     * Dependency graph, or null if it needs to be rebuilt.
+     */
+    private Node[] graph;
+
+    /**
+     * Containers for systems that don't update every tick, or null.
+     */
+    private Collection<EntityContainer> containers;
+
+    private InterestPoints interest;
+
+    private long ticks;
+
+    /**
+     * Sum of time per frame of all runs.
+     */
+    private double time;
+
+    public SystemScheduler(Executor executor) {
+        this.executor = executor;
+        this.systems = new ArrayList<>();
+        this.orderings = new ArrayList<>();
+        this.channels = new ArrayList<>();
+        this.removed = new ConcurrentLinkedQueue<>();
+    }
+
+    public SystemScheduler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    private static class Node {
+
+        final System system;
+
+        final Aspect aspect;
+
+        final ComponentAccess access;
+
+        /**
+         * Containers by cadence, or null if system updates every tick.
+         */
+        final CadenceBuckets buckets;
+
+        /**
+         * Change tick at end of previous run of this system.
+         */
+        int lastRun = ChangeTicks.NEVER;
+
+        /**
+         * Indices of systems that must wait for this.
+         */
+        int[] successors;
+
+        /**
+         * How many systems this must wait for.
+         */
+        int predecessors;
+
+        Node(System system) {
+            this.system = system;
+            this.aspect = system.getAspect();
+            this.access = system.getAccess();
+            UpdateCadence cadence = system.getCadence();
+            this.buckets = cadence.isEveryTick() ? null : new CadenceBuckets(cadence);
+        }
+    }
+
+    public void add(System system) {
+        systems.add(system);
+        graph = null;
+    }
+
+    public void addAll(Collection<System> systems) {
+        for (System system : systems) {
+            add(system);
+        }
+    }
+
+    /**
+     * Adds an event channel that systems use. It will be swapped after each
+     * run, so events published in a run can be read during next one.
+     * @param channel Event channel.
+     */
+    public void addChannel(EventChannel<?> channel) {
+        channels.add(channel);
+    }
+
+    /**
+     * Gives containers whose entities systems that don't update every tick
+     * process. Both are used by reference; they may change between runs.
+     * @param containers Containers, or null to process all entities every
+     * tick.
+     * @param interest Interest points that cadences are based on.
+     */
+    public void setContainers(Collection<EntityContainer> containers, InterestPoints interest) {
+        this.containers = containers;
+        this.interest = interest;
+    }
+
+    /**
+     * Requires a system to be run before another, even if they don't
+     * conflict.
+     * @param before System that must run first.
+     * @param after System that must run after it.
+     */
+    public void order(System before, System after) {
+        orderings.add(new System[] {before, after});
+        graph = null;
+    }
+
+    private Node[] buildGraph() {
+        int count = systems.size();
+        Node[] nodes = new Node[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = new Node(systems.get(i));
+        }
+
+        // Explicit edges first, they decide direction of hazards too
+        boolean[][] edges = new boolean[count][count];
+        for (System[] pair : orderings) {
+            int before = systems.indexOf(pair[0]);
+            int after = systems.indexOf(pair[1]);
+            if (before == -1 || after == -1) {
+                throw new IllegalStateException("ordered system not added to scheduler");
+            }
+            edges[before][after] = true;
+        }
+
+        // Hazards between systems go along the explicit order, so they
+        // can never form a cycle through it
+        int[] rank = explicitOrder(edges);
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (nodes[i].access.conflictsWith(nodes[j].access)) {
+                    if (rank[i] < rank[j]) {
+                        edges[i][j] = true;
+                    } else {
+                        edges[j][i] = true;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int successors = 0;
+            for (int j = 0; j < count; j++) {
+                if (edges[i][j]) {
+                    successors++;
+                    nodes[j].predecessors++;
+                }
+            }
+            int[] list = new int[successors];
+            successors = 0;
+            for (int j = 0; j < count; j++) {
+                if (edges[i][j]) {
+                    list[successors++] = j;
+                }
+            }
+            nodes[i].successors = list;
+        }
+
+        return nodes;
+    }
+
+    /**
+     * Sorts systems topologically by explicit ordering constraints. When
+     * several systems could go next, earliest registered is picked.
+     * @param edges Explicit edges, from before to after.
+     * @return Position of each system in the order.
+     * @throws IllegalStateException If constraints have a cycle.
+     */
+    private static int[] explicitOrder(boolean[][] edges) {
+        int count = edges.length;
+        int[] pending = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                if (edges[i][j]) {
+                    pending[j]++;
+                }
+            }
+        }
+
+        int[] rank = new int[count];
+        boolean[] placed = new boolean[count];
+        for (int position = 0; position < count; position++) {
+            int next = 0;
+            while (next < count && (placed[next] || pending[next] != 0)) {
+                next++;
+            }
+            if (next == count) {
+                throw new IllegalStateException("system ordering constraints have a cycle");
+            }
+            placed[next] = true;
+            rank[next] = position;
+            for (int j = 0; j < count; j++) {
+                if (edges[next][j]) {
+                    pending[j]--;
+                }
+            }
+        }
+        return rank;
+    }
+
+    private Node[] graph() {
+        if (graph == null) {
+            graph = buildGraph();
+        }
+        return graph;
+    }
+
+    /**
+     * Groups systems to phases. Systems in one phase never depend on each
+     * other. Scheduler does not wait for whole phases to complete, but
+     * this is useful for seeing how much parallelism there is.
+     * @return Systems, by phase.
+     */
+    public List<List<System>> getPhases() {
+        return getPhases(graph());
+    }
+
+    private static List<List<System>> getPhases(Node[] nodes) {
+        int[] pending = new int[nodes.length];
+        List<Integer> ready = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            pending[i] = nodes[i].predecessors;
+            if (pending[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        List<List<System>> phases = new ArrayList<>();
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            List<System> phase = new ArrayList<>();
+            List<Integer> next = new ArrayList<>();
+            for (int i : ready) {
+                phase.add(nodes[i].system);
+                for (int successor : nodes[i].successors) {
+                    if (--pending[successor] == 0) {
+                        next.add(successor);
+                    }
+                }
+            }
+            visited += phase.size();
+            phases.add(phase);
+            ready = next;
+        }
+
+        if (visited != nodes.length) {
+            throw new IllegalStateException("system ordering constraints have a cycle");
+        }
+        return phases;
+    }
+
+    /**
+     * Runs all systems once and waits for them to complete. After that,
+     * entities marked for removal are destroyed, structural changes that
+     * systems recorded to command buffers are applied and event channels
+     * are swapped.
+     * @param tpf Time per frame.
+     * @param storage Storage with entities to process.
+     */
+    public void run(float tpf, EntityStorage storage) {
+        Node[] nodes = graph();
+        storage.clampChangeTicks();
+        ticks++;
+        time += tpf;
+        if (containers != null) {
+            updateBuckets(nodes, tpf);
+        }
+        if (nodes.length != 0) {
+            Archetype[] archetypes = storage.getArchetypes().toArray(new Archetype[0]);
+            try {
+                new Run(nodes, tpf, archetypes).start();
+            } finally {
+                destroyRemoved();
+            }
+        }
+        storage.applyCommands();
+        for (EventChannel<?> channel : channels) {
+            channel.swap();
+        }
+    }
+
+    /**
+     * Destroys entities that were found to be marked for removal. Done
+     * here, because entity storage is not thread safe.
+     */
+    private void destroyRemoved() {
+        Entity entity;
+        while ((entity = removed.poll()) != null) {
+            EntityContainer container = entity.getContainer();
+            if (container != null) {
+                container.removeEntity(entity);
+            }
+            entity.destroy(); // Does nothing if already destroyed
+        }
+    }
+
+    /**
+     * Puts containers to buckets of systems that don't update every tick.
+     * @param nodes Systems.
+     * @param tpf Time per frame.
+     */
+    private void updateBuckets(Node[] nodes, float tpf) {
+        EntityContainer[] array = null;
+        float[] distances = null;
+        for (Node node : nodes) {
+            if (node.buckets == null) {
+                continue;
+            }
+            if (array == null) { // Distances are same for all systems
+                array = containers.toArray(new EntityContainer[0]);
+                distances = new float[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    distances[i] = interest.distanceTo(array[i]);
+                }
+            }
+            node.buckets.update(ticks, time, tpf, array, distances);
+        }
+    }
+
+    /**
+     * State of one {@link #run(float, EntityStorage)} call.
+     */
+    private class Run {
+
+        private final Node[] nodes;
+
+        private final float tpf;
+
+        private final Archetype[] archetypes;
+
+        private final AtomicIntegerArray pending;
+
+        private final CountDownLatch done;
+
+        private final AtomicReference<Throwable> error;
+
+        Run(Node[] nodes, float tpf, Archetype[] archetypes) {
+            this.nodes = nodes;
+            this.tpf = tpf;
+            this.archetypes = archetypes;
+            this.pending = new AtomicIntegerArray(nodes.length);
+            this.done = new CountDownLatch(nodes.length);
+            this.error = new AtomicReference<>();
+        }
+
+        void start() {
+            for (int i = 0; i < nodes.length; i++) {
+                pending.set(i, nodes[i].predecessors);
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i].predecessors == 0) {
+                    submit(i);
+                }
+            }
+
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for systems", e);
+            }
+
+            Throwable e = error.get();
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void submit(int index) {
+            try {
+                executor.execute(() -> execute(index));
+            } catch (RejectedExecutionException e) {
+                // Skip the system, but release its successors so that run ends
+                error.compareAndSet(null, e);
+                execute(index);
+            }
+        }
+
+        private void execute(int index) {
+            Node node = nodes[index];
+            try {
+                if (error.get() == null) { // Don't run more systems after failure
+                    if (Metrics.isEnabled()) {
+                        long start = java.lang.System.nanoTime();
+                        int count = process(node);
+                        Metrics.forSystem(node.system).record(java.lang.System.nanoTime() - start, count);
+                    } else {
+                        process(node);
+                    }
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            } finally {
+                // Release systems that waited for this
+                for (int successor : node.successors) {
+                    if (pending.decrementAndGet(successor) == 0) {
+                        submit(successor);
+                    }
+                }
+                done.countDown();
+            }
+        }
+
+        /**
+         * Runs a system for entities that it should process in this run.
+         * @param node System.
+         * @return Count of processed entities.
+         */
+        private int process(Node node) {
+            int since = ChangeTicks.clamp(node.lastRun, ChangeTicks.current());
+            boolean cadenced = node.buckets != null && containers != null;
+            try {
+                if (cadenced) {
+                    return node.buckets.process(node.system, node.aspect, removed);
+                }
+                return processMatching(tpf, node.system, node.aspect, since, archetypes, removed);
+            } finally {
+                // Changes made by the system are not newer than this, so
+                // it does not see them on its next run
+                node.lastRun = ChangeTicks.advance();
+                if (cadenced) {
+                    node.buckets.processed(node.lastRun);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a system for all entities in archetypes that match its aspect.
+     * @param tpf Time per frame.
+     * @param system System to run.
+     * @param aspect Aspect of the system.
+     * @param since Change tick of previous run of the system.
+     * @param archetypes Archetypes to go through.
+     * @param removed Entities marked for removal are added here.
+     * @return Count of processed entities.
+     */
+    static int processMatching(float tpf, System system, Aspect aspect, int since, Archetype[] archetypes,
+            Queue<Entity> removed) {
+        BulkSystem bulk = system instanceof BulkSystem ? (BulkSystem) system : null;
+        int processed = 0;
+        for (Archetype archetype : archetypes) {
+            if (!aspect.matches(archetype)) {
+                continue; // Whole archetype skipped with one test
+            }
+
+            int[] changed = aspect.isChangeFiltered() ? aspect.changedColumns(archetype) : null;
+            for (int i = 0; i < archetype.getChunkCount(); i++) {
+                Chunk chunk = archetype.getChunk(i);
+                if (changed != null && !isChanged(chunk, changed, since)) {
+                    continue; // Nothing changed in whole chunk
+                }
+                if (bulk != null) {
+                    processed += processRuns(tpf, bulk, chunk, changed, since, removed);
+                    continue;
+                }
+                for (int row = 0; row < chunk.size(); row++) {
+                    if (changed != null && !isChanged(chunk, changed, row, since)) {
+                        continue;
+                    }
+                    Entity entity = chunk.getEntity(row);
+                    if (!entity.isMarkedForRemoval()) {
+                        system.process(tpf, entity);
+                        processed++;
+                    } else {
+                        removed.add(entity);
+                    }
+                }
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Runs a bulk system for runs of consecutive rows in a chunk that
+     * should be processed.
+     * @param tpf Time per frame.
+     * @param system Bulk system.
+     * @param chunk Chunk.
+     * @param changed Columns of change filter, or null.
+     * @param since Change tick of previous run of the system.
+     * @param removed Entities marked for removal are added here.
+     * @return Count of processed entities.
+     */
+    private static int processRuns(float tpf, BulkSystem system, Chunk chunk, int[] changed, int since,
+            Queue<Entity> removed) {
+        int processed = 0;
+        int size = chunk.size();
+        int from = 0;
+        while (from < size) {
+            while (from < size && !isIncluded(chunk, changed, from, since)) {
+                Entity entity = chunk.getEntity(from);
+                if (entity.isMarkedForRemoval()) {
+                    removed.add(entity);
+                }
+                from++;
+            }
+            int to = from;
+            while (to < size && isIncluded(chunk, changed, to, since)) {
+                to++;
+            }
+            if (from < to) {
+                system.process(tpf, chunk, from, to);
+                processed += to - from;
+            }
+            from = to;
+        }
+        return processed;
+    }
+
+    private static boolean isIncluded(Chunk chunk, int[] changed, int row, int since) {
+        return !chunk.getEntity(row).isMarkedForRemoval()
+                && (changed == null || isChanged(chunk, changed, row, since));
+    }
+
+    private static boolean isChanged(Chunk chunk, int[] columns, int since) {
+        for (int column : columns) {
+            if (chunk.isColumnChangedSince(column, since)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isChanged(Chunk chunk, int[] columns, int row, int since) {
+        for (int column : columns) {
+            if (ChangeTicks.isNewer(chunk.getChangeTick(column, row), since)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import java.util.Arrays;
+
+/**
+ * Describes how often a {@link System} processes entities, by distance of
+ * their container from nearest {@link InterestPoints interest point}.
+ * Entities that skip ticks get time of all skipped ticks as time per frame
+ * when they are processed next time.
+ *
+ * <p>Cadences are immutable. Start from {@link #EVERY_TICK} and add
+ * distance bands:
+ * <pre>
+ * UpdateCadence.EVERY_TICK.beyond(64, 2).beyond(256, 8)
+ * </pre>
+ * processes entities closer than 64 units every tick, ones closer than 256
+ * every 2nd tick and others every 8th tick.
+ *
+ */
+public final class UpdateCadence {
+
+    /**
+     * Entities are processed every tick, regardless of distance.
+     */
+    public static final UpdateCadence EVERY_TICK = new UpdateCadence(new float[0], new int[0]);
+
+    /**
+     * Distances where bands start, in ascending order.
+     */
+    private final float[] distances;
+
+    /**
+     * Tick intervals of bands.
+     */
+    private final int[] intervals;
+
+    private UpdateCadence(float[] distances, int[] intervals) {
+        this.distances = distances;
+        this.intervals = intervals;
+    }
+
+    /**
+     * Creates a cadence that processes entities at given distance and
+     * farther only every nth tick.
+     * @param distance Distance where the band starts. Must be greater than
+     * distances of previous bands.
+     * @param interval Ticks between updates; 1 means every tick.
+     * @return A new cadence.
+     */
+    public UpdateCadence beyond(float distance, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        int count = distances.length;
+        if (count > 0 && distance <= distances[count - 1]) {
+            throw new IllegalArgumentException("bands must be given in ascending order of distance");
+        }
+        float[] newDistances = Arrays.copyOf(distances, count + 1);
+        int[] newIntervals = Arrays.copyOf(intervals, count + 1);
+        newDistances[count] = distance;
+        newIntervals[count] = interval;
+        return new UpdateCadence(newDistances, newIntervals);
+    }
+
+    /**
+     * Gets tick interval at a distance.
+     * @param distance Distance from nearest interest point.
+     * @return Ticks between updates.
+     */
+    public int intervalAt(float distance) {
+        int interval = 1;
+        for (int i = 0; i < distances.length && distance >= distances[i]; i++) {
+            interval = intervals[i];
+        }
+        return interval;
+    }
+
+    /**
+     * Checks if this cadence processes entities every tick at all
+     * distances.
+     * @return Whether this is same as {@link #EVERY_TICK}.
+     */
+    public boolean isEveryTick() {
+        for (int interval : intervals) {
+            if (interval != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
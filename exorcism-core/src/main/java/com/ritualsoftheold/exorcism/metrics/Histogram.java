@@ -0,0 +1,122 @@
+package com.ritualsoftheold.exorcism.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative long values, such as latencies in nanoseconds.
+ * Values are counted in log-linear buckets like in HdrHistogram: each
+ * power of two is split to 64 sub-buckets, so percentiles are accurate to
+ * about 1.6% with fixed memory use.
+ *
+ * <p>Values can be recorded concurrently from many threads.
+ *
+ */
+public class Histogram {
+    
+    /**
+     * Bits of precision within one power of two.
+     */
+    private static final int subBucketBits = 7;
+    
+    private static final int subBucketHalf = 1 << (subBucketBits - 1);
+    
+    private static final int bucketCount = 64 - subBucketBits + 1;
+    
+    private final AtomicLongArray counts;
+    
+    private final LongAdder count;
+    
+    private final LongAdder sum;
+    
+    private final LongAccumulator max;
+    
+    public Histogram() {
+        this.counts = new AtomicLongArray((bucketCount + 1) * subBucketHalf);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+    
+    private static int indexOf(long value) {
+        int bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - subBucketBits);
+        int subBucket = (int) (value >>> bucket);
+        return bucket * subBucketHalf + subBucket;
+    }
+    
+    /**
+     * Gets highest value that is counted to same index.
+     * @param index Index in counts.
+     * @return Highest value.
+     */
+    private static long highestValueAt(int index) {
+        int bucket = Math.max(0, index / subBucketHalf - 1);
+        long subBucket = index - bucket * subBucketHalf;
+        return (subBucket << bucket) + (1L << bucket) - 1;
+    }
+    
+    /**
+     * Records a value.
+     * @param value Value, negative values are counted as zero.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+    
+    /**
+     * Gets value at given percentile. Result is highest value that is
+     * equivalent to the actual value within precision of this histogram.
+     * @param percentile Percentile between 0 and 100.
+     * @return Value, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    /**
+     * Clears all recorded values. Values that are recorded concurrently may
+     * or may not be cleared.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,144 @@
+package com.ritualsoftheold.exorcism.metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Emits JDK Flight Recorder events. Event types are defined at runtime
+ * with {@code jdk.jfr.EventFactory}, through reflection, so that this
+ * compiles and runs on JDKs that don't have Flight Recorder; there events
+ * are just not emitted.
+ *
+ */
+final class JfrEvents {
+    
+    private static final MethodHandle set;
+    private static final MethodHandle commit;
+    private static final MethodHandle shouldCommit;
+    
+    /**
+     * Creates system tick events: system name, tick time, entity count.
+     */
+    private static final MethodHandle newSystemTick;
+    
+    /**
+     * Creates compaction events: compacted arrays, live entries.
+     */
+    private static final MethodHandle newCompaction;
+    
+    static {
+        MethodHandle setHandle = null;
+        MethodHandle commitHandle = null;
+        MethodHandle shouldCommitHandle = null;
+        MethodHandle systemTick = null;
+        MethodHandle compaction = null;
+        try {
+            Class<?> eventType = Class.forName("jdk.jfr.Event");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            setHandle = lookup.findVirtual(eventType, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commitHandle = lookup.findVirtual(eventType, "commit", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            shouldCommitHandle = lookup.findVirtual(eventType, "shouldCommit", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            
+            systemTick = eventFactory("exorcism.SystemTick", "System Tick",
+                    field(String.class, "system", "System", null),
+                    field(long.class, "tickTime", "Tick Time", "NANOSECONDS"),
+                    field(int.class, "entities", "Entities", null));
+            compaction = eventFactory("exorcism.Compaction", "Array Compaction",
+                    field(int.class, "arrays", "Compacted Arrays", null),
+                    field(int.class, "entries", "Live Entries", null));
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // No Flight Recorder in this JDK
+            systemTick = null;
+            compaction = null;
+        }
+        set = setHandle;
+        commit = commitHandle;
+        shouldCommit = shouldCommitHandle;
+        newSystemTick = systemTick;
+        newCompaction = compaction;
+    }
+    
+    private JfrEvents() {}
+    
+    private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+        Class<?> elementType = Class.forName("jdk.jfr.AnnotationElement");
+        Class<? extends Annotation> annotationType = Class.forName(type).asSubclass(Annotation.class);
+        return elementType.getConstructor(Class.class, Object.class).newInstance(annotationType, value);
+    }
+    
+    private static Object field(Class<?> type, String name, String label, String timespan)
+            throws ReflectiveOperationException {
+        List<Object> annotations = new ArrayList<>();
+        annotations.add(annotation("jdk.jfr.Label", label));
+        if (timespan != null) {
+            annotations.add(annotation("jdk.jfr.Timespan", timespan));
+        }
+        Constructor<?> constructor = Class.forName("jdk.jfr.ValueDescriptor")
+                .getConstructor(Class.class, String.class, List.class);
+        return constructor.newInstance(type, name, annotations);
+    }
+    
+    /**
+     * Defines an event type.
+     * @return Handle that creates events of the type.
+     */
+    private static MethodHandle eventFactory(String name, String label, Object... fields)
+            throws ReflectiveOperationException {
+        List<Object> annotations = Arrays.asList(annotation("jdk.jfr.Name", name),
+                annotation("jdk.jfr.Label", label),
+                annotation("jdk.jfr.Category", new String[] {"Exorcism"}));
+        Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+        Object factory = factoryType.getMethod("create", List.class, List.class)
+                .invoke(null, annotations, Collections.unmodifiableList(Arrays.asList(fields)));
+        return MethodHandles.publicLookup().findVirtual(factoryType, "newEvent",
+                MethodType.methodType(Class.forName("jdk.jfr.Event"))).bindTo(factory)
+                .asType(MethodType.methodType(Object.class));
+    }
+    
+    static boolean isAvailable() {
+        return newSystemTick != null;
+    }
+    
+    static void systemTick(String system, long duration, int entities) {
+        if (newSystemTick == null) {
+            return;
+        }
+        try {
+            Object event = newSystemTick.invokeExact();
+            if ((boolean) shouldCommit.invokeExact(event)) {
+                set.invokeExact(event, 0, (Object) system);
+                set.invokeExact(event, 1, (Object) duration);
+                set.invokeExact(event, 2, (Object) entities);
+                commit.invokeExact(event);
+            }
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    static void compaction(int arrays, int entries) {
+        if (newCompaction == null) {
+            return;
+        }
+        try {
+            Object event = newCompaction.invokeExact();
+            if ((boolean) shouldCommit.invokeExact(event)) {
+                set.invokeExact(event, 0, (Object) arrays);
+                set.invokeExact(event, 1, (Object) entries);
+                commit.invokeExact(event);
+            }
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ritualsoftheold.exorcism.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime instrumentation of Exorcism. Disabled by default; when disabled,
+ * instrumented code only checks {@link #isEnabled()} and records nothing.
+ *
+ * <p>When enabled, this collects:
+ * <ul>
+ * <li>Wall time and entity counts of systems, see {@link SystemMetrics}
+ * <li>Compaction and contention counters of concurrent arrays
+ * <li>Flight Recorder events {@code exorcism.SystemTick} and
+ * {@code exorcism.Compaction}, if Flight Recorder is available
+ * </ul>
+ *
+ */
+public final class Metrics {
+    
+    private static volatile boolean enabled;
+    
+    /**
+     * Metrics by system. Keys are weak, so systems that are no longer used
+     * can be collected. Looked up once per system and tick, so a lock is
+     * cheap enough.
+     */
+    private static final Map<Object, SystemMetrics> systems = Collections.synchronizedMap(new WeakHashMap<>());
+    
+    private static final LongAdder compactions = new LongAdder();
+    private static final LongAdder skippedCompactions = new LongAdder();
+    private static final LongAdder addRetries = new LongAdder();
+    
+    private Metrics() {}
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    public static void enable() {
+        enabled = true;
+    }
+    
+    public static void disable() {
+        enabled = false;
+    }
+    
+    /**
+     * Checks if Flight Recorder events can be emitted.
+     * @return Whether Flight Recorder is available.
+     */
+    public static boolean isFlightRecorderAvailable() {
+        return JfrEvents.isAvailable();
+    }
+    
+    /**
+     * Gets metrics of a system, creating them if needed.
+     * @param system System.
+     * @return Metrics of the system.
+     */
+    public static SystemMetrics forSystem(Object system) {
+        return systems.computeIfAbsent(system, s -> new SystemMetrics(s.getClass().getName()));
+    }
+    
+    /**
+     * Gets metrics of all systems that have been recorded, and have not
+     * been garbage collected.
+     * @return Unmodifiable copy of system metrics.
+     */
+    public static Collection<SystemMetrics> getSystems() {
+        synchronized (systems) { // Iterating synchronized map needs its lock
+            return Collections.unmodifiableList(new ArrayList<>(systems.values()));
+        }
+    }
+    
+    /**
+     * Called when a concurrent array has been compacted.
+     * @param arrays How many arrays were compacted to one.
+     * @param entries Live entries in new array.
+     */
+    public static void compacted(int arrays, int entries) {
+        compactions.increment();
+        JfrEvents.compaction(arrays, entries);
+    }
+    
+    /**
+     * Called when a compaction was skipped, because another thread was
+     * compacting.
+     */
+    public static void compactionSkipped() {
+        skippedCompactions.increment();
+    }
+    
+    /**
+     * Called when adding to a concurrent array had to retry, because
+     * another thread replaced head array at the same time.
+     */
+    public static void addRetried() {
+        addRetries.increment();
+    }
+    
+    public static long getCompactions() {
+        return compactions.sum();
+    }
+    
+    public static long getSkippedCompactions() {
+        return skippedCompactions.sum();
+    }
+    
+    public static long getAddRetries() {
+        return addRetries.sum();
+    }
+    
+    /**
+     * Clears all recorded metrics.
+     */
+    public static void reset() {
+        systems.clear();
+        compactions.reset();
+        skippedCompactions.reset();
+        addRetries.reset();
+    }
+}
@@ -0,0 +1,94 @@
+package com.ritualsoftheold.exorcism.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of one system. Each tick, wall time spent in the system and
+ * count of entities it processed are recorded.
+ *
+ */
+public class SystemMetrics {
+    
+    private final String name;
+    
+    /**
+     * Wall times of ticks, in nanoseconds.
+     */
+    private final Histogram tickTimes;
+    
+    /**
+     * Time and entities of current tick, for iterators that record them
+     * entity by entity.
+     */
+    private final LongAdder pendingNanos;
+    private final LongAdder pendingEntities;
+    
+    private volatile long lastNanos;
+    
+    private volatile int lastEntities;
+    
+    private final LongAdder totalEntities;
+    
+    SystemMetrics(String name) {
+        this.name = name;
+        this.tickTimes = new Histogram();
+        this.pendingNanos = new LongAdder();
+        this.pendingEntities = new LongAdder();
+        this.totalEntities = new LongAdder();
+    }
+    
+    /**
+     * Records a whole tick of the system.
+     * @param nanos Wall time in nanoseconds.
+     * @param entities Count of processed entities.
+     */
+    public void record(long nanos, int entities) {
+        tickTimes.record(nanos);
+        lastNanos = nanos;
+        lastEntities = entities;
+        totalEntities.add(entities);
+        JfrEvents.systemTick(name, nanos, entities);
+    }
+    
+    /**
+     * Adds time spent on one entity to current tick. Can be called
+     * concurrently.
+     * @param nanos Time in nanoseconds.
+     */
+    public void add(long nanos) {
+        pendingNanos.add(nanos);
+        pendingEntities.increment();
+    }
+    
+    /**
+     * Records current tick from what has been {@link #add(long) added},
+     * and starts a new one.
+     */
+    public void endTick() {
+        record(pendingNanos.sumThenReset(), (int) pendingEntities.sumThenReset());
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets histogram of tick wall times in nanoseconds.
+     * @return Histogram.
+     */
+    public Histogram getTickTimes() {
+        return tickTimes;
+    }
+    
+    public long getLastNanos() {
+        return lastNanos;
+    }
+    
+    public int getLastEntities() {
+        return lastEntities;
+    }
+    
+    public long getTotalEntities() {
+        return totalEntities.sum();
+    }
+}
@@ -2,17 +2,41 @@ package com.ritualsoftheold.exorcism.util;
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+import com.ritualsoftheold.exorcism.metrics.Metrics;
+
+/**
+ * A lock-free collection made of linked arrays. Entries are added to the
+ * last (head) array; removed entries are replaced with skip markers.
+ *
+ * <p>When iterators see many skip markers, they compact arrays by copying
+ * live entries to a new array that replaces old ones in the list. Arrays
+ * are never modified in place, so nobody needs to wait for compaction:
+ * iterators already on old arrays just finish them.
+ *
+ * <p>In striped mode, each adding thread fills a private array (segment)
+ * without contending with others. The segment is linked to end of the
+ * list when it is full, or when the thread calls {@link #flush()}; until
+ * then, iterators don't see its entries. Entries of one thread appear in
+ * order they were added, but entries of different threads are not ordered.
+ *
+ */
 public class ConcurrentLinkedArray<E> implements Iterable<E> {
         
     private static final VarHandle arrayVar = MethodHandles.arrayElementVarHandle(Object[].class);
-    private static final VarHandle headIndexVar;
+    private static final VarHandle headArrayVar;
+    private static final VarHandle compactLockVar;
     
     static {
         try {
-            headIndexVar = MethodHandles.lookup().findVarHandle(ConcurrentLinkedArray.class, "headIndex", int.class);
+            headArrayVar = MethodHandles.lookup().findVarHandle(ConcurrentLinkedArray.class, "headArray", Object[].class);
+            compactLockVar = MethodHandles.lookup().findVarHandle(ConcurrentLinkedArray.class, "compactLock", int.class);
         } catch (NoSuchFieldException | IllegalAccessException e) {
             throw new Error(e);
         }
@@ -26,7 +50,7 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
     private static final int nextRefOffset = 1;
     
     /**
-     * Offset to compaction marker (Boolean or null).
+     * Offset to compaction info.
      */
     private static final int compactOffset = 2;
     
@@ -43,21 +67,56 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
     
     /**
      * The last array. New entries are added to this, and when it runs out of
-     * space, it is replaced with next array.
+     * space, it is replaced with next array. Might briefly be the array
+     * before last, until an adder moves it forward.
      */
     private volatile Object[] headArray;
     
     /**
-     * Index to first free slot in current head array. This is also used to
-     * identify when the head array runs out of space.
+     * 1 when some thread is compacting, otherwise 0. Threads that find
+     * compaction in progress don't wait for it, they just skip compacting.
      */
     @SuppressWarnings("unused") // VarHandle
-    private int headIndex;
+    private int compactLock;
     
-    public ConcurrentLinkedArray(int arraySize, int recreateTreshold) {
+    /**
+     * Array that a thread is filling in striped mode.
+     */
+    private static class Segment {
+        
+        /**
+         * Array that is not yet linked to the list, or null.
+         */
+        Object[] array;
+        
+        /**
+         * Index of next free slot in array.
+         */
+        int index;
+    }
+    
+    /**
+     * Segments of threads, or null if this is not striped.
+     */
+    private final ThreadLocal<Segment> segments;
+    
+    public ConcurrentLinkedArray(int arraySize, int recreateTreshold, boolean striped) {
         this.firstArray = allocArray(arraySize);
         this.headArray = firstArray;
         this.compactTreshold = recreateTreshold;
+        this.segments = striped ? ThreadLocal.withInitial(Segment::new) : null;
+    }
+    
+    public ConcurrentLinkedArray(int arraySize, int recreateTreshold) {
+        this(arraySize, recreateTreshold, false);
+    }
+    
+    /**
+     * Checks if adding threads fill their own segments.
+     * @return Whether this is striped.
+     */
+    public boolean isStriped() {
+        return segments != null;
     }
     
     private Object[] allocArray(int size) {
@@ -67,46 +126,176 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
     }
 
     public void add(E entry) {
+        if (segments != null) {
+            Segment segment = segments.get();
+            if (segment.array == null) {
+                segment.array = allocArray(firstArray.length);
+            }
+            segment.array[segment.index++] = entry;
+            if (segment.index == segment.array.length - dataOffset) {
+                publish(segment);
+            }
+            return;
+        }
+        
         while (true) {
-            int oldIndex = (int) headIndexVar.getVolatile(this);
             Object[] ourArray = headArray;
-            int index = (int) headIndexVar.getAndAdd(this, 1);
-            if (index < oldIndex) { // We might have got the old array, but index from new one
-                continue; // That is not ok, try again
+            int index = reserve(ourArray, 1);
+            if (index >= ourArray.length - dataOffset) { // Full, need next array
+                appendArray(ourArray);
+                continue;
             }
-            
-            // Do we need a new array?
-            if (index >= ourArray.length - dataOffset) {
-                // Possible entry points:
-                // 1) We exhausted array
-                // 2) Someone else exhausted it, but didn't yet create new array
-                // 3) Someone else exhausted it, created new array but didn't update index yet
-                
-                // Check for case 3
-                if (arrayVar.getVolatile(ourArray, 0) == null && ourArray != firstArray) {
-                    // Oops... Need new array, but the one we have contains nothing!
-                    boolean ok = headIndexVar.compareAndSet(this, 0, 1); // Try to update it
-                    // If we fail, it doesn't matter; someone else succeeded
-                    // Might be the thread that created new array or someone else that bumped to this CAS quicker
+            arrayVar.setVolatile(ourArray, index, entry);
+            break;
+        }
+    }
+    
+    /**
+     * Reserves slots in an array. Slots are counted by array, so an adder
+     * that has an old head array gets an index past its end instead of
+     * a slot that was already given out.
+     * @param array Array.
+     * @param count Slot count.
+     * @return Index of first reserved slot; may be past end of array.
+     */
+    private static int reserve(Object[] array, int count) {
+        return (int) CompactInfo.reservedVar.getAndAdd(compactInfo(array), count);
+    }
+    
+    /**
+     * Adds all given entries. Slots for them are reserved in ranges, with
+     * one atomic update per backing array instead of one per entry.
+     * @param entries Entries to add.
+     */
+    public void addAll(E[] entries) {
+        addAll(entries, 0, entries.length);
+    }
+    
+    /**
+     * Adds all entries of a collection, see {@link #addAll(Object[])}.
+     * @param entries Entries to add.
+     */
+    public void addAll(Collection<? extends E> entries) {
+        Object[] array = entries.toArray();
+        addRange(array, 0, array.length);
+    }
+    
+    /**
+     * Adds a range of entries, see {@link #addAll(Object[])}.
+     * @param entries Array of entries.
+     * @param offset Index of first entry to add.
+     * @param length Count of entries to add.
+     */
+    public void addAll(E[] entries, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > entries.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+        }
+        addRange(entries, offset, length);
+    }
+    
+    private void addRange(Object[] entries, int offset, int length) {
+        int capacity = firstArray.length - dataOffset;
+        if (segments != null) {
+            Segment segment = segments.get();
+            while (length > 0) {
+                if (segment.array == null) {
+                    segment.array = allocArray(firstArray.length);
                 }
-                
-                Object[] newArray = allocArray(firstArray.length);
-                if (!arrayVar.compareAndSet(ourArray, ourArray.length - nextRefOffset, null, newArray)) {
-                    continue; // Failed CAS here means almost certainly a race condition
+                int fit = Math.min(length, capacity - segment.index);
+                System.arraycopy(entries, offset, segment.array, segment.index, fit);
+                segment.index += fit;
+                offset += fit;
+                length -= fit;
+                if (segment.index == capacity) {
+                    publish(segment);
                 }
-                // CAS ok, so we update the index
-                headArray = newArray;
-                ourArray = newArray; // And write goes there, too
-                headIndexVar.setVolatile(this, 1); // First one is reserved for us
-                index = 0;
+            }
+            return;
+        }
+        
+        while (length > 0) {
+            int count = Math.min(length, capacity); // Never reserve more than an array
+            Object[] ourArray = headArray;
+            int index = reserve(ourArray, count);
+            if (index >= capacity) { // Whole range is past end of array
+                appendArray(ourArray);
+                continue;
             }
             
-            // At this point, we always have index and array
-            arrayVar.setVolatile(ourArray, index, entry);
-            break;
+            // Part of range may be past end; it is added in next round
+            int fit = Math.min(count, capacity - index);
+            for (int i = 0; i < fit; i++) {
+                arrayVar.setRelease(ourArray, index + i, entries[offset + i]);
+            }
+            offset += fit;
+            length -= fit;
+        }
+    }
+    
+    /**
+     * Makes entries that current thread has added in striped mode visible
+     * to iterators, even though its segment is not full. Free slots of the
+     * segment are left unused, as if their entries had been removed.
+     * Does nothing if this is not striped.
+     */
+    public void flush() {
+        if (segments != null) {
+            Segment segment = segments.get();
+            if (segment.array != null && segment.index != 0) {
+                for (int i = segment.index; i < segment.array.length - dataOffset; i++) {
+                    segment.array[i] = skipMarker;
+                }
+                publish(segment);
+            }
         }
     }
     
+    /**
+     * Links segment of a thread to end of list, in striped mode. Segment
+     * has no empty slots, so it can be compacted like any other array.
+     * Thread starts a new segment on next add.
+     * @param segment Segment of current thread.
+     */
+    private void publish(Segment segment) {
+        Object[] array = segment.array;
+        Object[] last = headArray; // Might be behind, or replaced by compaction
+        while (true) {
+            Object[] next = nextArray(last);
+            if (next != null) { // Not the last array
+                last = next;
+            } else if (arrayVar.compareAndSet(last, last.length - nextRefOffset, null, array)) {
+                break;
+            } else if (Metrics.isEnabled()) {
+                Metrics.addRetried();
+            }
+        }
+        headArray = array; // Just a hint where to start next time
+        segment.array = null;
+        segment.index = 0;
+    }
+    
+    /**
+     * Links a new array after a full one, unless someone else already did,
+     * and moves head to it. Callers then retry with the new head.
+     * @param full Array that ran out of space.
+     */
+    private void appendArray(Object[] full) {
+        Object[] next = nextArray(full);
+        if (next == null) {
+            Object[] newArray = allocArray(firstArray.length);
+            if (arrayVar.compareAndSet(full, full.length - nextRefOffset, null, newArray)) {
+                next = newArray;
+            } else { // Someone else linked one first
+                if (Metrics.isEnabled()) {
+                    Metrics.addRetried();
+                }
+                next = nextArray(full);
+            }
+        }
+        // Only move forward; if full is not head anymore, someone already did
+        headArrayVar.compareAndSet(this, full, next);
+    }
+    
     private class ArrayIterator<T> implements Iterator<T> {
         
         /**
@@ -127,27 +316,22 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
         
         /**
          * Current entry. The iterator does not offer any way to get it,
-         * but it is needed to support removing it in case compaction
-         * moves it to previous array.
+         * but it is needed to support removing it.
          */
         private Object current;
         
         /**
-         * How many skip markers we have encountered in this array.
+         * Array and index where current entry was read. Arrays are never
+         * compacted in place, so the entry is either still there or
+         * has been removed.
          */
-        private int skipMarkers;
+        private Object[] currentArray;
+        private int currentIndex;
         
         /**
-         * How much can be read from this array safely. After this many values
-         * have been read, 
-         */
-        private int safeReadCount;
-        
-        /**
-         * Reference to previous array, to be used when compaction is needed.
-         * If current array is the first one, previous array is of course null.
+         * How many skip markers we have encountered in this array.
          */
-        private Object[] previousArray;
+        private int skipMarkers;
         
         protected ArrayIterator() {
             array = firstArray;
@@ -176,6 +360,8 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
             T next = (T) this.next;
             this.next = null;
             current = next;
+            currentArray = array;
+            currentIndex = index;
             index++;
             
             return next;
@@ -183,23 +369,15 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
         
         @Override
         public void remove() {
-            int prevIndex = index - 1;
-            if (prevIndex == -1) { // Must access previous array
-                prevIndex = previousArray.length - dataOffset - prevIndex;
-                lockCompact(previousArray); // Ensure that compaction doesn't cancel remove
-                
-                // Try to just CAS it away
-                if (!arrayVar.compareAndSet(previousArray, prevIndex, current, skipMarker)) {
-                    // Somehow, the value has moved
-                    // TODO handle this case
-                    throw new AssertionError("blame bensku");
-                }
-                
-                unlockCompact(previousArray); // Free it again
-            } else { // Just remove the previous element
-                arrayVar.setOpaque(array, prevIndex, skipMarker);
+            if (currentArray == null) {
+                throw new IllegalStateException("nothing to remove");
+            }
+            removeAt(currentArray, currentIndex, current);
+            if (currentArray == array) {
                 skipMarkers++;
             }
+            currentArray = null;
+            current = null;
         }
         
         private Object getNext() {
@@ -207,43 +385,32 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
             while (true) {
                 // Check if we need the next array
                 if (index == array.length - dataOffset) {
-                    Object[] newArray = (Object[]) arrayVar.getOpaque(array, array.length - nextRefOffset);
+                    Object[] newArray = nextArray(array);
                     if (newArray == null) {
-                        unlockCompact(array);
                         return null; // Definitely no more elements
                     }
                     
-                    // Unlock the old array and lock the new one
-                    unlockCompact(array);
-                    safeReadCount = lockCompact(newArray);
-                    index = 0; // To beginning of new array
+                    // Compact array we just left, if it seems necessary
+                    // If someone else is compacting, we just go on
+                    if (skipMarkers > compactTreshold) {
+                        tryCompact(array);
+                    }
                     
-                    // Put the new array in place
-                    previousArray = array;
+                    skipMarkers = 0;
+                    index = 0; // To beginning of new array
                     array = newArray;
                 }
                 
-                // We can't read more entries without checking compaction
-                while (index == safeReadCount) {
-                    safeReadCount = refreshCompactLock(array);
-                    Thread.onSpinWait(); // TODO find nonblocking solution
-                }
-                
-                // Prepare to compact that array ourself, if it seems necessary
-                if (skipMarkers > compactTreshold) {
-                    index -= compactArray(previousArray, array);
-                    if (index < 0) { // Need to visit previous array
-                        index = previousArray.length - dataOffset + index; // Find index there
-                        unlockCompact(array); // Might be that user never reads this again!
-                        array = previousArray;
-                        lockCompact(array);
-                        continue; // Jump to code that acquires lock for our array
+                Object entry = arrayVar.getAcquire(array, index);
+                if (entry == null) { // Slot reserved by add, but not written yet
+                    if (nextArray(array) == null) {
+                        return null; // End of list, at least for now
                     }
+                    index++; // Too late to wait for it
+                    continue;
                 }
-                
-                Object entry = arrayVar.getOpaque(array, index);
                 if (entry != skipMarker) {
-                    return entry; // Might be null, if that is end of list
+                    return entry;
                 }
                 skipMarkers++;
                 index++;
@@ -252,145 +419,527 @@ public class ConcurrentLinkedArray<E> implements Iterable<E> {
         
     }
     
-    protected int compactArray(Object[] previous, Object[] array) {
-        CompactInfo info = (CompactInfo) arrayVar.getOpaque(array, array.length - compactOffset);
-        if (!CompactInfo.statusVar.compareAndSet(info, CompactInfo.unused, CompactInfo.compactCurrent)) {
-            return 0; // Someone else is compacting, we don't need to (and cannot) do it
+    /**
+     * Spliterator that hands out whole backing arrays as units of work.
+     * Splitting is only possible before traversal has started; after that,
+     * the spliterator owns the arrays it covers.
+     *
+     * <p>First split takes a snapshot of arrays in collection, and splits
+     * are ranges in it. This way, compaction replacing arrays can't make
+     * two spliterators visit same entries. Only the last range follows
+     * links to arrays that were added after the snapshot.
+     *
+     * <p>Ranges that were split off know how many entries they had at
+     * split time. If all their slots were filled then, they report
+     * {@link #SIZED} and {@link #SUBSIZED}; sizes stay exact unless entries
+     * are removed by someone else during traversal. Ranges with slots that
+     * adds had reserved but not written, the last range, and spliterators
+     * that have not been split only estimate their size.
+     *
+     * <p>In addition to normal spliterator operations,
+     * {@link #retainRemaining(Predicate)} allows removing entries while
+     * traversing them, like {@link Iterator#remove()} does.
+     *
+     */
+    public class ArraySpliterator implements Spliterator<E> {
+        
+        /**
+         * Snapshot of arrays, or null if this has not been split yet.
+         */
+        private Object[][] arrays;
+        
+        /**
+         * Range of arrays in snapshot that are not yet traversed.
+         */
+        private int from, to;
+        
+        /**
+         * Whether to follow links after last array in snapshot.
+         */
+        private final boolean open;
+        
+        /**
+         * Live entries in snapshot before each array, and after the last
+         * one. Null if this has not been split yet.
+         */
+        private int[] liveBefore;
+        
+        /**
+         * Arrays in snapshot before each array that had unwritten slots,
+         * and after the last one. Null if this has not been split yet.
+         */
+        private int[] unfilledBefore;
+        
+        /**
+         * Entries left to traverse, if this is a closed range.
+         */
+        private long remaining;
+        
+        /**
+         * Whether {@link #remaining} is exact; false if some arrays of this
+         * range had unwritten slots in snapshot.
+         */
+        private boolean sized;
+        
+        /**
+         * The array we're currently traversing, or null if we haven't
+         * started yet.
+         */
+        private Object[] array;
+        
+        /**
+         * Index in the array we're traversing.
+         */
+        private int index;
+        
+        /**
+         * Whether we have gone through all entries.
+         */
+        private boolean done;
+        
+        /**
+         * How many skip markers we have encountered in this array.
+         */
+        private int skipMarkers;
+        
+        protected ArraySpliterator() {
+            this.open = true;
+        }
+        
+        private ArraySpliterator(Object[][] arrays, int[] liveBefore, int[] unfilledBefore, int from, int to) {
+            this.arrays = arrays;
+            this.liveBefore = liveBefore;
+            this.unfilledBefore = unfilledBefore;
+            this.from = from;
+            this.to = to;
+            this.open = false;
+            this.remaining = liveBefore[to] - liveBefore[from];
+            this.sized = unfilledBefore[to] == unfilledBefore[from];
         }
         
-        int freeSlot = Integer.MAX_VALUE;
-        if (previous != null) {
-            CompactInfo prevInfo = (CompactInfo) arrayVar.getOpaque(previous, previous.length - compactOffset);
+        /**
+         * Moves to next array.
+         * @return Whether there was one.
+         */
+        private boolean nextArray() {
+            Object[] next;
+            if (arrays == null) { // Not split, just follow links
+                next = array == null ? firstArray : ConcurrentLinkedArray.nextArray(array);
+            } else if (from < to) {
+                next = arrays[from++];
+            } else if (open && array != null) {
+                next = ConcurrentLinkedArray.nextArray(array);
+            } else {
+                next = null;
+            }
             
-            // Look for free space in the previous array
-            if ((int) CompactInfo.iteratorsVar.getOpaque(prevInfo) < 1) {
-                for (int i = previous.length - dataOffset;;i--) {
-                    Object entry = arrayVar.getOpaque(previous, i);
-                    if (entry != skipMarker) {
-                        break;
-                    }
-                    freeSlot = i;
+            if (array != null && skipMarkers > compactTreshold) {
+                tryCompact(array);
+            }
+            skipMarkers = 0;
+            index = 0;
+            array = next;
+            done = next == null;
+            return !done;
+        }
+        
+        /**
+         * Gets next entry, skipping removed ones.
+         * @return Next entry or null, if there are no more.
+         */
+        private Object advance() {
+            if (done || (array == null && !nextArray())) {
+                return null;
+            }
+            while (true) {
+                if (index == array.length - dataOffset && !nextArray()) {
+                    return null;
                 }
                 
-                // Check that no one else is trying to compact previous array
-                if (!CompactInfo.statusVar.compareAndSet(prevInfo, CompactInfo.unused, freeSlot)) {
-                    freeSlot = previous.length - dataOffset; // Previous array unavailable
-                } else if ((int) CompactInfo.iteratorsVar.getOpaque(prevInfo) > 0) {
-                    // Some iterators slipped there, whoops
-                    freeSlot = previous.length - dataOffset; // Previous array unavailable
-                    CompactInfo.statusVar.setVolatile(prevInfo, CompactInfo.unused); // Revert back to unused
+                Object entry = arrayVar.getAcquire(array, index++);
+                if (entry == skipMarker) {
+                    skipMarkers++;
+                } else if (entry != null) {
+                    remaining--;
+                    return entry;
+                } else if (ConcurrentLinkedArray.nextArray(array) == null) {
+                    index = array.length - dataOffset; // Rest of head array is empty
                 }
             }
         }
         
-        // Figure out if there are iterators which disallow compaction here
-        // We are likely to have one iterator ourself, but more than that is not ok
-        while ((int) CompactInfo.iteratorsVar.getOpaque(info) > 1) {
-            Thread.onSpinWait();
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            @SuppressWarnings("unchecked")
+            E entry = (E) advance();
+            if (entry == null) {
+                return false;
+            }
+            action.accept(entry);
+            return true;
         }
         
-        // Compact the array
-        VarHandle.fullFence(); // Make sure all writes from everywhere have completed
-        int moveBack = 0;
-        outer: for (int i = 0; i < array.length - dataOffset; i++) {
-            Object entry = arrayVar.getOpaque(array, i);
-            if (entry == skipMarker) { // Skip markers are written over
-                moveBack++;
-                continue;
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            Object entry;
+            while ((entry = advance()) != null) {
+                @SuppressWarnings("unchecked")
+                E e = (E) entry;
+                action.accept(e);
+            }
+        }
+        
+        /**
+         * Traverses all remaining entries. Entries for which the filter
+         * returns false are removed from the collection.
+         * @param filter Filter that decides whether to keep an entry.
+         */
+        public void retainRemaining(Predicate<? super E> filter) {
+            Object entry;
+            while ((entry = advance()) != null) {
+                @SuppressWarnings("unchecked")
+                E e = (E) entry;
+                if (!filter.test(e)) {
+                    removeAt(array, index - 1, entry);
+                    skipMarkers++;
+                }
+            }
+        }
+        
+        @Override
+        public ArraySpliterator trySplit() {
+            if (array != null || done) {
+                return null; // Traversal already started
             }
             
-            // If previous array has space, use it
-            while (previous != null && freeSlot < previous.length - dataOffset) {
-                boolean success = arrayVar.compareAndSet(previous, freeSlot, skipMarker, entry);
-                freeSlot++;
-                if (success) {
-                    moveBack++;
-                    continue outer;
+            if (arrays == null) { // Take snapshot of arrays
+                int count = 0;
+                for (Object[] a = firstArray; a != null; a = ConcurrentLinkedArray.nextArray(a)) {
+                    count++;
+                }
+                arrays = new Object[count][];
+                liveBefore = new int[count + 1];
+                unfilledBefore = new int[count + 1];
+                Object[] a = firstArray;
+                for (int i = 0; i < count && a != null; i++) {
+                    arrays[i] = a;
+                    int live = countLive(a);
+                    liveBefore[i + 1] = liveBefore[i] + (live == -1 ? countEntries(a) : live);
+                    unfilledBefore[i + 1] = unfilledBefore[i] + (live == -1 ? 1 : 0);
+                    a = ConcurrentLinkedArray.nextArray(a);
+                    to = i + 1; // In case compaction shortened the list
                 }
             }
             
-            // Or maybe we just move it back in this array?
-            if (moveBack != 0) {
-                arrayVar.setOpaque(array, i - moveBack, entry);
+            if (to - from < 2) {
+                return null; // Can't split one array
             }
+            
+            // Give first half to the new spliterator
+            int middle = (from + to) >>> 1;
+            ArraySpliterator prefix = new ArraySpliterator(arrays, liveBefore, unfilledBefore, from, middle);
+            from = middle;
+            remaining = liveBefore[to] - liveBefore[from]; // Closed range was split again
+            sized = unfilledBefore[to] == unfilledBefore[from];
+            return prefix;
         }
         
-        // Rest of array to skip markers
-        for (int i = moveBack; i < array.length - dataOffset; i++) {
-            arrayVar.setOpaque(array, i, skipMarker);
+        @Override
+        public long estimateSize() {
+            if (done) {
+                return 0;
+            }
+            if (!open) {
+                return Math.max(0, remaining);
+            }
+            if (arrays == null) { // Assume that arrays are full, except head
+                long size = 0;
+                Object[] head = headArray;
+                for (Object[] a = array == null ? firstArray : array; a != null; a = ConcurrentLinkedArray.nextArray(a)) {
+                    if (segments != null) {
+                        if (a != firstArray) { // First array is not used when striped
+                            size += a.length - dataOffset;
+                        }
+                    } else if (a == head) {
+                        int reserved = (int) CompactInfo.reservedVar.getOpaque(compactInfo(a));
+                        size += Math.min(reserved, a.length - dataOffset);
+                    } else {
+                        size += a.length - dataOffset;
+                    }
+                }
+                return Math.max(0, size - index);
+            }
+            // Last range; arrays added after snapshot are not counted
+            return liveBefore[to] - liveBefore[from] + (array != null ? countEntries(array) : 0);
         }
         
-        return moveBack;
+        @Override
+        public int characteristics() {
+            if (open) {
+                return CONCURRENT | NONNULL;
+            }
+            // Adds may still write to unfilled slots, so size is not exact
+            return sized ? SIZED | SUBSIZED | NONNULL : NONNULL;
+        }
     }
     
-    private static class CompactInfo {
+    private static Object[] nextArray(Object[] array) {
+        return (Object[]) arrayVar.getAcquire(array, array.length - nextRefOffset);
+    }
+    
+    private static CompactInfo compactInfo(Object[] array) {
+        return (CompactInfo) arrayVar.getOpaque(array, array.length - compactOffset);
+    }
+    
+    /**
+     * Removes an entry that was read from given array and index. If the
+     * array has been replaced by compaction, the entry is removed from
+     * the replacement too.
+     * @param array Array where entry was read.
+     * @param index Index where entry was read.
+     * @param entry The entry.
+     */
+    protected void removeAt(Object[] array, int index, Object entry) {
+        if (!arrayVar.compareAndSet(array, index, entry, skipMarker)) {
+            return; // Someone else removed it
+        }
         
-        protected static final VarHandle iteratorsVar;
-        protected static final VarHandle statusVar;
+        // Compaction may have copied the entry before we removed it
+        // Compactor checks removals after it has published replacement, and
+        // we check replacement after removing, so one of us will notice
+        while ((array = (Object[]) CompactInfo.replacementVar.getVolatile(compactInfo(array))) != null) {
+            boolean found = false;
+            for (int i = 0; i < array.length - dataOffset; i++) {
+                if (arrayVar.getVolatile(array, i) == entry) {
+                    arrayVar.compareAndSet(array, i, entry, skipMarker);
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return; // Not copied, so it is not in later replacements either
+            }
+        }
+    }
+    
+    /**
+     * Compacts given array with arrays after it, if no other thread is
+     * compacting at the moment. Live entries of as many arrays as fit are
+     * copied to a new array, which replaces them in the linked list.
+     *
+     * <p>Old arrays are left as they were, so iterators that are currently
+     * on them can just go on. Garbage collector frees them once no
+     * iterators reference them anymore.
+     * @param target Array to compact.
+     * @return Whether compaction was done.
+     */
+    protected boolean tryCompact(Object[] target) {
+        if (target == firstArray) {
+            return false; // First array is never replaced
+        }
+        if (!compactLockVar.compareAndSet(this, 0, 1)) {
+            if (Metrics.isEnabled()) {
+                Metrics.compactionSkipped();
+            }
+            return false; // Someone else is compacting
+        }
         
-        protected static final int unused = 0;
-        protected static final int compactCurrent = -1;
-        //protected static final int compactNext = 1; // or higher
+        try {
+            // Find array before target; if we can't, target was already replaced
+            Object[] previous = firstArray;
+            Object[] array = nextArray(previous);
+            while (array != target) {
+                if (array == null) {
+                    return false;
+                }
+                previous = array;
+                array = nextArray(array);
+            }
+            
+            // Collect arrays whose live entries fit in one array
+            // Head array is never compacted, because entries are added to it
+            int capacity = firstArray.length - dataOffset;
+            int live = 0;
+            int count = 0;
+            Object[] last = null;
+            for (Object[] a = target; nextArray(a) != null; a = nextArray(a)) {
+                int entries = countLive(a);
+                if (entries == -1 || live + entries > capacity) {
+                    break; // Add in progress, or doesn't fit
+                }
+                live += entries;
+                count++;
+                last = a;
+            }
+            if (count == 0 || (count == 1 && live == capacity)) {
+                return false; // Nothing to gain
+            }
+            
+            // Copy live entries, remembering where they went
+            Object[] copy = allocArray(firstArray.length);
+            int[] moved = new int[count * capacity];
+            int copied = 0;
+            Object[] a = target;
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < capacity; j++) {
+                    Object entry = arrayVar.getVolatile(a, j);
+                    if (entry == skipMarker) {
+                        moved[i * capacity + j] = -1;
+                    } else {
+                        moved[i * capacity + j] = copied;
+                        arrayVar.setOpaque(copy, copied++, entry);
+                    }
+                }
+                a = nextArray(a);
+            }
+            for (int i = copied; i < capacity; i++) {
+                arrayVar.setOpaque(copy, i, skipMarker);
+            }
+            arrayVar.setOpaque(copy, copy.length - nextRefOffset, nextArray(last));
+            
+            // Tell removers of old arrays where their entries went
+            a = target;
+            for (int i = 0; i < count; i++) {
+                CompactInfo.replacementVar.setVolatile(compactInfo(a), copy);
+                a = nextArray(a);
+            }
+            
+            // Replace old arrays in list; no one else changes links of
+            // arrays that are not head
+            arrayVar.setRelease(previous, previous.length - nextRefOffset, copy);
+            
+            // Apply removals that happened while we were copying
+            a = target;
+            for (int i = 0; i < count; i++) {
+                for (int j = 0; j < capacity; j++) {
+                    int index = moved[i * capacity + j];
+                    if (index != -1 && arrayVar.getVolatile(a, j) == skipMarker) {
+                        arrayVar.setVolatile(copy, index, skipMarker);
+                    }
+                }
+                a = nextArray(a);
+            }
+            
+            if (Metrics.isEnabled()) {
+                Metrics.compacted(count, copied);
+            }
+            return true;
+        } finally {
+            compactLockVar.setVolatile(this, 0);
+        }
+    }
+    
+    /**
+     * Counts entries that are not removed in an array.
+     * @param array Array.
+     * @return Live entry count, or -1 if some slots are still being written.
+     */
+    private static int countLive(Object[] array) {
+        int count = 0;
+        for (int i = 0; i < array.length - dataOffset; i++) {
+            Object entry = arrayVar.getVolatile(array, i);
+            if (entry == null) {
+                return -1;
+            } else if (entry != skipMarker) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Counts entries in an array, not including slots that are still
+     * being written.
+     * @param array Array.
+     * @return Entry count.
+     */
+    private static int countEntries(Object[] array) {
+        int count = 0;
+        for (int i = 0; i < array.length - dataOffset; i++) {
+            Object entry = arrayVar.getOpaque(array, i);
+            if (entry != null && entry != skipMarker) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private static class CompactInfo {
+        
+        protected static final VarHandle replacementVar;
+        protected static final VarHandle reservedVar;
         
         static {
             try {
-                iteratorsVar = MethodHandles.lookup().findVarHandle(CompactInfo.class, "iterators", int.class);
-                statusVar = MethodHandles.lookup().findVarHandle(CompactInfo.class, "status", int.class);
+                replacementVar = MethodHandles.lookup().findVarHandle(CompactInfo.class, "replacement", Object[].class);
+                reservedVar = MethodHandles.lookup().findVarHandle(CompactInfo.class, "reserved", int.class);
             } catch (NoSuchFieldException | IllegalAccessException e) {
                 throw new Error(e);
             }
         }
         
         /**
-         * How many iterators are at this array at the moment.
+         * Array that replaced this one in compaction, or null.
          */
         @SuppressWarnings("unused") // VarHandle
-        private int iterators;
+        private Object[] replacement;
         
+        /**
+         * How many slots of the array adds have reserved. Goes past end of
+         * array once it is full.
+         */
         @SuppressWarnings("unused") // VarHandle
-        private int status;
+        private int reserved;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        VarHandle.fullFence(); // Ensure no stores get reordered after this (StoreLoad barrier)
+        return new ArrayIterator<>();
     }
     
-    protected int lockCompact(Object[] array) {
-        CompactInfo info = (CompactInfo) arrayVar.getOpaque(array, array.length - compactOffset);
-        CompactInfo.iteratorsVar.getAndAdd(info, 1); // We want to use that array
-        
-        while (true) {
-            int status = (int) CompactInfo.statusVar.getOpaque(info);
-            if (status == CompactInfo.unused) {
-                return array.length - dataOffset; // Whole array freely usable
-            } else if (status == CompactInfo.compactCurrent) {
-                Thread.onSpinWait(); // Compaction is in progress
-                // TODO if we wait too long, try alternative (?) way of iteration
-            } else { // CompactInfo.compactNext
-                // We can use our array until we'd hit skipMarkers at end
-                return status;
+    /**
+     * Performs an action for each entry. Unlike iterating, this doesn't
+     * allocate anything. Entries added during this call may or may not be
+     * seen.
+     * @param action Action to perform.
+     */
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        VarHandle.fullFence(); // Same as with iterator()
+        int end = firstArray.length - dataOffset;
+        Object[] array = firstArray;
+        while (array != null) {
+            int skipMarkers = 0;
+            for (int i = 0; i < end; i++) {
+                Object entry = arrayVar.getAcquire(array, i);
+                if (entry == skipMarker) {
+                    skipMarkers++;
+                } else if (entry != null) {
+                    @SuppressWarnings("unchecked")
+                    E e = (E) entry;
+                    action.accept(e);
+                } else if (nextArray(array) == null) {
+                    break; // Rest of head array is empty
+                }
+            }
+            
+            Object[] next = nextArray(array);
+            if (next != null && skipMarkers > compactTreshold) {
+                tryCompact(array);
             }
+            array = next;
         }
     }
     
-    protected void unlockCompact(Object[] array) {
-        CompactInfo info = (CompactInfo) arrayVar.getOpaque(array, array.length - compactOffset);
-        CompactInfo.iteratorsVar.getAndAdd(info, -1); // Reduce user count by 1
-    }
-    
-    protected int refreshCompactLock(Object[] array) {
-        CompactInfo info = (CompactInfo) arrayVar.getOpaque(array, array.length - compactOffset);
-        
-        int status = (int) CompactInfo.statusVar.getOpaque(info);
-        if (status == CompactInfo.unused) {
-            return array.length - dataOffset; // Whole array freely usable
-        } else { // CompactInfo.compactNext
-            // We can use our array until we'd hit skipMarkers at end
-            return status;
-        }
-        // compactCurrent cannot happen, because we successfully acquired lock before
-    }
-
+    /**
+     * Creates a spliterator that splits this collection by its backing
+     * arrays. Entries added after this call may or may not be seen.
+     */
     @Override
-    public Iterator<E> iterator() {
-        VarHandle.fullFence(); // Ensure no stores get reordered after this (StoreLoad barrier)
-        return new ArrayIterator<>();
+    public ArraySpliterator spliterator() {
+        VarHandle.fullFence(); // Same as with iterator()
+        return new ArraySpliterator();
     }
     
 }
@@ -0,0 +1,227 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A typed channel of events. Any thread can publish events; they are
+ * appended to a buffer of publishing thread, so publishers never contend
+ * with each other.
+ *
+ * <p>Events are double-buffered. What is published now becomes readable
+ * after next {@link #swap()}, which must be called at a sync point when
+ * nobody is publishing or reading. Until the swap after that, any number
+ * of consumers can read the events with their own {@link Cursor}s.
+ * Reading doesn't remove events or allocate anything.
+ *
+ */
+public class EventChannel<E> {
+
+    /**
+     * Event buffers of one thread, one for each side of the channel.
+     */
+    private static class Local {
+
+        final Object[][] buffers;
+
+        final int[] sizes;
+
+        /**
+         * Epoch when buffers were last registered for publishing.
+         */
+        int epoch;
+
+        Local(int capacity) {
+            this.buffers = new Object[][] {new Object[capacity], new Object[capacity]};
+            this.sizes = new int[2];
+            this.epoch = -1;
+        }
+    }
+
+    private final ThreadLocal<Local> locals;
+
+    /**
+     * Buffers that have events published in current epoch.
+     */
+    private final Queue<Local> publishers;
+
+    /**
+     * Reused by swap.
+     */
+    private final List<Local> published;
+
+    /**
+     * Current epoch. Side of buffers that is being published to is the
+     * lowest bit of it.
+     */
+    private volatile int epoch;
+
+    /**
+     * Buffers that can be read, and their sizes. Only changed by swap.
+     */
+    private Object[][] readable;
+    private int[] readableSizes;
+    private int readableCount;
+
+    private int readableSize;
+
+    public EventChannel(int bufferSize) {
+        this.locals = ThreadLocal.withInitial(() -> new Local(bufferSize));
+        this.publishers = new ConcurrentLinkedQueue<>();
+        this.published = new ArrayList<>();
+        this.readable = new Object[0][];
+        this.readableSizes = new int[0];
+    }
+
+    public EventChannel() {
+        this(64);
+    }
+
+    /**
+     * Publishes an event. It will be readable after next swap.
+     * @param event Event.
+     */
+    public void publish(E event) {
+        Local local = locals.get();
+        int epoch = this.epoch;
+        int side = epoch & 1;
+        if (local.epoch != epoch) { // First event of this thread in epoch
+            Object[] buffer = local.buffers[side];
+            Arrays.fill(buffer, 0, local.sizes[side], null); // Read two swaps ago
+            local.sizes[side] = 0;
+            local.epoch = epoch;
+            publishers.add(local);
+        }
+
+        Object[] buffer = local.buffers[side];
+        int size = local.sizes[side];
+        if (size == buffer.length) {
+            buffer = Arrays.copyOf(buffer, size * 2);
+            local.buffers[side] = buffer;
+        }
+        buffer[size] = event;
+        local.sizes[side] = size + 1;
+    }
+
+    /**
+     * Makes events published since previous swap readable, and discards
+     * events that were readable before. This is a sync point: nobody may
+     * publish or read during it.
+     */
+    public void swap() {
+        int side = epoch & 1;
+        published.clear();
+        Local local;
+        while ((local = publishers.poll()) != null) {
+            published.add(local);
+        }
+
+        int count = published.size();
+        if (readable.length < count) {
+            readable = new Object[count][];
+            readableSizes = new int[count];
+        } else {
+            Arrays.fill(readable, count, readableCount, null);
+        }
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            Local l = published.get(i);
+            readable[i] = l.buffers[side];
+            readableSizes[i] = l.sizes[side];
+            total += readableSizes[i];
+        }
+        readableCount = count;
+        readableSize = total;
+        published.clear();
+        epoch++;
+    }
+
+    /**
+     * Gets count of readable events.
+     * @return Event count.
+     */
+    public int size() {
+        return readableSize;
+    }
+
+    /**
+     * Passes all readable events to given consumer.
+     * @param action Event consumer.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super E> action) {
+        for (int i = 0; i < readableCount; i++) {
+            Object[] buffer = readable[i];
+            int size = readableSizes[i];
+            for (int j = 0; j < size; j++) {
+                action.accept((E) buffer[j]);
+            }
+        }
+    }
+
+    /**
+     * Creates a cursor for reading events. Consumers should create one and
+     * {@link Cursor#reset() reset} it every time they start reading.
+     * @return A new cursor, positioned at first readable event.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Reading position of one consumer.
+     *
+     */
+    public class Cursor {
+
+        private int buffer;
+
+        private int index;
+
+        /**
+         * Epoch this cursor was reset in. Cursors from previous epochs
+         * don't return anything.
+         */
+        private int cursorEpoch;
+
+        Cursor() {
+            reset();
+        }
+
+        /**
+         * Moves this cursor to first readable event.
+         */
+        public void reset() {
+            buffer = 0;
+            index = 0;
+            cursorEpoch = epoch;
+        }
+
+        public boolean hasNext() {
+            if (cursorEpoch != epoch) {
+                return false;
+            }
+            while (buffer < readableCount) {
+                if (index < readableSizes[buffer]) {
+                    return true;
+                }
+                buffer++;
+                index = 0;
+            }
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (E) readable[buffer][index++];
+        }
+    }
+}
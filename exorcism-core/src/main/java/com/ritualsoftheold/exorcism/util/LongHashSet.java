@@ -0,0 +1,152 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+
+/**
+ * A set of longs that doesn't box them. Zero can't be stored, it marks
+ * empty slots.
+ *
+ * <p>Open addressing with linear probing; removals shift following
+ * entries back, so there are no tombstones. Not thread safe.
+ *
+ */
+public class LongHashSet {
+
+    private long[] keys;
+
+    private int size;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+    }
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    private static int hash(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * Adds a key.
+     * @param key Key, not zero.
+     * @return Whether the key was not in set already.
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            throw new IllegalArgumentException("zero can't be stored");
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes a key.
+     * @param key Key.
+     * @return Whether the key was in set.
+     */
+    public boolean remove(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Shift entries after removed one back, if it is on their probe path
+        int gap = i;
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                gap = j;
+            }
+        }
+        keys[gap] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all keys that match a filter.
+     * @param filter Filter.
+     * @return How many keys were removed.
+     */
+    public int removeIf(LongPredicate filter) {
+        int removed = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            while (key != 0 && filter.test(key)) {
+                remove(key); // May shift another key to this slot
+                removed++;
+                key = keys[i];
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Performs an action for each key. The set must not be modified
+     * during this.
+     * @param action Action.
+     */
+    public void forEach(LongConsumer action) {
+        for (long key : keys) {
+            if (key != 0) {
+                action.accept(key);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != 0) {
+                int i = hash(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+}
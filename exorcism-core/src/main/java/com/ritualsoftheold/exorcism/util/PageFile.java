@@ -0,0 +1,170 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A file that stores variable-sized pages of data. Space of freed pages is
+ * reused for new ones, first fit. The file is deleted when it is closed.
+ *
+ * <p>Pages can be written and read by any thread; IO itself is done
+ * without holding any locks.
+ *
+ */
+public class PageFile implements Closeable {
+
+    /**
+     * Location of a page in file.
+     */
+    public static final class Page {
+
+        private final long offset;
+
+        private final int length;
+
+        Page(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    private final FileChannel channel;
+
+    /**
+     * Free regions of file, offset to length. Adjacent regions are always
+     * merged.
+     */
+    private final TreeMap<Long, Integer> free;
+
+    /**
+     * End of used part of file.
+     */
+    private long end;
+
+    public PageFile(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DELETE_ON_CLOSE);
+        this.free = new TreeMap<>();
+    }
+
+    /**
+     * Reserves space for a page.
+     * @param length Length of page.
+     * @return Offset of page.
+     */
+    private synchronized long allocate(int length) {
+        for (Map.Entry<Long, Integer> region : free.entrySet()) {
+            long offset = region.getKey();
+            int size = region.getValue();
+            if (size >= length) {
+                free.remove(offset); // Entry may be reused by TreeMap after this
+                if (size > length) {
+                    free.put(offset + length, size - length);
+                }
+                return offset;
+            }
+        }
+        long offset = end;
+        end += length;
+        return offset;
+    }
+
+    /**
+     * Writes a new page.
+     * @param data Data from its position to limit. Position is not changed.
+     * @return The page.
+     * @throws IOException If writing fails.
+     */
+    public Page write(ByteBuffer data) throws IOException {
+        ByteBuffer src = data.duplicate();
+        int length = src.remaining();
+        long offset = allocate(length);
+        try {
+            long position = offset;
+            while (src.hasRemaining()) {
+                position += channel.write(src, position);
+            }
+        } catch (IOException e) {
+            free(new Page(offset, length));
+            throw e;
+        }
+        return new Page(offset, length);
+    }
+
+    /**
+     * Reads a page to a new direct buffer. Page is not freed.
+     * @param page Page.
+     * @return Buffer in native byte order, positioned at start of data.
+     * @throws IOException If reading fails.
+     */
+    public ByteBuffer read(Page page) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocateDirect(page.length).order(ByteOrder.nativeOrder());
+        long position = page.offset;
+        while (dst.hasRemaining()) {
+            int count = channel.read(dst, position);
+            if (count == -1) {
+                throw new EOFException("page at " + page.offset + " is truncated");
+            }
+            position += count;
+        }
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * Frees a page, so that its space can be reused.
+     * @param page Page, which must not be used after this.
+     */
+    public synchronized void free(Page page) {
+        long offset = page.offset;
+        int length = page.length;
+        Map.Entry<Long, Integer> before = free.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            offset = before.getKey();
+            length += before.getValue();
+            free.remove(offset);
+        }
+        Integer after = free.remove(offset + length);
+        if (after != null) {
+            length += after;
+        }
+
+        if (offset + length == end) { // Shrink used part instead
+            end = offset;
+        } else {
+            free.put(offset, length);
+        }
+    }
+
+    /**
+     * Gets size of used part of file, including free space between pages.
+     * @return Size in bytes.
+     */
+    public synchronized long size() {
+        return end;
+    }
+
+    /**
+     * Closes and deletes this file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
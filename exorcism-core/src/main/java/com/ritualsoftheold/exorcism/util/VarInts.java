@@ -0,0 +1,68 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length integer encoding. Each byte carries 7 bits of value,
+ * lowest first; highest bit tells if more bytes follow. Small values take
+ * one byte. Signed values should be zigzag encoded first, so that small
+ * negative values are small too.
+ *
+ */
+public final class VarInts {
+    
+    /**
+     * Maximum size of an encoded long.
+     */
+    public static final int MAX_LONG_SIZE = 10;
+    
+    private VarInts() {}
+    
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+    
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * Writes an unsigned variable-length integer.
+     * @param out Output buffer.
+     * @param value Value, treated as unsigned.
+     */
+    public static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    /**
+     * Reads an unsigned variable-length integer.
+     * @param in Input buffer.
+     * @return Value.
+     * @throws IllegalArgumentException If encoding is longer than
+     * {@link #MAX_LONG_SIZE}.
+     */
+    public static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed variable-length integer");
+    }
+    
+    public static void putVarInt(ByteBuffer out, int value) {
+        putVarLong(out, value & 0xffffffffL);
+    }
+    
+    public static int getVarInt(ByteBuffer in) {
+        return (int) getVarLong(in);
+    }
+}
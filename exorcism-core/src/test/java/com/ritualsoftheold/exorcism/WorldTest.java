@@ -0,0 +1,73 @@
+package com.ritualsoftheold.exorcism;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class WorldTest {
+
+    /**
+     * Async system whose every other round fails.
+     */
+    private static class FlakySystem implements AsyncSystem<Integer, Integer> {
+
+        int rounds;
+
+        final List<Integer> committed = new ArrayList<>();
+
+        final List<Throwable> errors = new ArrayList<>();
+
+        @Override
+        public Integer prepare(World world) {
+            return rounds++;
+        }
+
+        @Override
+        public Integer compute(Integer input) throws Exception {
+            if (input % 2 == 0) {
+                throw new Exception("round " + input);
+            }
+            return input;
+        }
+
+        @Override
+        public void commit(World world, Integer result) {
+            committed.add(result);
+        }
+
+        @Override
+        public void failed(World world, Throwable error) {
+            errors.add(error);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failedAsyncRoundsAreDropped() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        World world = new World(60, executor, true);
+        FlakySystem system = new FlakySystem();
+        world.addAsyncSystem(system);
+        try {
+            while (system.committed.size() < 3) {
+                world.tick();
+                Thread.sleep(1);
+            }
+        } finally {
+            world.close();
+        }
+
+        assertEquals(3, system.committed.size());
+        for (int i = 0; i < system.committed.size(); i++) {
+            assertEquals(2 * i + 1, (int) system.committed.get(i));
+        }
+        assertTrue(system.errors.size() >= 3);
+        assertEquals("round 0", system.errors.get(0).getMessage());
+        assertEquals(system.errors.size(), world.getAsyncFailures());
+    }
+}
@@ -0,0 +1,106 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.system.Aspect;
+import com.ritualsoftheold.exorcism.entity.system.SimpleIterator;
+import com.ritualsoftheold.exorcism.entity.system.System;
+import com.ritualsoftheold.exorcism.entity.system.SystemScheduler;
+
+public class ChangeTicksTest {
+
+    /**
+     * System that processes changed positions and changes them again.
+     */
+    private static class MoveSystem implements System {
+
+        int processed;
+
+        @Override
+        public void process(float tpf, Entity entity) {
+            entity.markChanged(PositionComponent.class);
+            processed++;
+        }
+
+        @Override
+        public Aspect getAspect() {
+            return Aspect.ANY.changed(PositionComponent.class);
+        }
+    }
+
+    @Test
+    public void schedulerSkipsOwnChanges() {
+        EntityStorage storage = new EntityStorage(16);
+        Entity entity = storage.createEntity();
+        entity.addComponent(new PositionComponent(), 0);
+        MoveSystem system = new MoveSystem();
+        SystemScheduler scheduler = new SystemScheduler(Runnable::run);
+        scheduler.add(system);
+
+        scheduler.run(1, storage);
+        assertEquals(1, system.processed);
+        scheduler.run(1, storage);
+        assertEquals(1, system.processed);
+
+        entity.markChanged(PositionComponent.class);
+        scheduler.run(1, storage);
+        assertEquals(2, system.processed);
+    }
+
+    @Test
+    public void iteratorSkipsOwnChanges() {
+        EntityStorage storage = new EntityStorage(16);
+        Entity entity = storage.createEntity();
+        entity.addComponent(new PositionComponent(), 0);
+        List<Entity> entities = new ArrayList<>(Collections.singletonList(entity));
+        MoveSystem system = new MoveSystem();
+        SimpleIterator iterator = new SimpleIterator(Collections.singletonList(system));
+
+        iterator.process(1, entities.iterator());
+        assertEquals(1, system.processed);
+        iterator.process(1, entities.iterator());
+        assertEquals(1, system.processed);
+
+        entity.markChanged(PositionComponent.class);
+        iterator.process(1, entities.iterator());
+        assertEquals(2, system.processed);
+    }
+
+    @Test
+    public void clamp() {
+        assertEquals(100, ChangeTicks.clamp(100, 200));
+        assertEquals(5, ChangeTicks.clamp(5, 5 + ChangeTicks.MAX_AGE));
+        assertEquals(6, ChangeTicks.clamp(5, 6 + ChangeTicks.MAX_AGE));
+        assertEquals(Integer.MIN_VALUE - ChangeTicks.MAX_AGE, ChangeTicks.clamp(1, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void clampedTicksSurviveWraparound() {
+        EntityStorage storage = new EntityStorage(16);
+        Entity entity = storage.createEntity();
+        entity.addComponent(new PositionComponent(), 0);
+        Chunk chunk = entity.getChunk();
+        int changed = 5;
+        chunk.markChanged(0, entity.getRow(), changed);
+
+        // Far enough that unclamped tick would look newer than now
+        int now = changed + Integer.MAX_VALUE + 100;
+        int since = now - 10;
+        assertTrue(ChangeTicks.isNewer(chunk.getChangeTick(0, entity.getRow()), since));
+
+        // Clamped in time, before ticks are 2^31 apart
+        chunk.clampChangeTicks(changed + ChangeTicks.MAX_AGE + ChangeTicks.CLAMP_INTERVAL);
+        assertFalse(ChangeTicks.isNewer(chunk.getChangeTick(0, entity.getRow()), since));
+        assertFalse(chunk.isColumnChangedSince(0, since));
+        assertTrue(ChangeTicks.isNewer(now, since));
+    }
+}
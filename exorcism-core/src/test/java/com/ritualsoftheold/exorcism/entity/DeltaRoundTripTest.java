@@ -0,0 +1,154 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.component.VelocityComponent;
+
+public class DeltaRoundTripTest {
+
+    @Test
+    public void exactOnHeap() {
+        roundTrip(false, 0);
+    }
+
+    @Test
+    public void exactOffHeap() {
+        roundTrip(true, 0);
+    }
+
+    @Test
+    public void quantizedOnHeap() {
+        roundTrip(false, 0.01);
+    }
+
+    @Test
+    public void quantizedOffHeap() {
+        roundTrip(true, 0.01);
+    }
+
+    private static EntityStorage newStorage(boolean offHeap) {
+        EntityStorage storage = new EntityStorage(4);
+        if (offHeap) {
+            storage.storeOffHeap(PositionComponent.class);
+            storage.storeOffHeap(VelocityComponent.class);
+        }
+        return storage;
+    }
+
+    private static PositionComponent position(float x, float y, float z) {
+        PositionComponent position = new PositionComponent();
+        position.x = x;
+        position.y = y;
+        position.z = z;
+        return position;
+    }
+
+    private static VelocityComponent velocity(float x, float y, float z) {
+        VelocityComponent velocity = new VelocityComponent();
+        velocity.x = x;
+        velocity.y = y;
+        velocity.z = z;
+        return velocity;
+    }
+
+    /**
+     * Replicates spawns, changes and despawns of entities, and checks
+     * after each frame that decoding side mirrors encoding side.
+     * @param offHeap Whether components are stored off-heap, on both sides.
+     * @param precision Quantization step, or 0 for exact values.
+     */
+    private void roundTrip(boolean offHeap, double precision) {
+        EntityStorage source = newStorage(offHeap);
+        EntityStorage target = newStorage(offHeap);
+        DeltaSchema schema = new DeltaSchema().track(PositionComponent.class, precision)
+                .track(VelocityComponent.class, precision);
+        LoopbackSink sink = new LoopbackSink(new DeltaDecoder(target, schema));
+        DeltaEncoder encoder = new DeltaEncoder(source, schema, sink);
+        List<Entity> entities = new ArrayList<>();
+
+        // Spawns, more than fit in one chunk
+        for (int i = 0; i < 10; i++) {
+            Entity entity = source.createEntity();
+            entity.addComponent(position(i * 1.234f, -i, 1e-3f * i), 0);
+            if (i % 3 == 0) {
+                entity.addComponent(velocity(0.5f, i / 7f, -100.125f), 0);
+            }
+            entities.add(entity);
+        }
+        encoder.encode();
+        assertMirrored(sink.getDecoder(), entities, target, precision);
+
+        // Changes, and components added and removed
+        for (Entity entity : entities) {
+            PositionComponent position = (PositionComponent) entity.getComponent(PositionComponent.class, 0);
+            entity.addComponent(position(position.x + 0.75f, position.y, position.z - 3.3f), 0);
+        }
+        entities.get(1).addComponent(velocity(1, 2, 3), 0);
+        entities.get(3).removeComponent(VelocityComponent.class, 0);
+        entities.get(4).removeComponent(PositionComponent.class, 0);
+        encoder.encode();
+        assertMirrored(sink.getDecoder(), entities, target, precision);
+
+        // Nothing changed, frame has no updates
+        long bytes = sink.getBytes();
+        encoder.encode();
+        assertEquals(3, sink.getBytes() - bytes); // Tick and two counts
+        assertMirrored(sink.getDecoder(), entities, target, precision);
+
+        // Despawns, and a spawn that reuses a registry slot
+        Entity despawned = entities.remove(2);
+        despawned.destroy();
+        Entity reused = source.createEntity();
+        assertEquals(EntityRegistry.index(despawned.getId()), EntityRegistry.index(reused.getId()));
+        reused.addComponent(velocity(-1, -2, -3), 0);
+        entities.add(reused);
+        Entity gone = entities.remove(0);
+        gone.destroy();
+        encoder.encode();
+        assertNull(sink.getDecoder().get(despawned.getId()));
+        assertNull(sink.getDecoder().get(gone.getId()));
+        assertMirrored(sink.getDecoder(), entities, target, precision);
+        assertEquals(4, sink.getFrames());
+    }
+
+    private static void assertMirrored(DeltaDecoder decoder, List<Entity> entities, EntityStorage target,
+            double precision) {
+        assertEquals(entities.size(), target.size());
+        for (Entity entity : entities) {
+            Entity mirror = decoder.get(entity.getId());
+            assertNotNull(mirror);
+            assertEquals(entity.getSignature(), mirror.getSignature());
+
+            PositionComponent position = (PositionComponent) entity.getComponent(PositionComponent.class, 0);
+            if (position != null) {
+                PositionComponent other = (PositionComponent) mirror.getComponent(PositionComponent.class, 0);
+                assertValue(position.x, other.x, precision);
+                assertValue(position.y, other.y, precision);
+                assertValue(position.z, other.z, precision);
+            }
+            VelocityComponent velocity = (VelocityComponent) entity.getComponent(VelocityComponent.class, 0);
+            if (velocity != null) {
+                VelocityComponent other = (VelocityComponent) mirror.getComponent(VelocityComponent.class, 0);
+                assertValue(velocity.x, other.x, precision);
+                assertValue(velocity.y, other.y, precision);
+                assertValue(velocity.z, other.z, precision);
+            }
+        }
+    }
+
+    private static void assertValue(float expected, float actual, double precision) {
+        if (precision == 0) {
+            assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual));
+        } else {
+            assertEquals(expected, actual, precision / 2 + 1e-4);
+        }
+    }
+}
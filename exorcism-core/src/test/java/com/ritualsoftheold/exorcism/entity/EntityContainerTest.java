@@ -0,0 +1,53 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class EntityContainerTest {
+
+    @Test
+    public void removeEntities() {
+        EntityStorage storage = new EntityStorage(16);
+        EntityContainer container = new EntityContainer(64, 0, 0, 0);
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Entity entity = storage.createEntity();
+            entity.setX(i);
+            container.addEntity(entity);
+            entities.add(entity);
+        }
+
+        // First, last, and one that was swapped to the middle
+        for (int i : new int[] {0, 9, 8, 4}) {
+            Entity entity = entities.get(i);
+            container.removeEntity(entity);
+            assertNull(entity.getContainer());
+            container.removeEntity(entity); // Not there anymore
+        }
+        EntityContainer other = new EntityContainer(64, 0, 0, 0);
+        container.removeEntity(entities.get(1));
+        other.removeEntity(entities.get(2)); // In another container
+
+        assertEquals(5, container.getSpatialIndex().size());
+        Set<Entity> remaining = new HashSet<>(entities.subList(2, 8));
+        remaining.remove(entities.get(4));
+        assertEquals(remaining, new HashSet<>(container.getEntities()));
+        assertEquals(remaining.size(), container.getEntities().size());
+        for (Entity entity : container.getEntities()) {
+            assertSame(container, entity.getContainer());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void entitiesAreUnmodifiable() {
+        new EntityContainer(64, 0, 0, 0).getEntities().add(new EntityStorage(16).createEntity());
+    }
+}
@@ -0,0 +1,62 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SpatialIndexTest {
+
+    private static Entity entityAt(EntityStorage storage, float x, float y, float z) {
+        Entity entity = storage.createEntity();
+        entity.setX(x);
+        entity.setY(y);
+        entity.setZ(z);
+        return entity;
+    }
+
+    @Test(timeout = 5000)
+    public void nearestInEmptyIndex() {
+        SpatialIndex index = new SpatialIndex(1);
+        assertTrue(index.nearest(10, 10, 10, 1, Float.POSITIVE_INFINITY).isEmpty());
+        assertTrue(index.nearest(10, 10, 10, 1, 1000).isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void nearestAfterAllRemoved() {
+        SpatialIndex index = new SpatialIndex(1);
+        Entity entity = entityAt(new EntityStorage(16), 0, 0, 0);
+        index.add(entity);
+        index.remove(entity);
+        assertTrue(index.nearest(1e9f, 1e9f, 1e9f, 1, Float.POSITIVE_INFINITY).isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void nearestWithUnboundedDistance() {
+        SpatialIndex index = new SpatialIndex(1);
+        EntityStorage storage = new EntityStorage(16);
+        Entity near = entityAt(storage, 1, 0, 0);
+        Entity middle = entityAt(storage, 5, 0, 0);
+        Entity far = entityAt(storage, 20, 0, 0);
+        index.add(far);
+        index.add(near);
+        index.add(middle);
+
+        for (float maxDistance : new float[] {Float.POSITIVE_INFINITY, 1e10f}) {
+            List<Entity> found = index.nearest(0, 0, 0, 5, maxDistance);
+            assertEquals(3, found.size());
+            assertEquals(near, found.get(0));
+            assertEquals(middle, found.get(1));
+            assertEquals(far, found.get(2));
+        }
+        assertEquals(1, index.nearest(0, 0, 0, 3, 2).size());
+        assertTrue(index.nearest(0, 0, 0, 0, 100).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateUnindexed() {
+        new SpatialIndex(1).update(entityAt(new EntityStorage(16), 0, 0, 0));
+    }
+}
@@ -0,0 +1,58 @@
+package com.ritualsoftheold.exorcism.entity.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ComponentPoolTest {
+
+    public static class CounterComponent extends Component {
+
+        public int count;
+    }
+
+    public static class ResettingComponent extends CounterComponent {
+
+        @Override
+        protected void reset() {
+            count = 0;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresReset() {
+        new ComponentPool<>(CounterComponent.class, CounterComponent::new);
+    }
+
+    @Test
+    public void resetByOverride() {
+        ComponentPool<ResettingComponent> pool = new ComponentPool<>(ResettingComponent.class,
+                ResettingComponent::new);
+        ResettingComponent component = pool.obtain();
+        component.count = 5;
+        pool.release(component);
+        assertSame(component, pool.obtain());
+        assertEquals(0, component.count);
+    }
+
+    @Test
+    public void resetByCallback() {
+        ComponentPool<CounterComponent> pool = new ComponentPool<>(CounterComponent.class,
+                CounterComponent::new, component -> component.count = -1);
+        CounterComponent component = pool.obtain();
+        component.count = 5;
+        pool.release(component);
+        assertSame(component, pool.obtain());
+        assertEquals(-1, component.count);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releaseTwice() {
+        ComponentPool<ResettingComponent> pool = new ComponentPool<>(ResettingComponent.class,
+                ResettingComponent::new);
+        ResettingComponent component = pool.obtain();
+        pool.release(component);
+        pool.release(component);
+    }
+}
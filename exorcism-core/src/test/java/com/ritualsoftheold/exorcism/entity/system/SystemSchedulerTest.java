@@ -0,0 +1,80 @@
+package com.ritualsoftheold.exorcism.entity.system;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ritualsoftheold.exorcism.entity.Entity;
+import com.ritualsoftheold.exorcism.entity.component.ColliderComponent;
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.component.VelocityComponent;
+
+public class SystemSchedulerTest {
+
+    private static System withAccess(ComponentAccess access) {
+        return new System() {
+
+            @Override
+            public void process(float tpf, Entity entity) {
+                // Only ordering matters
+            }
+
+            @Override
+            public ComponentAccess getAccess() {
+                return access;
+            }
+        };
+    }
+
+    @Test
+    public void hazardsFollowExplicitOrder() {
+        // A and B conflict on position, B and C on velocity
+        System a = withAccess(ComponentAccess.NONE.write(PositionComponent.class));
+        System b = withAccess(ComponentAccess.NONE.read(PositionComponent.class).write(VelocityComponent.class));
+        System c = withAccess(ComponentAccess.NONE.read(VelocityComponent.class).write(ColliderComponent.class));
+        SystemScheduler scheduler = new SystemScheduler(Runnable::run);
+        scheduler.add(a);
+        scheduler.add(b);
+        scheduler.add(c);
+        scheduler.order(c, a);
+
+        List<System> order = new ArrayList<>();
+        for (List<System> phase : scheduler.getPhases()) {
+            assertEquals(1, phase.size());
+            order.addAll(phase);
+        }
+        // B is not constrained, so it keeps its place before C
+        assertEquals(Arrays.asList(b, c, a), order);
+    }
+
+    @Test
+    public void hazardsInRegistrationOrder() {
+        System a = withAccess(ComponentAccess.NONE.write(PositionComponent.class));
+        System b = withAccess(ComponentAccess.NONE.read(PositionComponent.class));
+        System c = withAccess(ComponentAccess.NONE.read(PositionComponent.class));
+        SystemScheduler scheduler = new SystemScheduler(Runnable::run);
+        scheduler.add(b);
+        scheduler.add(a);
+        scheduler.add(c);
+
+        // Readers don't conflict with each other, only with the writer
+        List<List<System>> phases = scheduler.getPhases();
+        assertEquals(Arrays.asList(Arrays.asList(b), Arrays.asList(a), Arrays.asList(c)), phases);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void explicitCycle() {
+        System a = withAccess(ComponentAccess.NONE);
+        System b = withAccess(ComponentAccess.NONE);
+        SystemScheduler scheduler = new SystemScheduler(Runnable::run);
+        scheduler.add(a);
+        scheduler.add(b);
+        scheduler.order(a, b);
+        scheduler.order(b, a);
+        scheduler.getPhases();
+    }
+}
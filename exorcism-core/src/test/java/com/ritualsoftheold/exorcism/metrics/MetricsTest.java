@@ -0,0 +1,33 @@
+package com.ritualsoftheold.exorcism.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test(timeout = 10000)
+    public void unusedSystemsAreCollected() throws InterruptedException {
+        Metrics.reset();
+        Object kept = new Object();
+        Object dropped = new Object();
+        SystemMetrics metrics = Metrics.forSystem(kept);
+        assertSame(metrics, Metrics.forSystem(kept));
+        Metrics.forSystem(dropped);
+        assertEquals(2, Metrics.getSystems().size());
+
+        WeakReference<Object> ref = new WeakReference<>(dropped);
+        dropped = null;
+        while (ref.get() != null || Metrics.getSystems().size() != 1) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertSame(metrics, Metrics.getSystems().iterator().next());
+        assertSame(metrics, Metrics.forSystem(kept));
+    }
+}
@@ -0,0 +1,368 @@
+package com.ritualsoftheold.exorcism.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ConcurrentLinkedArrayTest {
+
+    private static final int threads = 8;
+
+    private static final int perThread = 20000;
+
+    /**
+     * Collection that counts compactions that were done.
+     */
+    private static class CountingArray extends ConcurrentLinkedArray<Integer> {
+
+        final AtomicInteger compactions = new AtomicInteger();
+
+        CountingArray(int arraySize, int compactTreshold, boolean striped) {
+            super(arraySize, compactTreshold, striped);
+        }
+
+        @Override
+        protected boolean tryCompact(Object[] target) {
+            boolean compacted = super.tryCompact(target);
+            if (compacted) {
+                compactions.incrementAndGet();
+            }
+            return compacted;
+        }
+    }
+
+    /**
+     * Counts how many times each value is in a collection.
+     * @param array Collection.
+     * @param max Values are below this.
+     * @return Counts by value.
+     */
+    private static int[] countValues(ConcurrentLinkedArray<Integer> array, int max) {
+        int[] counts = new int[max];
+        for (Integer value : array) {
+            counts[value]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Runs an action on many threads at once and waits for them.
+     * @param count Thread count.
+     * @param action Action, given index of thread.
+     */
+    private static void runThreads(int count, ThreadAction action) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> started = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    action.run(index);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            started.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : started) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError("thread failed", error.get());
+        }
+    }
+
+    private interface ThreadAction {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Checks that a collection has values of adding threads once each, and
+     * values of each thread in order they were added.
+     * @param array Collection.
+     * @param adders Count of adding threads.
+     */
+    private static void assertAddedInOrder(ConcurrentLinkedArray<Integer> array, int adders) {
+        int[] last = new int[adders];
+        Arrays.fill(last, -1);
+        int size = 0;
+        for (Integer value : array) {
+            int thread = value / perThread;
+            assertTrue("out of order: " + value, value % perThread > last[thread]);
+            last[thread] = value % perThread;
+            size++;
+        }
+        assertEquals(adders * perThread, size);
+    }
+
+    @Test
+    public void addAndIterate() {
+        ConcurrentLinkedArray<Integer> array = new ConcurrentLinkedArray<>(10, 4);
+        for (int i = 0; i < 100; i++) {
+            array.add(i);
+        }
+        int expected = 0;
+        for (Integer value : array) {
+            assertEquals(expected++, (int) value);
+        }
+        assertEquals(100, expected);
+    }
+
+    @Test
+    public void concurrentAddRemoveCompact() throws InterruptedException {
+        addRemoveCompact(false);
+    }
+
+    @Test
+    public void concurrentAddRemoveCompactStriped() throws InterruptedException {
+        addRemoveCompact(true);
+    }
+
+    /**
+     * Adds entries from many threads while others remove even ones with
+     * iterators, so that arrays are compacted under them. No odd entry
+     * may be lost or duplicated.
+     * @param striped Whether to use striped mode.
+     */
+    private void addRemoveCompact(boolean striped) throws InterruptedException {
+        CountingArray array = new CountingArray(34, 4, striped);
+        int adders = threads - 2;
+        AtomicBoolean adding = new AtomicBoolean(true);
+        AtomicInteger addersLeft = new AtomicInteger(adders);
+        runThreads(threads, thread -> {
+            if (thread < adders) {
+                for (int i = 0; i < perThread; i++) {
+                    array.add(thread * perThread + i);
+                }
+                array.flush();
+                if (addersLeft.decrementAndGet() == 0) {
+                    adding.set(false);
+                }
+            } else {
+                do { // Remove even entries until all adds are done
+                    Iterator<Integer> it = array.iterator();
+                    while (it.hasNext()) {
+                        if (it.next() % 2 == 0) {
+                            it.remove();
+                        }
+                    }
+                } while (adding.get());
+            }
+        });
+
+        // Removers may have finished before last entries were added
+        Iterator<Integer> it = array.iterator();
+        while (it.hasNext()) {
+            if (it.next() % 2 == 0) {
+                it.remove();
+            }
+        }
+
+        int[] counts = countValues(array, adders * perThread);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("count of " + i, i % 2 == 0 ? 0 : 1, counts[i]);
+        }
+        assertTrue("nothing was compacted", array.compactions.get() > 0);
+    }
+
+    @Test
+    public void removeAfterCompaction() {
+        // 8 entries per array; first array is never compacted
+        CountingArray array = new CountingArray(10, 2, false);
+        for (int i = 0; i < 41; i++) {
+            array.add(i);
+        }
+
+        // Stop on 9, in second array
+        Iterator<Integer> stale = array.iterator();
+        while (stale.next() != 9) {
+            // Skip entries before it
+        }
+
+        // Remove rest of second array, so that it is compacted when left
+        Iterator<Integer> remover = array.iterator();
+        while (remover.hasNext()) {
+            int value = remover.next();
+            if (value >= 10 && value < 16) {
+                remover.remove();
+            }
+        }
+        assertEquals(1, array.compactions.get());
+
+        // 9 is removed from old array, and must be removed from replacement
+        stale.remove();
+        int[] counts = countValues(array, 41);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("count of " + i, i == 9 || (i >= 10 && i < 16) ? 0 : 1, counts[i]);
+        }
+    }
+
+    @Test
+    public void concurrentAddAll() throws InterruptedException {
+        ConcurrentLinkedArray<Integer> array = new ConcurrentLinkedArray<>(34, 4);
+        runThreads(threads, thread -> {
+            Integer[] values = new Integer[perThread];
+            for (int i = 0; i < perThread; i++) {
+                values[i] = thread * perThread + i;
+            }
+            boolean collection = false;
+            int offset = 0;
+            while (offset < perThread) {
+                int length = Math.min(1 + offset % 45, perThread - offset); // Some don't fit in one array
+                if (collection) {
+                    array.addAll(Arrays.asList(values).subList(offset, offset + length));
+                } else {
+                    array.addAll(values, offset, length);
+                }
+                collection = !collection;
+                offset += length;
+            }
+        });
+        assertAddedInOrder(array, threads);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addAllOutOfBounds() {
+        new ConcurrentLinkedArray<Integer>(10, 4).addAll(new Integer[4], 2, 3);
+    }
+
+    @Test
+    public void stripedAdds() throws InterruptedException {
+        ConcurrentLinkedArray<Integer> array = new ConcurrentLinkedArray<>(66, 16, true);
+        assertTrue(array.isStriped());
+        AtomicBoolean adding = new AtomicBoolean(true);
+        AtomicInteger addersLeft = new AtomicInteger(threads);
+        runThreads(threads + 1, thread -> {
+            if (thread < threads) {
+                for (int i = 0; i < perThread; i += 100) {
+                    array.add(thread * perThread + i); // Single adds and batches
+                    Integer[] batch = new Integer[99];
+                    for (int j = 0; j < batch.length; j++) {
+                        batch[j] = thread * perThread + i + 1 + j;
+                    }
+                    array.addAll(batch);
+                }
+                array.flush();
+                if (addersLeft.decrementAndGet() == 0) {
+                    adding.set(false);
+                }
+            } else {
+                do { // Iterate while adds are in progress
+                    int[] counts = countValues(array, threads * perThread);
+                    for (int count : counts) {
+                        assertTrue("entry seen twice", count <= 1);
+                    }
+                } while (adding.get());
+            }
+        });
+
+        assertAddedInOrder(array, threads);
+    }
+
+    @Test
+    public void stripedFlush() {
+        // 8 entries per array
+        CountingArray array = new CountingArray(10, 2, true);
+        for (int i = 0; i < 11; i++) {
+            array.add(i);
+        }
+        int[] counts = countValues(array, 11);
+        for (int i = 0; i < counts.length; i++) { // Only full segment is visible
+            assertEquals("count of " + i, i < 8 ? 1 : 0, counts[i]);
+        }
+
+        array.flush();
+        array.flush(); // Nothing more to flush
+        array.add(11);
+        array.flush();
+        counts = countValues(array, 12);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("count of " + i, 1, counts[i]);
+        }
+
+        // Free slots of flushed segments don't prevent compaction
+        Iterator<Integer> it = array.iterator();
+        while (it.hasNext()) {
+            if (it.next() < 6) {
+                it.remove();
+            }
+        }
+        array.forEach(value -> {});
+        assertTrue("nothing was compacted", array.compactions.get() > 0);
+        counts = countValues(array, 12);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("count of " + i, i < 6 ? 0 : 1, counts[i]);
+        }
+    }
+
+    @Test
+    public void spliteratorSizesWithRemovals() {
+        ConcurrentLinkedArray<Integer> array = new ConcurrentLinkedArray<>(10, 2);
+        for (int i = 0; i < 200; i++) {
+            array.add(i);
+        }
+        Iterator<Integer> it = array.iterator(); // Removed before split
+        while (it.hasNext()) {
+            if (it.next() % 3 == 0) {
+                it.remove();
+            }
+        }
+        int live = 200 - 67; // Multiples of 3 are gone
+
+        // Split down to single arrays
+        List<ConcurrentLinkedArray<Integer>.ArraySpliterator> parts = new ArrayList<>();
+        List<ConcurrentLinkedArray<Integer>.ArraySpliterator> pending = new ArrayList<>();
+        pending.add(array.spliterator());
+        while (!pending.isEmpty()) {
+            ConcurrentLinkedArray<Integer>.ArraySpliterator part = pending.remove(pending.size() - 1);
+            ConcurrentLinkedArray<Integer>.ArraySpliterator prefix = part.trySplit();
+            if (prefix != null) {
+                pending.add(part);
+                pending.add(prefix);
+            } else {
+                parts.add(part);
+            }
+        }
+        assertTrue(parts.size() > 1);
+
+        // Remove odd entries while traversing; sizes must still match
+        int visited = 0;
+        for (ConcurrentLinkedArray<Integer>.ArraySpliterator part : parts) {
+            long size = part.getExactSizeIfKnown(); // -1 for last range, it is open
+            AtomicInteger count = new AtomicInteger();
+            part.retainRemaining(value -> {
+                count.incrementAndGet();
+                return value % 2 == 0;
+            });
+            if (size != -1) {
+                assertTrue(part.hasCharacteristics(Spliterator.SUBSIZED));
+                assertEquals(size, count.get());
+                assertEquals(0, part.estimateSize());
+            }
+            visited += count.get();
+        }
+        assertEquals(live, visited);
+
+        int[] counts = countValues(array, 200);
+        for (int i = 0; i < counts.length; i++) {
+            assertEquals("count of " + i, i % 3 != 0 && i % 2 == 0 ? 1 : 0, counts[i]);
+        }
+        assertFalse(array.spliterator().hasCharacteristics(Spliterator.SIZED));
+    }
+}
@@ -0,0 +1,105 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ritualsoftheold.exorcism.entity.collision.BroadPhase;
+import com.ritualsoftheold.exorcism.entity.collision.PairBuffer;
+
+/**
+ * Measures one tick of finding overlapping pairs while entities move a
+ * bit, with {@link BroadPhase} and by testing every pair of entities.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class BroadPhaseBenchmark {
+
+    @Param({"1000", "10000"})
+    public int entities;
+
+    @Param({"1", "8"})
+    public int containers;
+
+    private List<EntityContainer> list;
+
+    private BroadPhase broadPhase;
+
+    private PairBuffer naivePairs;
+
+    private Random random;
+
+    @Setup
+    public void setup() {
+        EntityStorage storage = new EntityStorage();
+        random = new Random(0);
+        list = new ArrayList<>();
+        for (int i = 0; i < containers; i++) {
+            EntityContainer container = new EntityContainer(256, i * 256, 0, 0);
+            for (int j = 0; j < entities / containers; j++) {
+                Entity entity = storage.createEntity();
+                entity.setX(container.x + random.nextFloat() * 256);
+                entity.setY(random.nextFloat() * 256);
+                entity.setZ(random.nextFloat() * 256);
+                container.addEntity(entity);
+            }
+            list.add(container);
+        }
+        broadPhase = new BroadPhase(1);
+        broadPhase.update(list);
+        naivePairs = new PairBuffer();
+    }
+
+    private void move() {
+        for (EntityContainer container : list) {
+            for (Entity entity : container.getEntities()) {
+                entity.setX(entity.getX() + random.nextFloat() - 0.5f);
+            }
+        }
+    }
+
+    @Benchmark
+    public PairBuffer sweepAndPrune() {
+        move();
+        broadPhase.update(list);
+        return broadPhase.getPairs();
+    }
+
+    @Benchmark
+    public PairBuffer naive() {
+        move();
+        naivePairs.clear();
+        for (EntityContainer container : list) {
+            Entity[] array = container.getEntities().toArray(new Entity[0]);
+            for (int i = 0; i < array.length; i++) {
+                Entity a = array[i];
+                for (int j = i + 1; j < array.length; j++) {
+                    Entity b = array[j];
+                    if (Math.abs(a.getX() - b.getX()) <= 2 && Math.abs(a.getY() - b.getY()) <= 2
+                            && Math.abs(a.getZ() - b.getZ()) <= 2) {
+                        naivePairs.add(a, b);
+                    }
+                }
+            }
+        }
+        return naivePairs;
+    }
+}
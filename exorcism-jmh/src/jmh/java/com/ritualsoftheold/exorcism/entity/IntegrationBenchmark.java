@@ -0,0 +1,105 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.component.VelocityComponent;
+import com.ritualsoftheold.exorcism.entity.system.Aspect;
+import com.ritualsoftheold.exorcism.entity.system.ComponentAccess;
+import com.ritualsoftheold.exorcism.entity.system.IntegrationSystem;
+import com.ritualsoftheold.exorcism.entity.system.System;
+import com.ritualsoftheold.exorcism.entity.system.SystemScheduler;
+
+/**
+ * Measures one tick of moving entities by their velocities, with
+ * {@link IntegrationSystem} and with a system that processes one entity at
+ * a time. Systems run on calling thread.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class IntegrationBenchmark {
+
+    @Param({"10000", "100000"})
+    public int entities;
+
+    @Param({"true", "false"})
+    public boolean offHeap;
+
+    private EntityStorage storage;
+
+    private SystemScheduler bulk;
+
+    private SystemScheduler perEntity;
+
+    @Setup
+    public void setup() {
+        storage = new EntityStorage();
+        if (offHeap) {
+            storage.storeOffHeap(PositionComponent.class);
+            storage.storeOffHeap(VelocityComponent.class);
+        }
+        for (int i = 0; i < entities; i++) {
+            Entity entity = storage.createEntity();
+            entity.addComponent(new PositionComponent(), 0);
+            VelocityComponent velocity = new VelocityComponent();
+            velocity.x = 1;
+            velocity.y = 2;
+            velocity.z = 3;
+            entity.addComponent(velocity, 0);
+        }
+
+        bulk = new SystemScheduler(Runnable::run);
+        bulk.add(new IntegrationSystem());
+
+        perEntity = new SystemScheduler(Runnable::run);
+        perEntity.add(new System() {
+
+            @Override
+            public void process(float tpf, Entity entity) {
+                PositionComponent pos = (PositionComponent) entity.getComponent(PositionComponent.class, 0);
+                VelocityComponent vel = (VelocityComponent) entity.getComponent(VelocityComponent.class, 0);
+                pos.x += vel.x * tpf;
+                pos.y += vel.y * tpf;
+                pos.z += vel.z * tpf;
+                entity.addComponent(pos, 0); // Needed to store off-heap copy back
+            }
+
+            @Override
+            public Aspect getAspect() {
+                return Aspect.ANY.require(PositionComponent.class, VelocityComponent.class);
+            }
+
+            @Override
+            public ComponentAccess getAccess() {
+                return ComponentAccess.NONE.read(VelocityComponent.class).write(PositionComponent.class);
+            }
+        });
+    }
+
+    @Benchmark
+    public void bulk() {
+        bulk.run(0.05f, storage);
+    }
+
+    @Benchmark
+    public void perEntity() {
+        perEntity.run(0.05f, storage);
+    }
+}
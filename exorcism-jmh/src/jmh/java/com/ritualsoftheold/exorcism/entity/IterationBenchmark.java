@@ -0,0 +1,90 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+import com.ritualsoftheold.exorcism.entity.system.SimpleIterator;
+import com.ritualsoftheold.exorcism.entity.system.System;
+import com.ritualsoftheold.exorcism.util.ConcurrentLinkedArray;
+
+/**
+ * Measures one tick of {@link SimpleIterator} with a system that moves
+ * every entity. Entities are held in a {@link ConcurrentLinkedArray}, or
+ * in one of baseline collections.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class IterationBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int entities;
+
+    private ConcurrentLinkedArray<Entity> array;
+
+    private ConcurrentLinkedQueue<Entity> queue;
+
+    private CopyOnWriteArrayList<Entity> copyOnWrite;
+
+    private SimpleIterator iterator;
+
+    @Setup
+    public void setup() {
+        EntityStorage storage = new EntityStorage();
+        List<Entity> list = new ArrayList<>(entities);
+        for (int i = 0; i < entities; i++) {
+            Entity entity = storage.createEntity();
+            entity.addComponent(new PositionComponent(), 0);
+            list.add(entity);
+        }
+
+        array = new ConcurrentLinkedArray<>(1024, 64);
+        for (Entity entity : list) {
+            array.add(entity);
+        }
+        queue = new ConcurrentLinkedQueue<>(list);
+        copyOnWrite = new CopyOnWriteArrayList<>(list);
+
+        System mover = (tpf, entity) -> {
+            PositionComponent pos = (PositionComponent) entity.getComponent(PositionComponent.class, 0);
+            pos.x += tpf;
+        };
+        iterator = new SimpleIterator(Collections.singletonList(mover));
+    }
+
+    @Benchmark
+    public void concurrentLinkedArray() {
+        iterator.process(0.05f, array.iterator());
+    }
+
+    @Benchmark
+    public void concurrentLinkedQueue() {
+        iterator.process(0.05f, queue.iterator());
+    }
+
+    @Benchmark
+    public void copyOnWriteArrayList() {
+        iterator.process(0.05f, copyOnWrite.iterator());
+    }
+}
@@ -0,0 +1,158 @@
+package com.ritualsoftheold.exorcism.entity;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ritualsoftheold.exorcism.entity.component.Component;
+import com.ritualsoftheold.exorcism.entity.component.ComponentType;
+import com.ritualsoftheold.exorcism.entity.component.PositionComponent;
+
+/**
+ * Measures {@link Entity#getComponent(Class, int)} when the component is
+ * found and when it is not. The grown entity has had components added one
+ * by one, so it has moved through several archetypes; this used to be
+ * the case where its component table had been doubled.
+ *
+ * <p>Hinted benchmarks pass the correct {@link ComponentType} id, the
+ * others a wrong one, which falls back to lookup by class.
+ *
+ * <p>Baseline is a per-entity identity map, which is what entities would
+ * be without archetype storage.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class LookupBenchmark {
+
+    public static class A extends Component {
+        public A() {
+            super(1);
+        }
+    }
+
+    public static class B extends Component {
+        public B() {
+            super(2);
+        }
+    }
+
+    public static class C extends Component {
+        public C() {
+            super(3);
+        }
+    }
+
+    public static class D extends Component {
+        public D() {
+            super(4);
+        }
+    }
+
+    public static class E extends Component {
+        public E() {
+            super(5);
+        }
+    }
+
+    public static class F extends Component {
+        public F() {
+            super(6);
+        }
+    }
+
+    public static class G extends Component {
+        public G() {
+            super(7);
+        }
+    }
+
+    /**
+     * Type that no entity has.
+     */
+    public static class Missing extends Component {
+        public Missing() {
+            super(8);
+        }
+    }
+
+    private static final int positionId = ComponentType.idOf(PositionComponent.class);
+
+    private Entity small;
+
+    private Entity grown;
+
+    private Map<Class<?>, Component> map;
+
+    @Setup
+    public void setup() {
+        EntityStorage storage = new EntityStorage();
+        small = storage.createEntity();
+        small.addComponent(new PositionComponent(), 0);
+        small.addComponent(new A(), 1);
+
+        grown = storage.createEntity();
+        map = new IdentityHashMap<>();
+        Component[] components = {new A(), new B(), new C(), new D(), new E(), new F(), new G(),
+                new PositionComponent()};
+        for (Component component : components) {
+            grown.addComponent(component, 0);
+            map.put(component.getClass(), component);
+        }
+    }
+
+    @Benchmark
+    public Component hit() {
+        return small.getComponent(PositionComponent.class, -1);
+    }
+
+    @Benchmark
+    public Component hintedHit() {
+        return small.getComponent(PositionComponent.class, positionId);
+    }
+
+    @Benchmark
+    public Component miss() {
+        return small.getComponent(Missing.class, 8);
+    }
+
+    @Benchmark
+    public Component grownHit() {
+        return grown.getComponent(PositionComponent.class, -1);
+    }
+
+    @Benchmark
+    public Component grownHintedHit() {
+        return grown.getComponent(PositionComponent.class, positionId);
+    }
+
+    @Benchmark
+    public Component grownMiss() {
+        return grown.getComponent(Missing.class, 8);
+    }
+
+    @Benchmark
+    public Component mapHit() {
+        return map.get(PositionComponent.class);
+    }
+
+    @Benchmark
+    public Component mapMiss() {
+        return map.get(Missing.class);
+    }
+}
@@ -0,0 +1,112 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ConcurrentLinkedArray#add(Object)} with different counts
+ * of producer threads. Collections grow without bound when added to, so
+ * every iteration is a single batch of adds to a fresh collection.
+ *
+ * <p>{@link ConcurrentLinkedArray#addAll(Object[])} is measured with
+ * batches of {@link #addAllSize} entries, so it adds that many times more
+ * entries per iteration than other benchmarks.
+ *
+ * <p>Subclasses only set the thread count; JMH inherits benchmark methods.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = AddBenchmark.batchSize)
+@Measurement(iterations = 50, batchSize = AddBenchmark.batchSize)
+@Fork(2)
+public abstract class AddBenchmark {
+
+    /**
+     * Adds per thread in one iteration.
+     */
+    static final int batchSize = 10_000;
+
+    /**
+     * Entries per addAll call.
+     */
+    static final int addAllSize = 16;
+
+    private static final Integer entry = 42;
+
+    private static final Integer[] entries = new Integer[addAllSize];
+
+    static {
+        Arrays.fill(entries, entry);
+    }
+
+    private ConcurrentLinkedArray<Integer> array;
+
+    private ConcurrentLinkedArray<Integer> striped;
+
+    private Collection<Integer> queue;
+
+    private Collection<Integer> copyOnWrite;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        array = new ConcurrentLinkedArray<>(1024, 64);
+        striped = new ConcurrentLinkedArray<>(1024, 64, true);
+        queue = new ConcurrentLinkedQueue<>();
+        copyOnWrite = new CopyOnWriteArrayList<>();
+    }
+
+    @Benchmark
+    public void concurrentLinkedArray() {
+        array.add(entry);
+    }
+
+    @Benchmark
+    public void concurrentLinkedArrayAddAll() {
+        array.addAll(entries);
+    }
+
+    @Benchmark
+    public void concurrentLinkedArrayStriped() {
+        striped.add(entry);
+    }
+
+    @Benchmark
+    public boolean concurrentLinkedQueue() {
+        return queue.add(entry);
+    }
+
+    @Benchmark
+    public boolean copyOnWriteArrayList() {
+        return copyOnWrite.add(entry);
+    }
+
+    @Threads(1)
+    public static class OneProducer extends AddBenchmark {}
+
+    @Threads(2)
+    public static class TwoProducers extends AddBenchmark {}
+
+    @Threads(4)
+    public static class FourProducers extends AddBenchmark {}
+
+    @Threads(8)
+    public static class EightProducers extends AddBenchmark {}
+}
@@ -0,0 +1,138 @@
+package com.ritualsoftheold.exorcism.util;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures iteration while other threads remove entries. The remover goes
+ * through the collection, removes every {@link #removeInterval}th entry
+ * and adds same count back, so size stays constant but
+ * {@link ConcurrentLinkedArray} has skip markers to compact.
+ *
+ * <p>Copy-on-write list does not support removing through iterator,
+ * so it removes by index instead.
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class RemovalBenchmark {
+
+    private static final int removeInterval = 8;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private ConcurrentLinkedArray<Integer> array;
+
+    private Collection<Integer> queue;
+
+    private CopyOnWriteArrayList<Integer> copyOnWrite;
+
+    @Setup
+    public void setup() {
+        array = new ConcurrentLinkedArray<>(1024, 64);
+        queue = new ConcurrentLinkedQueue<>();
+        copyOnWrite = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < size; i++) {
+            array.add(i);
+            queue.add(i);
+            copyOnWrite.add(i);
+        }
+    }
+
+    private static long sum(Iterable<Integer> entries) {
+        long sum = 0;
+        for (Integer entry : entries) {
+            sum += entry;
+        }
+        return sum;
+    }
+
+    private static int removeAndReadd(Iterable<Integer> entries, Consumer<Integer> add) {
+        int removed = 0;
+        Iterator<Integer> it = entries.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            it.next();
+            if (i % removeInterval == 0) {
+                it.remove();
+                removed++;
+            }
+        }
+        for (int i = 0; i < removed; i++) {
+            add.accept(i);
+        }
+        return removed;
+    }
+
+    @Benchmark
+    @Group("concurrentLinkedArray")
+    @GroupThreads(3)
+    public long arrayIterate() {
+        return sum(array);
+    }
+
+    @Benchmark
+    @Group("concurrentLinkedArray")
+    @GroupThreads(1)
+    public int arrayRemove() {
+        return removeAndReadd(array, array::add);
+    }
+
+    @Benchmark
+    @Group("concurrentLinkedQueue")
+    @GroupThreads(3)
+    public long queueIterate() {
+        return sum(queue);
+    }
+
+    @Benchmark
+    @Group("concurrentLinkedQueue")
+    @GroupThreads(1)
+    public int queueRemove() {
+        return removeAndReadd(queue, queue::add);
+    }
+
+    @Benchmark
+    @Group("copyOnWriteArrayList")
+    @GroupThreads(3)
+    public long copyOnWriteIterate() {
+        return sum(copyOnWrite);
+    }
+
+    @Benchmark
+    @Group("copyOnWriteArrayList")
+    @GroupThreads(1)
+    public int copyOnWriteRemove() {
+        int removed = 0;
+        for (int i = copyOnWrite.size() - 1; i >= 0; i -= removeInterval) {
+            copyOnWrite.remove(i);
+            removed++;
+        }
+        for (int i = 0; i < removed; i++) {
+            copyOnWrite.add(i);
+        }
+        return removed;
+    }
+}
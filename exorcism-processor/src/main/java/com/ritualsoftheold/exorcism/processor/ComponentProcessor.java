@@ -0,0 +1,379 @@
+package com.ritualsoftheold.exorcism.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code ComponentAccessor} for each class marked with
+ * {@code @DataComponent}. Accessors access fields of components directly,
+ * so the runtime doesn't need reflection for them.
+ *
+ * <p>Marked class must be a data-only component: a concrete subclass of
+ * {@code Component} with a no-argument constructor, whose instance fields
+ * are all public, primitive and not final. Other classes are reported as
+ * errors.
+ *
+ */
+@SupportedAnnotationTypes(ComponentProcessor.dataComponent)
+public class ComponentProcessor extends AbstractProcessor {
+
+    static final String dataComponent = "com.ritualsoftheold.exorcism.entity.component.DataComponent";
+
+    private static final String component = "com.ritualsoftheold.exorcism.entity.component.Component";
+
+    private static final String accessor = "com.ritualsoftheold.exorcism.entity.component.ComponentAccessor";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(dataComponent);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@DataComponent can only be used on classes");
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            List<VariableElement> fields = validate(type);
+            if (fields != null) {
+                generate(type, fields);
+            }
+        }
+        return true;
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * Checks that a class is a data-only component.
+     * @param type Class.
+     * @return Its fields, ordered by name, or null if it is not data-only.
+     */
+    private List<VariableElement> validate(TypeElement type) {
+        boolean valid = true;
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "data component must not be abstract");
+            valid = false;
+        }
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            error(type, "data component must not be private");
+            valid = false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "nested data component must be static");
+            valid = false;
+        } else if (type.getNestingKind() != NestingKind.TOP_LEVEL && type.getNestingKind() != NestingKind.MEMBER) {
+            error(type, "data component must not be local or anonymous");
+            valid = false;
+        }
+
+        TypeElement base = processingEnv.getElementUtils().getTypeElement(component);
+        if (base == null) {
+            error(type, component + " is not on classpath");
+            return null;
+        }
+        if (!processingEnv.getTypeUtils().isSubtype(type.asType(), base.asType())) {
+            error(type, "data component must extend Component");
+            valid = false;
+        }
+
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            error(type, "data component must have a no-argument constructor");
+            valid = false;
+        }
+
+        // Same fields as StructLayout finds with reflection: all declared below Component
+        List<VariableElement> fields = new ArrayList<>();
+        for (TypeElement c = type; c != null && !c.equals(base); c = superclassOf(c)) {
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                Set<Modifier> fieldModifiers = field.getModifiers();
+                if (fieldModifiers.contains(Modifier.STATIC)) {
+                    continue;
+                }
+                if (!fieldModifiers.contains(Modifier.PUBLIC)) {
+                    error(field, "field of data component must be public");
+                    valid = false;
+                } else if (!field.asType().getKind().isPrimitive()) {
+                    error(field, "field of data component must be primitive");
+                    valid = false;
+                } else if (fieldModifiers.contains(Modifier.FINAL)) {
+                    error(field, "field of data component must not be final");
+                    valid = false;
+                }
+                fields.add(field);
+            }
+        }
+        Collections.sort(fields, Comparator.comparing(field -> field.getSimpleName().toString()));
+        return valid ? fields : null;
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return (TypeElement) processingEnv.getTypeUtils().asElement(superclass);
+    }
+
+    private void generate(TypeElement type, List<VariableElement> fields) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String qualifiedName = type.getQualifiedName().toString();
+        int prefix = packageName.isEmpty() ? 0 : packageName.length() + 1;
+        String typeName = qualifiedName.substring(prefix); // Outer.Inner for nested classes
+        String className = binaryName.substring(prefix).replace('$', '_') + "_Accessor";
+
+        try (Writer writer = processingEnv.getFiler()
+                .createSourceFile(prefix == 0 ? className : packageName + "." + className, type).openWriter();
+                PrintWriter out = new PrintWriter(writer)) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Accessor of {@link " + typeName + "}, generated by "
+                    + ComponentProcessor.class.getSimpleName() + ".");
+            out.println(" *");
+            out.println(" */");
+            out.println("public final class " + className + " extends " + accessor + "<" + typeName + "> {");
+            out.println();
+            out.println("    public static final " + className + " INSTANCE = new " + className + "();");
+            out.println();
+
+            out.print("    private static final String[] names = {");
+            for (int i = 0; i < fields.size(); i++) {
+                out.print((i == 0 ? "" : ", ") + "\"" + fields.get(i).getSimpleName() + "\"");
+            }
+            out.println("};");
+            out.println();
+            out.print("    private static final Class<?>[] types = {");
+            for (int i = 0; i < fields.size(); i++) {
+                out.print((i == 0 ? "" : ", ") + fields.get(i).asType() + ".class");
+            }
+            out.println("};");
+            out.println();
+
+            out.println("    private " + className + "() {");
+            out.println("        super(" + typeName + ".class);");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public int getFieldCount() {");
+            out.println("        return " + fields.size() + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getFieldName(int field) {");
+            out.println("        return names[field];");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public Class<?> getFieldType(int field) {");
+            out.println("        return types[field];");
+            out.println("    }");
+            out.println();
+
+            int size = 0;
+            for (VariableElement field : fields) {
+                size += sizeOf(field.asType());
+            }
+            out.println("    @Override");
+            out.println("    public int maxSize() {");
+            out.println("        return " + size + ";");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + typeName + " newInstance() {");
+            out.println("        return new " + typeName + "();");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void copy(" + typeName + " from, " + typeName + " to) {");
+            for (VariableElement field : fields) {
+                out.println("        to." + field.getSimpleName() + " = from." + field.getSimpleName() + ";");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public long readBits(" + typeName + " component, int field) {");
+            out.println("        switch (field) {");
+            for (int i = 0; i < fields.size(); i++) {
+                VariableElement field = fields.get(i);
+                out.println("            case " + i + ":");
+                out.println("                return " + readBits(field.asType(), "component." + field.getSimpleName())
+                        + ";");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"no field \" + field);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void writeBits(" + typeName + " component, int field, long bits) {");
+            out.println("        switch (field) {");
+            for (int i = 0; i < fields.size(); i++) {
+                VariableElement field = fields.get(i);
+                out.println("            case " + i + ":");
+                out.println("                component." + field.getSimpleName() + " = " + fromBits(field.asType())
+                        + ";");
+                out.println("                break;");
+            }
+            out.println("            default:");
+            out.println("                throw new IndexOutOfBoundsException(\"no field \" + field);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void write(" + typeName + " component, java.nio.ByteBuffer out) {");
+            for (VariableElement field : fields) {
+                out.println("        " + put(field.asType(), "component." + field.getSimpleName()) + ";");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void read(java.nio.ByteBuffer in, " + typeName + " component) {");
+            for (VariableElement field : fields) {
+                out.println("        component." + field.getSimpleName() + " = " + get(field.asType()) + ";");
+            }
+            out.println("    }");
+            out.println("}");
+        } catch (IOException e) {
+            error(type, "failed to write accessor: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets size of a field in a struct column; same as in StructLayout.
+     * @param type Primitive type.
+     * @return Size in bytes.
+     */
+    private static int sizeOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case LONG:
+            case DOUBLE:
+                return 8;
+            case INT:
+            case FLOAT:
+                return 4;
+            case SHORT:
+            case CHAR:
+                return 2;
+            default: // byte, boolean
+                return 1;
+        }
+    }
+
+    private static String readBits(TypeMirror type, String value) {
+        TypeKind kind = type.getKind();
+        if (kind == TypeKind.FLOAT) {
+            return "Float.floatToRawIntBits(" + value + ")";
+        } else if (kind == TypeKind.DOUBLE) {
+            return "Double.doubleToRawLongBits(" + value + ")";
+        } else if (kind == TypeKind.BOOLEAN) {
+            return value + " ? 1 : 0";
+        } else {
+            return value;
+        }
+    }
+
+    private static String fromBits(TypeMirror type) {
+        switch (type.getKind()) {
+            case FLOAT:
+                return "Float.intBitsToFloat((int) bits)";
+            case DOUBLE:
+                return "Double.longBitsToDouble(bits)";
+            case LONG:
+                return "bits";
+            case BOOLEAN:
+                return "bits != 0";
+            default:
+                return "(" + type + ") bits";
+        }
+    }
+
+    private static String put(TypeMirror type, String value) {
+        switch (type.getKind()) {
+            case FLOAT:
+                return "out.putFloat(" + value + ")";
+            case DOUBLE:
+                return "out.putDouble(" + value + ")";
+            case LONG:
+                return "out.putLong(" + value + ")";
+            case INT:
+                return "out.putInt(" + value + ")";
+            case SHORT:
+                return "out.putShort(" + value + ")";
+            case CHAR:
+                return "out.putChar(" + value + ")";
+            case BYTE:
+                return "out.put(" + value + ")";
+            default: // boolean
+                return "out.put((byte) (" + value + " ? 1 : 0))";
+        }
+    }
+
+    private static String get(TypeMirror type) {
+        switch (type.getKind()) {
+            case FLOAT:
+                return "in.getFloat()";
+            case DOUBLE:
+                return "in.getDouble()";
+            case LONG:
+                return "in.getLong()";
+            case INT:
+                return "in.getInt()";
+            case SHORT:
+                return "in.getShort()";
+            case CHAR:
+                return "in.getChar()";
+            case BYTE:
+                return "in.get()";
+            default: // boolean
+                return "in.get() != 0";
+        }
+    }
+}